@@ -0,0 +1,290 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous writes to an at24c device, so callers do not wait for write cycles.
+ * Writes are queued and return a future at once, and a writer thread drains the queue
+ * in the order the writes were queued.
+ * While the writer is busy, a write overlapping or adjacent to the write queued just
+ * before it is merged into it, and a later write wins where they overlap. A merged run
+ * goes to the eeprom page by page in offset order, so only the pages of one run may be
+ * written out of the order they were queued in.
+ * Reads through the writer see queued data that is not written yet.
+ * The device is not closed by the writer.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AsyncWriter implements AutoCloseable {
+    private static final String TAG = "AsyncWriter";
+
+    private final at24c device;
+    private final int page_size;
+    private final Thread writer;
+
+    /**
+     * a run of overlapping or adjacent writes, and the futures of the writes in it.
+     */
+    private static class Run {
+        final WritePlanner plan;
+        int start;
+        int end;
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        // done after the futures of the writes, so a waiter sees all of them done.
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Run(int page_size, int start, int end) {
+            plan = new WritePlanner(page_size);
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // queued runs in queued order, and the last run queued, guarded by this.
+    private ArrayDeque<Run> pending = new ArrayDeque<>();
+    private Run last;
+    // runs taken by the writer and not written yet, guarded by device.
+    private ArrayDeque<Run> in_flight = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * create a writer and start its thread.
+     * @param device at24c device to write. it must be accessed only through the writer after.
+     */
+    public AsyncWriter(at24c device) {
+        this.device = device;
+        page_size = device.getPageSize();
+        writer = new Thread(this::run, TAG);
+        writer.start();
+    }
+
+    /**
+     * queue a write. it is written after all writes queued before it, see {@link AsyncWriter}.
+     * @param offset target offset for writing.
+     * @param val data value array. it is copied, so val can be reused right away.
+     * @param size data size bytes.
+     * @return future done when the data is written to the eeprom.
+     * @throws IllegalArgumentException caused when data size argument is 0
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then eeprom size.
+     * @throws IllegalStateException caused when the writer is closed.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public Future<Void> write(int offset, byte[] val, int size)
+            throws IllegalArgumentException, IndexOutOfBoundsException,
+            IllegalStateException, UnsupportedOperationException {
+        return write(offset, val, 0, size);
+    }
+
+    /**
+     * queue a write from a part of array.
+     * it is written after all writes queued before it, see {@link AsyncWriter}.
+     * @param offset target offset for writing.
+     * @param val data value array. it is copied, so val can be reused right away.
+     * @param index index of the first byte to write in val.
+     * @param size data size bytes.
+     * @return future done when the data is written to the eeprom.
+     * @throws IllegalArgumentException caused when data size argument is 0
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then eeprom size,
+     * or index and size sum is bigger then val size.
+     * @throws IllegalStateException caused when the writer is closed.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized Future<Void> write(int offset, byte[] val, int index, int size)
+            throws IllegalArgumentException, IndexOutOfBoundsException,
+            IllegalStateException, UnsupportedOperationException {
+        if (closed)
+            throw new IllegalStateException("writer is closed");
+        if (device.read_only)
+            throw new UnsupportedOperationException("Read Only");
+        checkRange(offset, size);
+        Run run = pending.peekLast();
+        if (run != null && offset <= run.end && offset + size >= run.start) {
+            run.start = Math.min(run.start, offset);
+            run.end = Math.max(run.end, offset + size);
+        } else {
+            run = new Run(page_size, offset, offset + size);
+            pending.addLast(run);
+            last = run;
+        }
+        run.plan.add(offset, val, index, size);
+        // a future of its own, so a caller can not complete the one of the others.
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        run.futures.add(future);
+        notifyAll();
+        return future;
+    }
+
+    /**
+     * read data from eeprom, with the queued writes over it.
+     * @param offset target offset for reading.
+     * @param size data size bytes.
+     * @return reading data.
+     * @throws IOException error when reading from eeprom.
+     * @throws IllegalArgumentException caused when data size argument is 0.
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then eeprom size.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public byte[] read(int offset, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException {
+        checkRange(offset, size);
+        synchronized (device) {
+            byte[] data = device.read(offset, size);
+            for (Run run : in_flight)
+                run.plan.overlay(offset, data);
+            synchronized (this) {
+                for (Run run : pending)
+                    run.plan.overlay(offset, data);
+            }
+            return data;
+        }
+    }
+
+    /**
+     * wait until all writes queued before are written.
+     * writes are written in queued order, so this waits for the last one, and the futures
+     * of all of them are done when it returns.
+     * @throws IOException error when writing the last write queued.
+     * @throws InterruptedException interrupted while waiting.
+     */
+    public void sync() throws IOException, InterruptedException {
+        Run run;
+        synchronized (this) {
+            run = last;
+        }
+        if (run == null)
+            return;
+        try {
+            run.done.get();
+        } catch (ExecutionException e) {
+            throw new IOException("write failed", e.getCause());
+        }
+    }
+
+    /**
+     * write the queued writes and stop the writer thread. the device stays open.
+     * @throws IOException error when writing the last writes.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+            sync();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("close interrupted", e);
+        }
+    }
+
+    private void checkRange(int offset, int size) {
+        if (size == 0)
+            throw new IllegalArgumentException("size must bigger then zero");
+        if (offset < 0 || offset + size > device.getSize())
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (pending.isEmpty() && !closed)
+                        wait();
+                    if (pending.isEmpty())
+                        return;
+                }
+                // reads see the writes either queued or in flight, never in between.
+                synchronized (device) {
+                    synchronized (this) {
+                        in_flight = pending;
+                        pending = new ArrayDeque<>();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                while (true) {
+                    Run run;
+                    synchronized (device) {
+                        run = in_flight.peekFirst();
+                    }
+                    if (run == null)
+                        break;
+                    // a page at a time, so reads wait for one write cycle at most.
+                    boolean more;
+                    do {
+                        synchronized (device) {
+                            more = run.plan.writeNextPage(device);
+                        }
+                    } while (more);
+                    synchronized (device) {
+                        in_flight.pollFirst();
+                    }
+                    complete(run, null);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Unable to write", e);
+                failInFlight(e);
+            } catch (InterruptedException e) {
+                failInFlight(e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * fail the runs not written, the later ones as well so none is written out of order.
+     */
+    private void failInFlight(Exception e) {
+        while (true) {
+            Run run;
+            synchronized (device) {
+                run = in_flight.pollFirst();
+            }
+            if (run == null)
+                return;
+            complete(run, e);
+        }
+    }
+
+    private static void complete(Run run, Exception e) {
+        for (CompletableFuture<Void> future : run.futures) {
+            if (e == null)
+                future.complete(null);
+            else
+                future.completeExceptionally(e);
+        }
+        if (e == null)
+            run.done.complete(null);
+        else
+            run.done.completeExceptionally(e);
+    }
+}
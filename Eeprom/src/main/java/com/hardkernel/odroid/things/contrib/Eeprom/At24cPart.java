@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+/**
+ * Part descriptors of the AT24C series.
+ * Parts up to 2KB take an 8 bit word address and select 256 byte blocks with the low
+ * bits of the i2c address instead of the A0 - A2 pins. Bigger parts take a 16 bit word address.
+ */
+public enum At24cPart {
+    AT24C01(128, 8, false, 0, 5),
+    AT24C02(256, 8, false, 0, 5),
+    AT24C04(512, 16, false, 1, 5),
+    AT24C08(1024, 16, false, 2, 5),
+    AT24C16(2048, 16, false, 3, 5),
+    AT24C32(4096, 32, true, 0, 10),
+    AT24C64(8192, 32, true, 0, 10),
+    AT24C128(16384, 64, true, 0, 5),
+    AT24C256(32768, 64, true, 0, 5),
+    AT24C512(65536, 128, true, 0, 5);
+
+    private final int size;
+    private final int page_size;
+    private final boolean address_16;
+    private final int block_bits;
+    private final long write_time;
+
+    At24cPart(int size, int page_size, boolean address_16, int block_bits, long write_time) {
+        this.size = size;
+        this.page_size = page_size;
+        this.address_16 = address_16;
+        this.block_bits = block_bits;
+        this.write_time = write_time;
+    }
+
+    /**
+     * @return capacity in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return page size in bytes, the most one write cycle can write.
+     */
+    public int getPageSize() {
+        return page_size;
+    }
+
+    /**
+     * @return true when the word address is 16 bit, false when it is 8 bit.
+     */
+    public boolean isAddress16() {
+        return address_16;
+    }
+
+    /**
+     * @return the number of low i2c address bits selecting a 256 byte block.
+     */
+    public int getBlockBits() {
+        return block_bits;
+    }
+
+    /**
+     * @return maximum write cycle time in ms.
+     */
+    public long getWriteTime() {
+        return write_time;
+    }
+}
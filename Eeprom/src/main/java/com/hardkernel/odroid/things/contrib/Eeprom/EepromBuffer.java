@@ -0,0 +1,310 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Random access view of an at24c device, like an absolute ByteBuffer.
+ * Primitive values are read and written at offsets, in big endian by default.
+ * Reads go through a small page cache. A miss reads ahead the following pages in the same
+ * sequential read, and the read-ahead doubles while misses stay sequential, so parsing an
+ * image field by field takes a few long reads instead of a read for each field.
+ * Writes go to the device at once and update the cached pages.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class EepromBuffer {
+    public static final int DEFAULT_READ_AHEAD = 16;
+
+    private final at24c device;
+    private final int page_size;
+    private final int page_count;
+    private final LruCache<Integer, byte[]> cache;
+    private final byte[] scratch = new byte[8];
+    private final ByteBuffer scratch_buffer = ByteBuffer.wrap(scratch);
+
+    private int max_read_ahead = DEFAULT_READ_AHEAD;
+    private int read_ahead = 1;
+    private int next_page = -1;
+    private long device_reads;
+
+    /**
+     * create a view of the device with the default read-ahead.
+     * @param device at24c device to view.
+     */
+    public EepromBuffer(at24c device) {
+        this.device = device;
+        page_size = device.getPageSize();
+        page_count = (device.getSize() + page_size - 1) / page_size;
+        cache = new LruCache<>(2 * max_read_ahead);
+    }
+
+    /**
+     * @return byte order of the primitive values.
+     */
+    public synchronized ByteOrder order() {
+        return scratch_buffer.order();
+    }
+
+    /**
+     * set byte order of the primitive values.
+     * @param order byte order.
+     * @return this view.
+     */
+    public synchronized EepromBuffer order(ByteOrder order) {
+        scratch_buffer.order(order);
+        return this;
+    }
+
+    /**
+     * set the most pages read ahead on sequential misses. the cache holds twice as many.
+     * @param pages pages to read ahead, 1 for no read-ahead.
+     */
+    public synchronized void setReadAhead(int pages) {
+        if (pages <= 0)
+            throw new IllegalArgumentException("pages must bigger then zero");
+        max_read_ahead = pages;
+        read_ahead = Math.min(read_ahead, pages);
+        cache.resize(2 * pages);
+    }
+
+    /**
+     * @return eeprom size in bytes.
+     */
+    public int capacity() {
+        return device.getSize();
+    }
+
+    /**
+     * @return the number of reads done on the device.
+     */
+    public synchronized long getDeviceReads() {
+        return device_reads;
+    }
+
+    /**
+     * drop the cached pages, for when the device is written around this view.
+     */
+    public synchronized void invalidate() {
+        cache.evictAll();
+        next_page = -1;
+    }
+
+    public synchronized byte get(int offset) throws IOException, InterruptedException {
+        checkRange(offset, 1);
+        return page(offset / page_size)[offset % page_size];
+    }
+
+    public synchronized short getShort(int offset) throws IOException, InterruptedException {
+        return load(offset, 2).getShort(0);
+    }
+
+    public synchronized char getChar(int offset) throws IOException, InterruptedException {
+        return load(offset, 2).getChar(0);
+    }
+
+    public synchronized int getInt(int offset) throws IOException, InterruptedException {
+        return load(offset, 4).getInt(0);
+    }
+
+    public synchronized long getLong(int offset) throws IOException, InterruptedException {
+        return load(offset, 8).getLong(0);
+    }
+
+    public synchronized float getFloat(int offset) throws IOException, InterruptedException {
+        return load(offset, 4).getFloat(0);
+    }
+
+    public synchronized double getDouble(int offset) throws IOException, InterruptedException {
+        return load(offset, 8).getDouble(0);
+    }
+
+    /**
+     * read data into a caller buffer. pages not cached are read in one sequential read
+     * for each run of them.
+     * @param offset target offset for reading.
+     * @param dst buffer to read into.
+     * @param index index of the first byte in dst.
+     * @param length data size bytes.
+     * @throws IOException error when reading from eeprom.
+     * @throws IndexOutOfBoundsException caused when the range is out of eeprom size or dst.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public synchronized void get(int offset, byte[] dst, int index, int length)
+            throws IOException, IndexOutOfBoundsException, InterruptedException {
+        checkRange(offset, length);
+        if (index < 0 || index + length > dst.length)
+            throw new IndexOutOfBoundsException("Denied access to out of array");
+
+        while (length > 0) {
+            int page = offset / page_size;
+            byte[] data = cache.get(page);
+            if (data == null) {
+                // the pages left of the request are read along with the missing one.
+                int last = (offset + length - 1) / page_size;
+                fill(page, last - page + 1);
+                data = cache.get(page);
+            }
+            int start = offset % page_size;
+            int chunk = Math.min(length, page_size - start);
+            System.arraycopy(data, start, dst, index, chunk);
+            offset += chunk;
+            index += chunk;
+            length -= chunk;
+        }
+    }
+
+    public void get(int offset, byte[] dst) throws IOException, InterruptedException {
+        get(offset, dst, 0, dst.length);
+    }
+
+    public synchronized void put(int offset, byte value)
+            throws IOException, InterruptedException {
+        scratch[0] = value;
+        put(offset, scratch, 0, 1);
+    }
+
+    public synchronized void putShort(int offset, short value)
+            throws IOException, InterruptedException {
+        scratch_buffer.putShort(0, value);
+        put(offset, scratch, 0, 2);
+    }
+
+    public synchronized void putChar(int offset, char value)
+            throws IOException, InterruptedException {
+        scratch_buffer.putChar(0, value);
+        put(offset, scratch, 0, 2);
+    }
+
+    public synchronized void putInt(int offset, int value)
+            throws IOException, InterruptedException {
+        scratch_buffer.putInt(0, value);
+        put(offset, scratch, 0, 4);
+    }
+
+    public synchronized void putLong(int offset, long value)
+            throws IOException, InterruptedException {
+        scratch_buffer.putLong(0, value);
+        put(offset, scratch, 0, 8);
+    }
+
+    public synchronized void putFloat(int offset, float value)
+            throws IOException, InterruptedException {
+        scratch_buffer.putFloat(0, value);
+        put(offset, scratch, 0, 4);
+    }
+
+    public synchronized void putDouble(int offset, double value)
+            throws IOException, InterruptedException {
+        scratch_buffer.putDouble(0, value);
+        put(offset, scratch, 0, 8);
+    }
+
+    /**
+     * write data from a caller buffer to the device, and to the cached pages.
+     * each put is written at once, so put many fields as one array, or use a PageCache.
+     * @param offset target offset for writing.
+     * @param src data value array.
+     * @param index index of the first byte in src.
+     * @param length data size bytes.
+     * @throws IOException error when writing from eeprom
+     * @throws IndexOutOfBoundsException caused when the range is out of eeprom size or src.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized void put(int offset, byte[] src, int index, int length)
+            throws IOException, IndexOutOfBoundsException,
+            InterruptedException, UnsupportedOperationException {
+        checkRange(offset, length);
+        device.write(offset, src, index, length);
+
+        while (length > 0) {
+            int start = offset % page_size;
+            int chunk = Math.min(length, page_size - start);
+            byte[] data = cache.get(offset / page_size);
+            if (data != null)
+                System.arraycopy(src, index, data, start, chunk);
+            offset += chunk;
+            index += chunk;
+            length -= chunk;
+        }
+    }
+
+    public void put(int offset, byte[] src) throws IOException, InterruptedException {
+        put(offset, src, 0, src.length);
+    }
+
+    /**
+     * @return scratch buffer holding the bytes of a value at the offset.
+     */
+    private ByteBuffer load(int offset, int size) throws IOException, InterruptedException {
+        checkRange(offset, size);
+        int start = offset % page_size;
+        if (start + size <= page_size)
+            System.arraycopy(page(offset / page_size), start, scratch, 0, size);
+        else
+            get(offset, scratch, 0, size);
+        return scratch_buffer;
+    }
+
+    private byte[] page(int page) throws IOException, InterruptedException {
+        byte[] data = cache.get(page);
+        if (data == null) {
+            fill(page, 1);
+            data = cache.get(page);
+        }
+        return data;
+    }
+
+    /**
+     * read the pages, and the pages read ahead, in one sequential read into the cache.
+     * the read-ahead doubles when the miss follows the last read, or starts again from one.
+     */
+    private void fill(int page, int pages) throws IOException, InterruptedException {
+        read_ahead = page == next_page ? Math.min(read_ahead * 2, max_read_ahead) : 1;
+        pages = Math.min(Math.max(pages, read_ahead), page_count - page);
+        // no more than the cache holds, and up to the first page cached already.
+        pages = Math.min(pages, cache.maxSize());
+        for (int i = 1; i < pages; i++) {
+            if (cache.get(page + i) != null) {
+                pages = i;
+                break;
+            }
+        }
+
+        int start = page * page_size;
+        int length = Math.min(pages * page_size, device.getSize() - start);
+        byte[] data = device.read(start, length);
+        device_reads++;
+        for (int i = 0; i < pages; i++) {
+            byte[] line = new byte[page_size];
+            System.arraycopy(data, i * page_size, line, 0,
+                    Math.min(page_size, length - i * page_size));
+            cache.put(page + i, line);
+        }
+        next_page = page + pages;
+    }
+
+    private void checkRange(int offset, int size) {
+        if (offset < 0 || offset + size > device.getSize())
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured key-value store on an at24c region.
+ * Each put or remove appends one record at the next free page, so writes spread over the
+ * whole region instead of wearing out the page of a hot key, and take no read-modify-write.
+ * The index is rebuilt by one sequential read of the region at open, and the space of
+ * outdated records is reclaimed by a compaction running in the background.
+ *
+ * Record layout, big endian, starting on a page boundary:
+ * <pre>
+ * u8 magic, u8 flags, u8 key length, u16 value length, u32 sequence, u32 tail sequence,
+ * u32 crc32 of all bytes before and after it, key bytes, value bytes
+ * </pre>
+ * The tail sequence is the oldest sequence still in the log when the record is written.
+ * Records older than the tail sequence of the newest record are ignored at open, so
+ * reclaimed records are not found again.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class KeyValueStore implements AutoCloseable {
+    private static final String TAG = "KeyValueStore";
+
+    private static final int MAGIC = 0x5A;
+    private static final int FLAG_REMOVED = 0x01;
+    private static final int HEADER_SIZE = 17;
+    private static final int CRC_OFFSET = 13;
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private static class Record {
+        final int page;
+        final int pages;
+        final long sequence;
+        final String key;
+
+        Record(int page, int pages, long sequence, String key) {
+            this.page = page;
+            this.pages = pages;
+            this.sequence = sequence;
+            this.key = key;
+        }
+    }
+
+    private static class Entry {
+        final Record record;
+        final int value_length;
+
+        Entry(Record record, int value_length) {
+            this.record = record;
+            this.value_length = value_length;
+        }
+    }
+
+    private final at24c device;
+    private final int region_offset;
+    private final int page_size;
+    private final int page_count;
+
+    // records still in the log, oldest first. the first one is the tail.
+    private final ArrayDeque<Record> log = new ArrayDeque<>();
+    private final Map<String, Entry> index = new HashMap<>();
+    private final LruCache<String, byte[]> cache;
+    private int head;
+    private long next_sequence;
+    private int log_pages;
+    private int live_pages;
+    private int max_pages = 1;
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean compacting;
+
+    /**
+     * open a store on the whole device.
+     * @param device at24c device to store on.
+     * @throws IOException error when reading from eeprom.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public KeyValueStore(at24c device) throws IOException, InterruptedException {
+        this(device, 0, device.getSize());
+    }
+
+    /**
+     * open a store on a region of the device.
+     * the region is read once to find the records and build the index.
+     * @param device at24c device to store on.
+     * @param offset region offset, a multiple of the page size.
+     * @param length region length, a multiple of the page size.
+     * @throws IOException error when reading from eeprom.
+     * @throws IllegalArgumentException caused when the region is not page aligned.
+     * @throws IndexOutOfBoundsException caused when the region is out of eeprom size.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public KeyValueStore(at24c device, int offset, int length)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException {
+        page_size = device.getPageSize();
+        if (offset % page_size != 0 || length % page_size != 0 || length == 0)
+            throw new IllegalArgumentException("region must be page aligned");
+        if (offset < 0 || offset + length > device.getSize())
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+
+        this.device = device;
+        region_offset = offset;
+        page_count = length / page_size;
+        cache = new LruCache<String, byte[]>(DEFAULT_CACHE_SIZE) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length + 1;
+            }
+        };
+        scan(device.read(offset, length));
+    }
+
+    /**
+     * @param key key to look up.
+     * @return a copy of the value, or null when the key is not stored.
+     * @throws IOException error when reading from eeprom.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public synchronized byte[] get(String key) throws IOException, InterruptedException {
+        Entry entry = index.get(key);
+        if (entry == null)
+            return null;
+        byte[] value = cache.get(key);
+        if (value == null) {
+            value = entry.value_length == 0 ? new byte[0]
+                    : device.read(recordOffset(entry.record) + HEADER_SIZE
+                            + encodeKey(key).length, entry.value_length);
+            cache.put(key, value);
+        }
+        return value.clone();
+    }
+
+    /**
+     * @param key key to look up.
+     * @return true when the key is stored.
+     */
+    public synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * @return a copy of the stored keys.
+     */
+    public synchronized Set<String> keySet() {
+        return new HashSet<>(index.keySet());
+    }
+
+    /**
+     * @return the number of stored keys.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * store a value by appending one record.
+     * @param key key of 1 - 255 UTF-8 bytes.
+     * @param value value to store.
+     * @throws IOException error when writing, or no space is left after compaction.
+     * @throws IllegalArgumentException caused when the key or the record size is not allowed.
+     * @throws InterruptedException some interrupt can caused from i2c.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized void put(String key, byte[] value)
+            throws IOException, IllegalArgumentException,
+            InterruptedException, UnsupportedOperationException {
+        if (value.length > 0xFFFF)
+            throw new IllegalArgumentException("value is too long");
+        append(key, value, 0);
+        cache.put(key, value.clone());
+    }
+
+    /**
+     * remove a key by appending a removal record.
+     * @param key key to remove.
+     * @return true when the key was stored.
+     * @throws IOException error when writing, or no space is left after compaction.
+     * @throws InterruptedException some interrupt can caused from i2c.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized boolean remove(String key)
+            throws IOException, InterruptedException, UnsupportedOperationException {
+        if (!index.containsKey(key))
+            return false;
+        append(key, new byte[0], FLAG_REMOVED);
+        cache.remove(key);
+        return true;
+    }
+
+    /**
+     * @return the number of free pages between the head and the tail of the log.
+     */
+    public synchronized int getFreePages() {
+        return freePages();
+    }
+
+    /**
+     * @return the number of pages held by outdated records, reclaimed by compaction.
+     */
+    public synchronized int getStalePages() {
+        return log_pages - live_pages;
+    }
+
+    /**
+     * reclaim all outdated records now.
+     * live records at the tail are moved to the head, until the tail reaches the first
+     * record appended after this call started.
+     * @throws IOException error when reading or writing.
+     * @throws InterruptedException some interrupt can caused from i2c.
+     */
+    public synchronized void compact() throws IOException, InterruptedException {
+        long end = next_sequence;
+        while (!log.isEmpty() && log.peekFirst().sequence < end && log_pages > live_pages)
+            if (!compactStep())
+                return;
+    }
+
+    /**
+     * stop the background compaction. the device stays open.
+     */
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        try {
+            compactor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scan(byte[] region) {
+        List<Record> found = new ArrayList<>();
+        Map<Record, Integer> flags = new HashMap<>();
+        Map<Record, Integer> lengths = new HashMap<>();
+        long newest_tail = -1;
+        Record newest = null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(region);
+        int page = 0;
+        while (page < page_count) {
+            int start = page * page_size;
+            if (region.length - start < HEADER_SIZE || (region[start] & 0xFF) != MAGIC) {
+                page++;
+                continue;
+            }
+            int key_length = region[start + 2] & 0xFF;
+            int value_length = buffer.getShort(start + 3) & 0xFFFF;
+            int length = HEADER_SIZE + key_length + value_length;
+            if (key_length == 0 || start + length > region.length
+                    || buffer.getInt(start + CRC_OFFSET) != crc(region, start, length)) {
+                page++;
+                continue;
+            }
+
+            Record record = new Record(page, pagesOf(length),
+                    buffer.getInt(start + 5) & 0xFFFFFFFFL,
+                    new String(region, start + HEADER_SIZE, key_length, StandardCharsets.UTF_8));
+            found.add(record);
+            flags.put(record, region[start + 1] & 0xFF);
+            lengths.put(record, value_length);
+            if (newest == null || record.sequence > newest.sequence) {
+                newest = record;
+                newest_tail = buffer.getInt(start + 9) & 0xFFFFFFFFL;
+            }
+            max_pages = Math.max(max_pages, record.pages);
+            page += record.pages;
+        }
+
+        if (newest == null)
+            return;
+        head = newest.page + newest.pages;
+        next_sequence = newest.sequence + 1;
+
+        Collections.sort(found, (a, b) -> Long.compare(a.sequence, b.sequence));
+        for (Record record : found) {
+            if (record.sequence < newest_tail)
+                continue;
+            addToLog(record, (flags.get(record) & FLAG_REMOVED) != 0, lengths.get(record));
+        }
+    }
+
+    private void append(String key, byte[] value, int flag)
+            throws IOException, InterruptedException {
+        if (device.read_only)
+            throw new UnsupportedOperationException("Read Only");
+        int pages = pagesOf(HEADER_SIZE + encodeKey(key).length + value.length);
+        if (pages > page_count / 4)
+            throw new IllegalArgumentException("record is bigger then a quarter of the store");
+        max_pages = Math.max(max_pages, pages);
+        if ((flag & FLAG_REMOVED) == 0 && live_pages + pages + reserve() > page_count)
+            throw new IOException("key value store is full");
+
+        // keep room to move live records, or compaction gets stuck behind them.
+        while (freePages() - pages < reserve() && log_pages > live_pages) {
+            if (!compactStep())
+                break;
+        }
+        int page;
+        while ((page = place(pages)) < 0) {
+            if (!compactStep())
+                throw new IOException("key value store is full");
+        }
+        writeRecord(page, key, value, flag);
+        scheduleCompaction();
+    }
+
+    private void writeRecord(int page, String key, byte[] value, int flag)
+            throws IOException, InterruptedException {
+        byte[] key_bytes = encodeKey(key);
+        int length = HEADER_SIZE + key_bytes.length + value.length;
+        long tail_sequence = log.isEmpty() ? next_sequence : log.peekFirst().sequence;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.put((byte) MAGIC)
+                .put((byte) flag)
+                .put((byte) key_bytes.length)
+                .putShort((short) value.length)
+                .putInt((int) next_sequence)
+                .putInt((int) tail_sequence)
+                .putInt(0)
+                .put(key_bytes)
+                .put(value);
+        byte[] data = record.array();
+        record.putInt(CRC_OFFSET, crc(data, 0, length));
+        device.write(region_offset + page * page_size, data, length);
+
+        int pages = pagesOf(length);
+        head = page + pages;
+        addToLog(new Record(page, pages, next_sequence++, key),
+                (flag & FLAG_REMOVED) != 0, value.length);
+    }
+
+    private void addToLog(Record record, boolean removed, int value_length) {
+        log.addLast(record);
+        log_pages += record.pages;
+        Entry old = removed ? index.remove(record.key)
+                : index.put(record.key, new Entry(record, value_length));
+        if (old != null)
+            live_pages -= old.record.pages;
+        if (!removed)
+            live_pages += record.pages;
+    }
+
+    /**
+     * @return the number of pages between the head and the tail.
+     */
+    private int freePages() {
+        if (log.isEmpty())
+            return page_count;
+        int tail = log.peekFirst().page;
+        if (head > tail)
+            return page_count - head + tail;
+        return head < tail ? tail - head : 0;
+    }
+
+    private int reserve() {
+        return 2 * max_pages;
+    }
+
+    /**
+     * @return the first page of free space for a record of the pages, or -1.
+     */
+    private int place(int pages) {
+        if (log.isEmpty())
+            return head + pages <= page_count ? head : 0;
+        int tail = log.peekFirst().page;
+        if (head > tail) {
+            if (head + pages <= page_count)
+                return head;
+            return pages <= tail ? 0 : -1;
+        }
+        if (head < tail)
+            return pages <= tail - head ? head : -1;
+        return -1;
+    }
+
+    /**
+     * move the tail forward by one record. a live record is appended again first.
+     * @return false when a live tail record has no room to move to.
+     */
+    private boolean compactStep() throws IOException, InterruptedException {
+        Record tail = log.peekFirst();
+        if (tail == null)
+            return false;
+        Entry entry = index.get(tail.key);
+        if (entry != null && entry.record == tail) {
+            int page = place(tail.pages);
+            if (page < 0)
+                return false;
+            // the old copy stays in the log until the new one is written.
+            writeRecord(page, tail.key, get(tail.key), 0);
+        }
+        log.removeFirst();
+        log_pages -= tail.pages;
+        return true;
+    }
+
+    /**
+     * compact in the background when less than a quarter of the region is free,
+     * until half of it is free or no outdated record is left.
+     */
+    private void scheduleCompaction() {
+        if (compacting || freePages() >= page_count / 4 || log_pages == live_pages)
+            return;
+        compacting = true;
+        try {
+            compactor.execute(this::compactBackground);
+        } catch (RuntimeException e) {
+            // closed.
+            compacting = false;
+        }
+    }
+
+    private void compactBackground() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                synchronized (this) {
+                    if (freePages() >= page_count / 2 || log_pages == live_pages
+                            || !compactStep()) {
+                        compacting = false;
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "compaction failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            compacting = false;
+        }
+    }
+
+    private int recordOffset(Record record) {
+        return region_offset + record.page * page_size;
+    }
+
+    private int pagesOf(int length) {
+        return (length + page_size - 1) / page_size;
+    }
+
+    private static byte[] encodeKey(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_KEY_LENGTH)
+            throw new IllegalArgumentException("key must be 1 - 255 bytes");
+        return bytes;
+    }
+
+    /**
+     * crc32 of a record, leaving out the crc field.
+     */
+    private static int crc(byte[] data, int start, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, start, CRC_OFFSET);
+        crc.update(data, start + CRC_OFFSET + 4, length - CRC_OFFSET - 4);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-back page cache over an at24c device.
+ * Reads load each page from the device once, writes only change the cache and mark their
+ * byte range of the page dirty, and flush() writes each dirty range in one write cycle.
+ * Pages can be flushed when enough of them are dirty, or periodically.
+ * The device is not closed by the cache.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PageCache implements AutoCloseable {
+    private static final String TAG = "PageCache";
+
+    private final at24c device;
+    private final int page_size;
+    private final int page_count;
+
+    private final byte[] image;
+    private final boolean[] loaded;
+    // dirty byte range of each page, dirty_start > dirty_end when clean.
+    private final int[] dirty_start;
+    private final int[] dirty_end;
+    private int dirty_pages;
+
+    private boolean verify = true;
+    private int flush_threshold = 0;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> periodic_flush;
+
+    /**
+     * create a cache over the device. nothing is read until it is needed.
+     * @param device at24c device to cache.
+     */
+    public PageCache(at24c device) {
+        this.device = device;
+        page_size = device.getPageSize();
+        page_count = (device.getSize() + page_size - 1) / page_size;
+        image = new byte[device.getSize()];
+        loaded = new boolean[page_count];
+        dirty_start = new int[page_count];
+        dirty_end = new int[page_count];
+        Arrays.fill(dirty_start, page_size);
+        Arrays.fill(dirty_end, -1);
+    }
+
+    /**
+     * turn read-back verification of flushed pages on or off. it is on by default.
+     * @param enable true to read each written range back and compare it.
+     */
+    public synchronized void setVerify(boolean enable) {
+        verify = enable;
+    }
+
+    /**
+     * flush when a write leaves this many pages dirty.
+     * @param pages dirty page count to flush at, 0 to flush only on flush() or periodically.
+     */
+    public synchronized void setFlushThreshold(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("threshold must not be negative");
+        flush_threshold = pages;
+    }
+
+    /**
+     * flush the dirty pages periodically on a background thread.
+     * @param intervalMs flush interval in ms, 0 to stop periodic flushing.
+     */
+    public synchronized void setFlushInterval(long intervalMs) {
+        if (intervalMs < 0)
+            throw new IllegalArgumentException("interval must not be negative");
+        if (periodic_flush != null) {
+            periodic_flush.cancel(false);
+            periodic_flush = null;
+        }
+        if (intervalMs == 0)
+            return;
+        if (scheduler == null)
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+        periodic_flush = scheduler.scheduleWithFixedDelay(this::flushQuietly,
+                intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of pages with changes not written to the device.
+     */
+    public synchronized int getDirtyPageCount() {
+        return dirty_pages;
+    }
+
+    /**
+     * read data through the cache.
+     * @param offset target offset for reading.
+     * @param size data size bytes.
+     * @return reading data.
+     * @throws IOException error when reading from eeprom.
+     * @throws IllegalArgumentException caused when data size argument is 0.
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then eeprom size.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public synchronized byte[] read(int offset, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException {
+        checkRange(offset, size);
+        load(offset, size);
+        return Arrays.copyOfRange(image, offset, offset + size);
+    }
+
+    /**
+     * write data into the cache. it reaches the device with the next flush.
+     * @param offset target offset for writing.
+     * @param val data value array.
+     * @param size data size bytes.
+     * @throws IOException error when loading pages or flushing at the threshold.
+     * @throws IllegalArgumentException caused when data size argument is 0
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then eeprom size.
+     * @throws InterruptedException some interrupt can caused from i2c.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized void write(int offset, byte[] val, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException,
+            UnsupportedOperationException {
+        if (device.read_only)
+            throw new UnsupportedOperationException("Read Only");
+        checkRange(offset, size);
+        if (size > val.length)
+            throw new IndexOutOfBoundsException("Denied access to out of array");
+
+        // partly written pages must hold the device data around the change.
+        load(offset, size);
+        System.arraycopy(val, 0, image, offset, size);
+        for (int address = offset; address < offset + size; ) {
+            int page = address / page_size;
+            int start = address % page_size;
+            int end = Math.min(page_size, start + offset + size - address) - 1;
+            if (dirty_start[page] > dirty_end[page])
+                dirty_pages++;
+            dirty_start[page] = Math.min(dirty_start[page], start);
+            dirty_end[page] = Math.max(dirty_end[page], end);
+            address += end - start + 1;
+        }
+
+        if (flush_threshold > 0 && dirty_pages >= flush_threshold)
+            flush();
+    }
+
+    /**
+     * write the dirty range of each dirty page to the device, one write cycle each.
+     * with verification, each range is read back and compared.
+     * @throws IOException error when writing, or read-back data differs.
+     * @throws InterruptedException some interrupt can caused from i2c.
+     */
+    public synchronized void flush() throws IOException, InterruptedException {
+        if (dirty_pages == 0)
+            return;
+        for (int page = 0; page < page_count; page++) {
+            int start = dirty_start[page];
+            int end = dirty_end[page];
+            if (start > end)
+                continue;
+            int offset = page * page_size + start;
+            int size = end - start + 1;
+            device.write(offset, image, offset, size);
+            if (verify) {
+                byte[] back = device.read(offset, size);
+                for (int i = 0; i < size; i++) {
+                    if (back[i] != image[offset + i])
+                        throw new IOException("verify failed at " + (offset + i));
+                }
+            }
+            dirty_start[page] = page_size;
+            dirty_end[page] = -1;
+            dirty_pages--;
+        }
+    }
+
+    /**
+     * drop cached pages, so next reads load them from the device again.
+     * dirty pages are kept.
+     */
+    public synchronized void invalidate() {
+        for (int page = 0; page < page_count; page++) {
+            if (dirty_start[page] > dirty_end[page])
+                loaded[page] = false;
+        }
+    }
+
+    /**
+     * flush and stop periodic flushing. the device stays open.
+     * @throws IOException error when flushing.
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = scheduler;
+            scheduler = null;
+            periodic_flush = null;
+        }
+        if (stopping != null) {
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("flush interrupted", e);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.e(TAG, "periodic flush failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkRange(int offset, int size) {
+        if (size == 0)
+            throw new IllegalArgumentException("size must bigger then zero");
+        if (offset < 0 || offset + size > image.length)
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+    }
+
+    /**
+     * load the pages of the range not cached yet, each run of them in one sequential read.
+     */
+    private void load(int offset, int size) throws IOException, InterruptedException {
+        int last = (offset + size - 1) / page_size;
+        int page = offset / page_size;
+        while (page <= last) {
+            if (loaded[page]) {
+                page++;
+                continue;
+            }
+            int first = page;
+            while (page <= last && !loaded[page])
+                page++;
+            int start = first * page_size;
+            int end = Math.min(page * page_size, image.length);
+            byte[] data = device.read(start, end - start);
+            System.arraycopy(data, 0, image, start, end - start);
+            for (int i = first; i < page; i++)
+                loaded[i] = true;
+        }
+    }
+}
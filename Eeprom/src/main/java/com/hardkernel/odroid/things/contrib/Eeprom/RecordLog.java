@@ -0,0 +1,298 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Ring log of fixed size records on an at24c region, for data that must survive power loss.
+ * Each record goes to slot sequence % capacity with its sequence number and a crc32,
+ * so no head pointer is written: at open the head is found by a binary search over
+ * the sequence numbers of the slots, with a few reads instead of a full scan.
+ * Appended records are kept until the next one would cross a page boundary, then written
+ * together, so each batch takes one write cycle.
+ *
+ * Slot layout, big endian: u32 sequence, record bytes, u32 crc32 of sequence and record.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class RecordLog {
+    private static final int SLOT_OVERHEAD = 8;
+
+    private final at24c device;
+    private final int region_offset;
+    private final int record_size;
+    private final int slot_size;
+    private final int slot_count;
+
+    private long next_sequence;
+    private long oldest_sequence;
+
+    // appended records not written yet, slot images of sequences from next_sequence - pending.
+    private byte[] pending;
+    private int pending_count;
+
+    /**
+     * open a log on a region of the device and find its head and tail.
+     * @param device at24c device to store on.
+     * @param offset region offset.
+     * @param length region length, room for at least two records.
+     * @param recordSize size of each record in bytes.
+     * @throws IOException error when reading from eeprom.
+     * @throws IllegalArgumentException caused when the region is too small for the records.
+     * @throws IndexOutOfBoundsException caused when the region is out of eeprom size.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public RecordLog(at24c device, int offset, int length, int recordSize)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException {
+        if (recordSize <= 0)
+            throw new IllegalArgumentException("record size must bigger then zero");
+        if (offset < 0 || offset + length > device.getSize())
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+
+        this.device = device;
+        region_offset = offset;
+        record_size = recordSize;
+        slot_size = recordSize + SLOT_OVERHEAD;
+        slot_count = length / slot_size;
+        if (slot_count < 2)
+            throw new IllegalArgumentException("region is too small for two records");
+        pending = new byte[Math.max(device.getPageSize() / slot_size + 1, 1) * slot_size];
+
+        findHead();
+    }
+
+    /**
+     * @return size of each record in bytes.
+     */
+    public int getRecordSize() {
+        return record_size;
+    }
+
+    /**
+     * @return the number of records the log holds before the oldest are overwritten.
+     */
+    public int getCapacity() {
+        return slot_count;
+    }
+
+    /**
+     * @return the number of records in the log, with the ones not written yet.
+     */
+    public synchronized int size() {
+        return (int) (next_sequence - oldest_sequence);
+    }
+
+    /**
+     * @return the sequence number the next appended record gets.
+     */
+    public synchronized long getNextSequence() {
+        return next_sequence;
+    }
+
+    /**
+     * @return the sequence number of the oldest record in the log.
+     */
+    public synchronized long getOldestSequence() {
+        return oldest_sequence;
+    }
+
+    /**
+     * append a record. it is written when the next record would start a new page,
+     * call flush() to write it sooner.
+     * @param record record data of the record size.
+     * @throws IOException error when writing to eeprom.
+     * @throws IllegalArgumentException caused when the record size does not match.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized void append(byte[] record)
+            throws IOException, IllegalArgumentException,
+            InterruptedException, UnsupportedOperationException {
+        if (device.read_only)
+            throw new UnsupportedOperationException("Read Only");
+        queue(record);
+        if (isBatchEnd())
+            flush();
+    }
+
+    /**
+     * append records and write them together.
+     * @param records records of the record size.
+     * @throws IOException error when writing to eeprom.
+     * @throws IllegalArgumentException caused when a record size does not match.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public synchronized void append(List<byte[]> records)
+            throws IOException, IllegalArgumentException,
+            InterruptedException, UnsupportedOperationException {
+        if (device.read_only)
+            throw new UnsupportedOperationException("Read Only");
+        for (byte[] record : records) {
+            if (record.length != record_size)
+                throw new IllegalArgumentException("record size must be " + record_size);
+        }
+        for (byte[] record : records)
+            queue(record);
+        flush();
+    }
+
+    /**
+     * write the appended records, split only at the end of the region.
+     * when more records were appended than the log holds, only the newest ones are written,
+     * the older ones would be overwritten in the same flush.
+     * @throws IOException error when writing to eeprom.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     */
+    public synchronized void flush() throws IOException, InterruptedException {
+        if (pending_count == 0)
+            return;
+        int count = Math.min(pending_count, slot_count);
+        int start = (pending_count - count) * slot_size;
+        int slot = (int) ((next_sequence - count) % slot_count);
+        int first = Math.min(count, slot_count - slot);
+        device.write(slotOffset(slot), pending, start, first * slot_size);
+        if (first < count)
+            device.write(region_offset, pending, start + first * slot_size,
+                    (count - first) * slot_size);
+        pending_count = 0;
+    }
+
+    /**
+     * read the newest records, with the ones not written yet.
+     * records failing the crc check, torn by a power loss, are left out.
+     * @param count the most records to read.
+     * @return records from the oldest to the newest.
+     * @throws IOException error when reading from eeprom.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public synchronized List<byte[]> readLast(int count) throws IOException, InterruptedException {
+        List<byte[]> records = new ArrayList<>();
+        long from = Math.max(oldest_sequence, next_sequence - count);
+        long written = next_sequence - pending_count;
+
+        // slots on the eeprom, in up to two sequential reads around the end of the region.
+        long sequence = from;
+        while (sequence < written) {
+            int slot = (int) (sequence % slot_count);
+            int slots = (int) Math.min(written - sequence, slot_count - slot);
+            byte[] data = device.read(slotOffset(slot), slots * slot_size);
+            for (int i = 0; i < slots; i++) {
+                if (sequenceOf(data, i * slot_size) == sequence + i)
+                    records.add(Arrays.copyOfRange(data, i * slot_size + 4,
+                            i * slot_size + 4 + record_size));
+            }
+            sequence += slots;
+        }
+
+        for (; sequence < next_sequence; sequence++) {
+            int start = (int) (sequence - written) * slot_size;
+            records.add(Arrays.copyOfRange(pending, start + 4, start + 4 + record_size));
+        }
+        return records;
+    }
+
+    private void queue(byte[] record) {
+        if (record.length != record_size)
+            throw new IllegalArgumentException("record size must be " + record_size);
+        if ((pending_count + 1) * slot_size > pending.length)
+            pending = Arrays.copyOf(pending, pending.length * 2);
+
+        ByteBuffer slot = ByteBuffer.wrap(pending, pending_count * slot_size, slot_size);
+        slot.putInt((int) next_sequence);
+        slot.put(record);
+        slot.putInt(crc(pending, pending_count * slot_size));
+        pending_count++;
+        next_sequence++;
+        oldest_sequence = Math.max(oldest_sequence, next_sequence - slot_count);
+    }
+
+    /**
+     * find the head by a binary search for the first slot not written in the pass of slot 0,
+     * then the tail as the oldest valid slot from the head on.
+     */
+    private void findHead() throws IOException, InterruptedException {
+        long first = readSequence(0);
+        if (first < 0) {
+            // slot 0 is torn or never written. the last slot tells which.
+            long last = readSequence(slot_count - 1);
+            next_sequence = last < 0 ? 0 : last + 1;
+        } else {
+            // slots before the head hold first + slot, the ones after it are older.
+            int low = 1;
+            int high = slot_count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (readSequence(middle) == first + middle)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            next_sequence = first + low;
+        }
+
+        oldest_sequence = Math.max(0, next_sequence - slot_count);
+        while (oldest_sequence < next_sequence
+                && readSequence((int) (oldest_sequence % slot_count)) != oldest_sequence)
+            oldest_sequence++;
+    }
+
+    /**
+     * @return the sequence number of a slot, or -1 when it fails the crc check or
+     * does not belong to the slot.
+     */
+    private long readSequence(int slot) throws IOException, InterruptedException {
+        long sequence = sequenceOf(device.read(slotOffset(slot), slot_size), 0);
+        return sequence % slot_count == slot ? sequence : -1;
+    }
+
+    private long sequenceOf(byte[] data, int start) {
+        ByteBuffer slot = ByteBuffer.wrap(data);
+        if (slot.getInt(start + 4 + record_size) != crc(data, start))
+            return -1;
+        return slot.getInt(start) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return true when the next slot does not continue the pending records in their last
+     * page: it crosses a page boundary, or wraps to the start of the region.
+     */
+    private boolean isBatchEnd() {
+        int slot = (int) (next_sequence % slot_count);
+        if (slot == 0)
+            return true;
+        int page_size = device.getPageSize();
+        int start = slotOffset(slot);
+        return (start - 1) / page_size != (start + slot_size - 1) / page_size;
+    }
+
+    private int slotOffset(int slot) {
+        return region_offset + slot * slot_size;
+    }
+
+    private int crc(byte[] data, int start) {
+        CRC32 crc = new CRC32();
+        crc.update(data, start, 4 + record_size);
+        return (int) crc.getValue();
+    }
+}
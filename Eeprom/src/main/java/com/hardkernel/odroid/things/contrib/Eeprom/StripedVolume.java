@@ -0,0 +1,258 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Up to eight at24c chips on one bus, presented as one contiguous address space.
+ * Each chip keeps its own open device, so no address change is needed to reach it.
+ * The address space is striped by pages over the chips: page p of the volume is
+ * page p / chips of chip p % chips. A large write goes to the chips in turn and each
+ * chip is waited for only when it is written again, so the write cycles of the chips
+ * overlap and the write throughput grows with the number of chips.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StripedVolume implements AutoCloseable {
+    public static final int MAX_CHIPS = 8;
+
+    private final at24c[] chips;
+    private final int page_size;
+    private final int chip_size;
+
+    /**
+     * create a volume over opened chips. all chips must be the same type.
+     * the volume owns the chips and closes them on close().
+     * @param chips chips in volume order, each opened on its own address.
+     * @throws IllegalArgumentException caused when no chip, more then eight chips or
+     * different types of chips are given.
+     */
+    public StripedVolume(at24c... chips) throws IllegalArgumentException {
+        if (chips.length == 0 || chips.length > MAX_CHIPS)
+            throw new IllegalArgumentException("chip count must be 1 - " + MAX_CHIPS);
+        page_size = chips[0].getPageSize();
+        chip_size = chips[0].getSize();
+        for (at24c chip : chips) {
+            if (chip.getPageSize() != page_size || chip.getSize() != chip_size)
+                throw new IllegalArgumentException("chips must be the same type");
+        }
+        this.chips = Arrays.copyOf(chips, chips.length);
+        for (at24c chip : this.chips)
+            chip.deferred_wait = true;
+    }
+
+    private interface ChipOpener {
+        at24c open(int address) throws IOException;
+    }
+
+    /**
+     * open at24c32 chips on a bus and create a volume over them.
+     * @param i2cBus i2c bus name on the android things.
+     * @param addresses address of each chip, it must include A_PREFIX value.
+     * @return volume over the chips.
+     * @throws IOException exception on android things sequence of opening a i2c.
+     * @throws IllegalArgumentException caused when an address is wrong or too many are given.
+     */
+    public static StripedVolume openAt24c32(String i2cBus, int... addresses)
+            throws IOException, IllegalArgumentException {
+        return open(address -> new at24c32(i2cBus, address), addresses);
+    }
+
+    /**
+     * open chips of a part on a bus and create a volume over them.
+     * @param i2cBus i2c bus name on the android things.
+     * @param part at24c part of the chips.
+     * @param addresses address of each chip, it must include A_PREFIX value.
+     * @return volume over the chips.
+     * @throws IOException exception on android things sequence of opening a i2c.
+     * @throws IllegalArgumentException caused when an address is wrong or too many are given.
+     */
+    public static StripedVolume open(String i2cBus, At24cPart part, int... addresses)
+            throws IOException, IllegalArgumentException {
+        return open(address -> new at24c(i2cBus, address, part), addresses);
+    }
+
+    private static StripedVolume open(ChipOpener opener, int[] addresses)
+            throws IOException, IllegalArgumentException {
+        at24c[] chips = new at24c[addresses.length];
+        try {
+            for (int i = 0; i < addresses.length; i++)
+                chips[i] = opener.open(addresses[i]);
+            return new StripedVolume(chips);
+        } catch (IOException | RuntimeException e) {
+            for (at24c chip : chips) {
+                if (chip != null)
+                    chip.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return volume size in bytes.
+     */
+    public int getSize() {
+        return chip_size * chips.length;
+    }
+
+    /**
+     * @return stripe size in bytes, the page size of the chips.
+     */
+    public int getStripeSize() {
+        return page_size;
+    }
+
+    /**
+     * @return the number of chips.
+     */
+    public int getChipCount() {
+        return chips.length;
+    }
+
+    /**
+     * read data from the volume, with one sequential read for each chip.
+     * @param offset target offset for reading.
+     * @param size data size bytes.
+     * @return reading data.
+     * @throws IOException error when reading from eeprom.
+     * @throws IllegalArgumentException caused when data size argument is 0.
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then volume size.
+     * @throws InterruptedException some interrupt can caused from i2c read.
+     */
+    public synchronized byte[] read(int offset, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException {
+        checkRange(offset, size);
+        byte[] data = new byte[size];
+        int first_page = offset / page_size;
+        int last_page = (offset + size - 1) / page_size;
+
+        for (int chip = 0; chip < chips.length; chip++) {
+            // pages of the range on this chip, contiguous in the chip.
+            int first = first_page + Math.floorMod(chip - first_page, chips.length);
+            if (first > last_page)
+                continue;
+            int last = last_page - Math.floorMod(last_page - chip, chips.length);
+            int start = Math.max(offset, first * page_size);
+            int end = Math.min(offset + size, (last + 1) * page_size);
+            int chip_start = chipOffset(start);
+            byte[] chip_data = chips[chip].read(chip_start,
+                    chipOffset(end - 1) - chip_start + 1);
+
+            for (int page = first; page <= last; page += chips.length) {
+                int from = Math.max(offset, page * page_size);
+                int to = Math.min(offset + size, (page + 1) * page_size);
+                System.arraycopy(chip_data, chipOffset(from) - chip_start,
+                        data, from - offset, to - from);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * write data to the volume.
+     * @param offset target offset for writing.
+     * @param val data value array.
+     * @param size data size bytes.
+     * @throws IOException error when writing from eeprom
+     * @throws IllegalArgumentException caused when data size argument is 0
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then volume size.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on for a chip.
+     */
+    public void write(int offset, byte[] val, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException,
+            UnsupportedOperationException {
+        write(offset, val, 0, size);
+    }
+
+    /**
+     * write data from a part of array to the volume.
+     * pages go to the chips in turn, and the write returns when all write cycles are done.
+     * @param offset target offset for writing.
+     * @param val data value array.
+     * @param index index of the first byte to write in val.
+     * @param size data size bytes.
+     * @throws IOException error when writing from eeprom
+     * @throws IllegalArgumentException caused when data size argument is 0
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then volume size,
+     * or index and size sum is bigger then val size.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on for a chip.
+     */
+    public synchronized void write(int offset, byte[] val, int index, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException,
+            UnsupportedOperationException {
+        for (at24c chip : chips) {
+            if (chip.read_only)
+                throw new UnsupportedOperationException("Read Only");
+        }
+        checkRange(offset, size);
+        if (index < 0 || index + size > val.length)
+            throw new IndexOutOfBoundsException("Denied access to out of array");
+
+        try {
+            while (size > 0) {
+                int chunk = Math.min(size, page_size - offset % page_size);
+                chips[offset / page_size % chips.length]
+                        .writePage(chipOffset(offset), val, index, chunk);
+                offset += chunk;
+                index += chunk;
+                size -= chunk;
+            }
+        } finally {
+            for (at24c chip : chips)
+                chip.finishWriteCycle();
+        }
+    }
+
+    /**
+     * close all chips.
+     * @throws IOException I2c bus command exception.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (at24c chip : chips) {
+            try {
+                chip.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    private void checkRange(int offset, int size) {
+        if (size == 0)
+            throw new IllegalArgumentException("size must bigger then zero");
+        if (offset < 0 || offset + size > getSize())
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+    }
+
+    /**
+     * @return the offset in its chip of a volume offset.
+     */
+    private int chipOffset(int offset) {
+        int page = offset / page_size;
+        return page / chips.length * page_size + offset % page_size;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects pending writes to an eeprom and plans them into page aligned write cycles.
+ * Writes landing in the same page are merged, a later write wins where they overlap, and
+ * each run of adjacent bytes in a page is written in one cycle.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class WritePlanner {
+    private static class Page {
+        final byte[] data;
+        final boolean[] valid;
+
+        Page(int page_size) {
+            data = new byte[page_size];
+            valid = new boolean[page_size];
+        }
+    }
+
+    private final int page_size;
+    private final TreeMap<Integer, Page> pages = new TreeMap<>();
+
+    /**
+     * create a planner for the page size of a device, like 32 bytes of at24c32.
+     * @param pageSize page size of the device.
+     */
+    public WritePlanner(int pageSize) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must bigger then zero");
+        page_size = pageSize;
+    }
+
+    public int getPageSize() {
+        return page_size;
+    }
+
+    /**
+     * add a pending write. the data is copied, so val can be reused right away.
+     * @param offset target offset for writing.
+     * @param val data value array.
+     * @param index index of the first byte to write in val.
+     * @param size data size bytes.
+     * @throws IndexOutOfBoundsException caused when offset is negative, or index and size sum
+     * is bigger then val size.
+     */
+    public void add(int offset, byte[] val, int index, int size)
+            throws IndexOutOfBoundsException {
+        if (offset < 0 || index < 0 || size < 0 || index + size > val.length)
+            throw new IndexOutOfBoundsException("Denied access to out of array");
+
+        while (size > 0) {
+            int page_offset = offset % page_size;
+            int chunk = Math.min(size, page_size - page_offset);
+            Page page = pages.get(offset - page_offset);
+            if (page == null) {
+                page = new Page(page_size);
+                pages.put(offset - page_offset, page);
+            }
+            System.arraycopy(val, index, page.data, page_offset, chunk);
+            for (int i = 0; i < chunk; i++)
+                page.valid[page_offset + i] = true;
+            offset += chunk;
+            index += chunk;
+            size -= chunk;
+        }
+    }
+
+    public void add(int offset, byte[] val) {
+        add(offset, val, 0, val.length);
+    }
+
+    public boolean isEmpty() {
+        return pages.isEmpty();
+    }
+
+    /**
+     * @return the number of pages with pending writes.
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return the number of write cycles the pending writes take.
+     */
+    public int getCycleCount() {
+        int cycles = 0;
+        for (Page page : pages.values()) {
+            for (int i = 0; i < page_size; i++) {
+                if (page.valid[i] && (i == 0 || !page.valid[i - 1]))
+                    cycles++;
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * @return the end offset of the last pending byte, 0 when nothing is pending.
+     */
+    public int getEnd() {
+        if (pages.isEmpty())
+            return 0;
+        Map.Entry<Integer, Page> last = pages.lastEntry();
+        int end = page_size;
+        while (end > 0 && !last.getValue().valid[end - 1])
+            end--;
+        return last.getKey() + end;
+    }
+
+    public void clear() {
+        pages.clear();
+    }
+
+    /**
+     * copy the pending bytes in a range over data read from the eeprom.
+     * @param offset eeprom offset of data.
+     * @param data data to patch.
+     */
+    /*package*/ void overlay(int offset, byte[] data) {
+        int first = offset - offset % page_size;
+        for (Map.Entry<Integer, Page> entry
+                : pages.subMap(first, true, offset + data.length - 1, true).entrySet()) {
+            Page page = entry.getValue();
+            int start = Math.max(offset, entry.getKey());
+            int end = Math.min(offset + data.length, entry.getKey() + page_size);
+            for (int address = start; address < end; address++) {
+                if (page.valid[address - entry.getKey()])
+                    data[address - offset] = page.data[address - entry.getKey()];
+            }
+        }
+    }
+
+    /**
+     * write each run of adjacent pending bytes in one write cycle, in offset order.
+     */
+    /*package*/ void writeTo(at24c device) throws IOException, InterruptedException {
+        for (Map.Entry<Integer, Page> entry : pages.entrySet())
+            writePage(device, entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * write the first pending page and remove it.
+     * @return false when nothing was pending.
+     */
+    /*package*/ boolean writeNextPage(at24c device) throws IOException, InterruptedException {
+        Map.Entry<Integer, Page> entry = pages.firstEntry();
+        if (entry == null)
+            return false;
+        writePage(device, entry.getKey(), entry.getValue());
+        pages.remove(entry.getKey());
+        return true;
+    }
+
+    private void writePage(at24c device, int offset, Page page)
+            throws IOException, InterruptedException {
+        int start = 0;
+        while (start < page_size) {
+            if (!page.valid[start]) {
+                start++;
+                continue;
+            }
+            int end = start;
+            while (end < page_size && page.valid[end])
+                end++;
+            device.writePage(offset + start, page.data, start, end - start);
+            start = end;
+        }
+    }
+}
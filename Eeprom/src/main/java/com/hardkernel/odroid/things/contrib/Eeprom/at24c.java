@@ -25,7 +25,6 @@ import com.google.android.things.pio.PeripheralManager;
 import java.io.IOException;
 import java.lang.invoke.WrongMethodTypeException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -35,11 +34,45 @@ import java.util.List;
 public class at24c implements AutoCloseable {
 
     /**
-     * delay time to read/write.
+     * maximum write cycle time in ms.
+     * it bounds the ack polling after a write, or is slept when ack polling is off.
      */
     protected long wait_time = 0;
+
+    /**
+     * poll the device for an address ack to detect the end of a write cycle.
+     */
+    protected boolean ack_polling = true;
+    private final byte[] poll_buffer = new byte[1];
+    private static final long POLL_BACKOFF_MIN_NS = 500000;
+    private static final long POLL_BACKOFF_MAX_NS = 2000000;
+    private boolean cycle_pending;
+    private long cycle_start;
+    /**
+     * return from a write as soon as its cycle starts, and wait for it on the next access.
+     */
+    /*package*/ boolean deferred_wait;
     private final int byte_length;
-    protected byte wr_buffer_size;
+    /**
+     * page size of the device. a write must not cross a page, or it wraps in the page.
+     */
+    protected int wr_buffer_size;
+    /**
+     * the most bytes one i2c read transfers, 0 for no limit.
+     */
+    protected int max_read_size = 0;
+    // flag ored into the word address, addr_16 for 16 bit word address parts.
+    private int address_flag = 0;
+    // i2c device of each 256 byte block, for parts selecting blocks by i2c address.
+    private I2cDevice[] block_i2c;
+    private byte[] page_buffer;
+
+    /**
+     * read the target range before writing, and skip the bytes already holding the data.
+     */
+    protected boolean compare_write = false;
+    private long written_pages;
+    private long skipped_pages;
 
     protected I2cDevice i2c;
     protected List<Gpio> address_gpio = new ArrayList<>();
@@ -115,6 +148,74 @@ public class at24c implements AutoCloseable {
 
     }
 
+    /**
+     * at24c initialize with i2c bus, i2c bus address and a part descriptor.
+     * size, page size, word address size and write cycle time are taken from the part.
+     * parts selecting blocks by i2c address get an i2c device for each block.
+     * @param i2cBus i2c bus name on the android things.
+     * @param bus_address i2c bus address of at24c series, with zero block select bits.
+     * @param part at24c part.
+     * @throws IOException exception on android things sequence of opening a i2c.
+     * @throws IllegalArgumentException address value is not start with A_PREFIX, or has
+     * block select bits set.
+     */
+    public at24c(String i2cBus, int bus_address, At24cPart part)
+            throws IOException, IllegalArgumentException {
+        int blocks = 1 << part.getBlockBits();
+        if ((bus_address & ~A111) != A_PREFIX || (bus_address & (blocks - 1)) != 0)
+            throw new IllegalArgumentException("Wrong address");
+
+        PeripheralManager manager = PeripheralManager.getInstance();
+        initI2cBus(manager, i2cBus, bus_address);
+        if (blocks > 1) {
+            block_i2c = new I2cDevice[blocks];
+            block_i2c[0] = i2c;
+            try {
+                for (int i = 1; i < blocks; i++)
+                    block_i2c[i] = manager.openI2cDevice(i2c.getName(), bus_address | i);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        byte_length = part.getSize();
+        wr_buffer_size = part.getPageSize();
+        wait_time = part.getWriteTime();
+        if (part.isAddress16())
+            address_flag = addr_16;
+        read_only = false;
+    }
+
+    /**
+     * at24c initialize with an opened i2c device and a part descriptor.
+     * @param device i2c device of a part without block select bits.
+     * @param part at24c part.
+     */
+    /*package*/ at24c(I2cDevice device, At24cPart part) {
+        this(new I2cDevice[] {device}, part);
+    }
+
+    /**
+     * at24c initialize with opened i2c devices and a part descriptor.
+     * @param devices i2c device of each block, one device for parts without block select bits.
+     * @param part at24c part.
+     */
+    /*package*/ at24c(I2cDevice[] devices, At24cPart part) {
+        if (devices.length != 1 << part.getBlockBits())
+            throw new IllegalArgumentException("Wrong part");
+
+        i2c = devices[0];
+        if (devices.length > 1)
+            block_i2c = devices.clone();
+        byte_length = part.getSize();
+        wr_buffer_size = part.getPageSize();
+        wait_time = part.getWriteTime();
+        if (part.isAddress16())
+            address_flag = addr_16;
+        read_only = false;
+    }
+
     private void initI2cBus(PeripheralManager manager, String i2cBus, int address)
             throws IOException {
         /*
@@ -175,6 +276,20 @@ public class at24c implements AutoCloseable {
         initI2cBus(manager, i2cBus, address);
     }
 
+    /**
+     * @return eeprom size in bytes.
+     */
+    public int getSize() {
+        return byte_length;
+    }
+
+    /**
+     * @return page size in bytes, the most one write cycle can write.
+     */
+    public int getPageSize() {
+        return wr_buffer_size;
+    }
+
     /**
      * read data from eeprom.
      * @param offset target offset for reading.
@@ -193,17 +308,73 @@ public class at24c implements AutoCloseable {
         if (offset + size > byte_length)
             throw new IndexOutOfBoundsException("Denied access to out of size");
 
-        return _read(offset, size);
+        return readChunked(offset, size);
+    }
+
+    /**
+     * set the most bytes one i2c read may transfer, for i2c adapters with a transfer limit.
+     * longer reads are split into sequential reads of this size.
+     * @param size the most bytes of a read, 0 for no limit.
+     */
+    public void setMaxReadSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("size must not be negative");
+        max_read_size = size;
+    }
+
+    /**
+     * read in sequential reads up to max_read_size, split on block boundaries as well.
+     */
+    private byte[] readChunked(int offset, int size)
+            throws IOException, InterruptedException {
+        int chunk = readChunkSize(offset, size);
+        if (chunk == size)
+            return _read(offset, size);
+
+        byte[] buffer = new byte[size];
+        int position = 0;
+        while (position < size) {
+            byte[] data = _read(offset + position, chunk);
+            System.arraycopy(data, 0, buffer, position, chunk);
+            position += chunk;
+            chunk = readChunkSize(offset + position, size - position);
+        }
+        return buffer;
+    }
+
+    private int readChunkSize(int offset, int size) {
+        int chunk = max_read_size > 0 ? Math.min(size, max_read_size) : size;
+        if (block_i2c != null)
+            chunk = Math.min(chunk, 256 - offset % 256);
+        return chunk;
     }
 
     protected byte[] _read(int offset, int size)
             throws IOException, InterruptedException {
+        finishWriteCycle();
         byte [] buffer = new byte[size];
-        i2c.readRegBuffer(offset, buffer, size);
-        sleep(wait_time);
+        deviceOf(offset).readRegBuffer(registerOf(offset), buffer, size);
         return buffer;
     }
 
+    /**
+     * @return i2c device of the block holding the offset.
+     */
+    private I2cDevice deviceOf(int offset) {
+        if (block_i2c == null)
+            return i2c;
+        return block_i2c[(offset & ~addr_16) >> 8];
+    }
+
+    /**
+     * @return word address of the offset in its block.
+     */
+    private int registerOf(int offset) {
+        if (block_i2c == null)
+            return address_flag | offset;
+        return offset & 0xFF;
+    }
+
     /**
      * write data to eeprom.
      * @param offset target offset for reading writing.
@@ -219,32 +390,245 @@ public class at24c implements AutoCloseable {
             throws IOException, IllegalArgumentException,
             IndexOutOfBoundsException, InterruptedException,
             UnsupportedOperationException {
+        write(offset, val, 0, size);
+    }
+
+    /**
+     * write data from a part of array to eeprom.
+     * the data is split on page boundaries, so each write cycle covers one page at most and
+     * the number of write cycles is the minimum for the range.
+     * @param offset target offset for writing.
+     * @param val data value array.
+     * @param index index of the first byte to write in val.
+     * @param size data size bytes.
+     * @throws IOException error when writing from eeprom
+     * @throws IllegalArgumentException caused when data size argument is 0
+     * @throws IndexOutOfBoundsException caused when offset and size sum is bigger then eeprom size,
+     * or index and size sum is bigger then val size.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public void write (int offset, byte[] val, int index, int size)
+            throws IOException, IllegalArgumentException,
+            IndexOutOfBoundsException, InterruptedException,
+            UnsupportedOperationException {
         if (read_only)
             throw new UnsupportedOperationException("Read Only");
         if (size == 0)
             throw new IllegalArgumentException("size must bigger then zero");
-        if (offset + size > byte_length)
+        if (offset < 0 || offset + size > byte_length)
             throw new IndexOutOfBoundsException("Denied access to out of size");
+        if (index < 0 || index + size > val.length)
+            throw new IndexOutOfBoundsException("Denied access to out of array");
+
+        if (compare_write) {
+            writeChanged(offset, val, index, size);
+            return;
+        }
 
-        int idx = 0;
-        int remain = size;
-        while (remain >= wr_buffer_size) {
-            _write(offset + idx,
-                    Arrays.copyOfRange(val, idx, idx + wr_buffer_size),
-                    wr_buffer_size);
-            idx += wr_buffer_size;
-            remain -= wr_buffer_size;
+        while (size > 0) {
+            int chunk = Math.min(size, wr_buffer_size - offset % wr_buffer_size);
+            writeChunk(offset, val, index, chunk);
+            written_pages++;
+            offset += chunk;
+            index += chunk;
+            size -= chunk;
         }
-        if (remain > 0)
-            _write(offset + idx,
-                    Arrays.copyOfRange(val, idx, idx + remain),
-                    remain);
+    }
+
+    /**
+     * write only what differs from the eeprom content.
+     * the whole range is read with one sequential read, then each page is compared and
+     * written by writeDiff().
+     */
+    private void writeChanged(int offset, byte[] val, int index, int size)
+            throws IOException, InterruptedException {
+        byte[] current = readChunked(offset, size);
+        int position = 0;
+        while (position < size) {
+            int chunk = Math.min(size - position,
+                    wr_buffer_size - (offset + position) % wr_buffer_size);
+            writeDiff(offset + position, val, index + position, chunk, current, position);
+            position += chunk;
+        }
+    }
+
+    /**
+     * write bytes within a page like write() does, for the other write paths:
+     * planned writes, the async writer and striped volumes.
+     * in compare write mode the range is read and compared first, and the page counters
+     * are updated either way.
+     */
+    /*package*/ void writePage(int offset, byte[] val, int index, int size)
+            throws IOException, InterruptedException {
+        if (compare_write) {
+            writeDiff(offset, val, index, size, readChunked(offset, size), 0);
+            return;
+        }
+        writeChunk(offset, val, index, size);
+        written_pages++;
+    }
+
+    /**
+     * write the range of a page from the first to the last byte differing from current,
+     * or skip the page when none differs.
+     * @param current eeprom content, the content of offset at position.
+     */
+    private void writeDiff(int offset, byte[] val, int index, int size,
+                           byte[] current, int position)
+            throws IOException, InterruptedException {
+        int first = 0;
+        int last = size - 1;
+        while (first <= last && current[position + first] == val[index + first])
+            first++;
+        while (last > first && current[position + last] == val[index + last])
+            last--;
+
+        if (first > last) {
+            skipped_pages++;
+        } else {
+            writeChunk(offset + first, val, index + first, last - first + 1);
+            written_pages++;
+        }
+    }
+
+    /**
+     * turn the read-compare-skip write mode on or off. it is off by default.
+     * every write reads its range first, pages holding the data already are not written
+     * and changed pages are written only from the first to the last changed byte.
+     * it saves write cycles and endurance when writes mostly repeat the content.
+     * @param enable true to compare before writing.
+     */
+    public void setCompareWrite(boolean enable) {
+        compare_write = enable;
+    }
+
+    /**
+     * @return the number of page writes done, by write() and the other write paths.
+     */
+    public long getWrittenPages() {
+        return written_pages;
+    }
+
+    /**
+     * @return the number of pages not written in compare write mode,
+     * because they held the data already.
+     */
+    public long getSkippedPages() {
+        return skipped_pages;
+    }
+
+    /**
+     * reset the written and skipped page counters.
+     */
+    public void resetWriteStats() {
+        written_pages = 0;
+        skipped_pages = 0;
+    }
+
+    /**
+     * write all pending writes of the planner, one write cycle for each run of
+     * adjacent bytes in a page, and clear it. compare write mode applies to each run.
+     * @param plan planned writes.
+     * @throws IOException error when writing from eeprom
+     * @throws IndexOutOfBoundsException caused when a planned write is out of eeprom size.
+     * @throws InterruptedException some interrupt can caused from i2c write.
+     * @throws UnsupportedOperationException caused when read only state is on.
+     */
+    public void write (WritePlanner plan)
+            throws IOException, IndexOutOfBoundsException, InterruptedException,
+            UnsupportedOperationException {
+        if (read_only)
+            throw new UnsupportedOperationException("Read Only");
+        if (plan.getPageSize() != wr_buffer_size)
+            throw new IllegalArgumentException("page size of the plan is not "
+                    + wr_buffer_size);
+        if (plan.getEnd() > byte_length)
+            throw new IndexOutOfBoundsException("Denied access to out of size");
+
+        plan.writeTo(this);
+        plan.clear();
+    }
+
+    /**
+     * write bytes within a page.
+     * writeRegBuffer takes no array offset, so a chunk not at the start of val goes through
+     * a reused page buffer.
+     */
+    /*package*/ void writeChunk(int offset, byte[] val, int index, int size)
+            throws IOException, InterruptedException {
+        if (index == 0) {
+            _write(offset, val, size);
+            return;
+        }
+        if (page_buffer == null || page_buffer.length < size)
+            page_buffer = new byte[wr_buffer_size];
+        System.arraycopy(val, index, page_buffer, 0, size);
+        _write(offset, page_buffer, size);
     }
 
     protected void _write(int offset, byte[] val, int size)
             throws InterruptedException, IOException {
-        i2c.writeRegBuffer(offset, val, size);
-        sleep(wait_time);
+        finishWriteCycle();
+        deviceOf(offset).writeRegBuffer(registerOf(offset), val, size);
+        cycle_pending = true;
+        cycle_start = System.nanoTime();
+        if (!deferred_wait)
+            finishWriteCycle();
+    }
+
+    /**
+     * wait for the write cycle of the last write, if it is not waited yet.
+     */
+    /*package*/ void finishWriteCycle() throws IOException, InterruptedException {
+        if (!cycle_pending)
+            return;
+        cycle_pending = false;
+        waitWriteCycle();
+    }
+
+    /**
+     * turn the ack polling on or off.
+     * at24c does not ack its address while a write cycle runs, so polling returns as soon as
+     * the cycle is done, usually in 3 - 5ms. Turn it off for i2c adapters not reporting
+     * a nack as an error, then each write waits the whole wait_time.
+     * @param enable true to poll, false to sleep the maximum write cycle time.
+     */
+    public void setAckPolling(boolean enable) {
+        ack_polling = enable;
+    }
+
+    /**
+     * wait for the end of the write cycle started by the last write.
+     * the device is polled with a one byte read, with a backoff from 0.5ms up to 2ms between
+     * polls, until it acks or wait_time from the start of the cycle runs out.
+     * @throws IOException the device did not ack within wait_time.
+     * @throws InterruptedException some interrupt can caused from sleep.
+     */
+    protected void waitWriteCycle() throws IOException, InterruptedException {
+        long deadline = cycle_start + wait_time * 1000000L;
+        if (!ack_polling) {
+            long left = deadline - System.nanoTime();
+            if (left > 0)
+                sleep(left / 1000000, (int) (left % 1000000));
+            return;
+        }
+        long backoff = POLL_BACKOFF_MIN_NS;
+        // a deferred wait may come after the first backoff is over already.
+        long delay = backoff - (System.nanoTime() - cycle_start);
+        while (true) {
+            if (delay > 0)
+                sleep(delay / 1000000, (int) (delay % 1000000));
+            try {
+                i2c.read(poll_buffer, 1);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() >= deadline)
+                    throw new IOException("write cycle is not finished in " + wait_time + "ms", e);
+            }
+            backoff = Math.min(backoff * 2, POLL_BACKOFF_MAX_NS);
+            delay = backoff;
+        }
     }
 
     /**
@@ -253,7 +637,20 @@ public class at24c implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
+        try {
+            finishWriteCycle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // closing anyway.
+        }
         i2c.close();
+        if (block_i2c != null) {
+            for (int i = 1; i < block_i2c.length; i++) {
+                if (block_i2c[i] != null)
+                    block_i2c[i].close();
+            }
+        }
         if (!address_gpio.isEmpty()) {
             for(Gpio gpio: address_gpio)
                 gpio.close();
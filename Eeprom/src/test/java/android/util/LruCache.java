@@ -0,0 +1,143 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Host test double of android.util.LruCache, on an access ordered LinkedHashMap.
+ * The android.jar of local unit tests only has stubs throwing on every call.
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(0, 0.75f, true);
+    private int size;
+    private int maxSize;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize <= 0");
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void resize(int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize <= 0");
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public final synchronized V get(K key) {
+        if (key == null)
+            throw new NullPointerException("key == null");
+        V value = map.get(key);
+        if (value != null) {
+            hitCount++;
+            return value;
+        }
+        missCount++;
+        value = create(key);
+        if (value != null)
+            put(key, value);
+        return value;
+    }
+
+    public final synchronized V put(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException("key == null || value == null");
+        size += safeSizeOf(key, value);
+        V previous = map.put(key, value);
+        if (previous != null) {
+            size -= safeSizeOf(key, previous);
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            iterator.remove();
+            size -= safeSizeOf(eldest.getKey(), eldest.getValue());
+            evictionCount++;
+            entryRemoved(true, eldest.getKey(), eldest.getValue(), null);
+        }
+    }
+
+    public final synchronized V remove(K key) {
+        if (key == null)
+            throw new NullPointerException("key == null");
+        V previous = map.remove(key);
+        if (previous != null) {
+            size -= safeSizeOf(key, previous);
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0)
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        return result;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final synchronized int size() {
+        return size;
+    }
+
+    public final synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public final synchronized int missCount() {
+        return missCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    public final synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<>(map);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class AsyncWriterTest {
+    private FakeI2cDevice device;
+    private AsyncWriter writer;
+
+    @Before
+    public void setUp() {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+        writer = new AsyncWriter(new at24c(device, At24cPart.AT24C32));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        writer.close();
+    }
+
+    @Test
+    public void syncWaitsForEveryFuture() throws Exception {
+        device.write_time_ms = 1;
+        Random random = new Random(1);
+        byte[] expected = device.memory.clone();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int offset = random.nextInt(expected.length - 16);
+            byte[] data = new byte[1 + random.nextInt(16)];
+            random.nextBytes(data);
+            System.arraycopy(data, 0, expected, offset, data.length);
+            futures.add(writer.write(offset, data, data.length));
+        }
+        writer.sync();
+        for (Future<Void> future : futures)
+            assertTrue(future.isDone());
+        assertArrayEquals(expected, device.memory);
+    }
+
+    @Test
+    public void writesKeepQueuedOrder() throws Exception {
+        device.write_time_ms = 20;
+        writer.write(1000, new byte[] {1}, 1);
+        // queued while the first write cycle runs.
+        writer.write(200, new byte[] {2}, 1);
+        writer.write(100, new byte[] {3}, 1);
+        writer.write(300, new byte[] {4}, 1);
+        writer.write(101, new byte[] {5}, 1);
+        writer.sync();
+        assertEquals(Arrays.asList(1000, 200, 100, 300, 101), device.write_offsets);
+    }
+
+    @Test
+    public void overlappingWritesAreMerged() throws Exception {
+        device.write_time_ms = 20;
+        writer.write(1000, new byte[] {1}, 1);
+        Future<Void> first = writer.write(64, new byte[] {1, 1, 1, 1}, 4);
+        Future<Void> second = writer.write(66, new byte[] {2, 2, 2, 2}, 4);
+        Future<Void> third = writer.write(70, new byte[] {3}, 1);
+        writer.sync();
+        assertTrue(first.isDone() && second.isDone() && third.isDone());
+        assertEquals(2, device.write_cycles);
+        assertArrayEquals(new byte[] {1, 1, 2, 2, 2, 2, 3},
+                Arrays.copyOfRange(device.memory, 64, 71));
+    }
+
+    @Test
+    public void readSeesQueuedWrites() throws Exception {
+        device.write_time_ms = 20;
+        writer.write(10, new byte[] {1, 2, 3}, 3);
+        writer.write(11, new byte[] {9}, 1);
+        writer.write(500, new byte[] {7}, 1);
+        assertArrayEquals(new byte[] {1, 9, 3}, writer.read(10, 3));
+        assertArrayEquals(new byte[] {7}, writer.read(500, 1));
+    }
+
+    @Test
+    public void syncWithoutWritesReturns() throws Exception {
+        writer.sync();
+        assertEquals(0, device.write_cycles);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeAfterCloseIsRejected() throws Exception {
+        writer.close();
+        writer.write(0, new byte[1], 1);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class At24cTest {
+    private FakeI2cDevice device;
+    private at24c eeprom;
+
+    @Before
+    public void setUp() {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+        eeprom = new at24c(device, At24cPart.AT24C32);
+    }
+
+    private static byte[] filled(int size, int value) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    public void compareWriteSkipsUnchangedPages() throws Exception {
+        eeprom.setCompareWrite(true);
+        byte[] data = filled(96, 0xFF);
+        data[40] = 1;
+        data[41] = 2;
+        eeprom.write(16, data, data.length);
+        assertEquals(1, device.write_cycles);
+        assertEquals(Integer.valueOf(56), device.write_offsets.get(0));
+        assertEquals(1, eeprom.getWrittenPages());
+        assertEquals(3, eeprom.getSkippedPages());
+    }
+
+    @Test
+    public void compareWriteAppliesToPlannedWrites() throws Exception {
+        eeprom.write(0, filled(64, 7), 64);
+        eeprom.resetWriteStats();
+        device.write_cycles = 0;
+
+        eeprom.setCompareWrite(true);
+        WritePlanner plan = new WritePlanner(eeprom.getPageSize());
+        plan.add(0, filled(64, 7));
+        plan.add(70, new byte[] {1, 2, 3});
+        eeprom.write(plan);
+        assertEquals(1, device.write_cycles);
+        assertEquals(1, eeprom.getWrittenPages());
+        assertEquals(2, eeprom.getSkippedPages());
+        assertEquals(1, device.memory[70]);
+    }
+
+    @Test
+    public void plannedWritesAreCounted() throws Exception {
+        WritePlanner plan = new WritePlanner(eeprom.getPageSize());
+        plan.add(0, filled(40, 1));
+        eeprom.write(plan);
+        assertEquals(2, eeprom.getWrittenPages());
+        assertEquals(0, eeprom.getSkippedPages());
+    }
+
+    @Test
+    public void compareWriteAppliesToAsyncWriter() throws Exception {
+        eeprom.setCompareWrite(true);
+        try (AsyncWriter writer = new AsyncWriter(eeprom)) {
+            writer.write(0, filled(32, 0xFF), 32);
+            writer.write(32, filled(32, 5), 32);
+            writer.sync();
+        }
+        assertEquals(1, device.write_cycles);
+        assertEquals(1, eeprom.getWrittenPages());
+        assertEquals(1, eeprom.getSkippedPages());
+    }
+
+    @Test
+    public void compareWriteAppliesToStripedVolume() throws Exception {
+        FakeI2cDevice second = new FakeI2cDevice(At24cPart.AT24C32);
+        at24c other = new at24c(second, At24cPart.AT24C32);
+        eeprom.setCompareWrite(true);
+        other.setCompareWrite(true);
+        try (StripedVolume volume = new StripedVolume(eeprom, other)) {
+            byte[] data = filled(128, 0xFF);
+            data[33] = 9;
+            volume.write(0, data, data.length);
+        }
+        assertEquals(0, device.write_cycles);
+        assertEquals(1, second.write_cycles);
+        assertEquals(9, second.memory[1]);
+        assertEquals(2, eeprom.getSkippedPages());
+        assertEquals(1, other.getWrittenPages());
+        assertEquals(1, other.getSkippedPages());
+    }
+
+    @Test
+    public void ackPollingReturnsOnAck() throws Exception {
+        device.busy_polls = 3;
+        long start = System.nanoTime();
+        eeprom.write(0, new byte[] {1}, 1);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(4, device.poll_times.size());
+        // the backoff between polls doubles from 0.5ms up to 2ms.
+        long[] backoff = {1000000, 2000000, 2000000};
+        for (int i = 0; i < backoff.length; i++) {
+            long gap = device.poll_times.get(i + 1) - device.poll_times.get(i);
+            assertTrue("gap " + i + " is " + gap + "ns", gap >= backoff[i]);
+        }
+        assertTrue(elapsed < At24cPart.AT24C32.getWriteTime() * 1000000);
+    }
+
+    @Test
+    public void ackPollingReturnsAtOnceWhenDone() throws Exception {
+        eeprom.write(0, new byte[] {1}, 1);
+        eeprom.write(1, new byte[] {2}, 1);
+        assertEquals(2, device.poll_times.size());
+    }
+
+    @Test
+    public void ackPollingTimesOut() throws Exception {
+        device.busy_polls = -1;
+        long start = System.nanoTime();
+        try {
+            eeprom.write(0, new byte[] {1}, 1);
+            fail("write cycle did not time out");
+        } catch (IOException e) {
+            assertEquals("write cycle is not finished in 10ms", e.getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(elapsed >= 10000000);
+        // polls come at most every 2ms after the backoff.
+        assertTrue(device.poll_times.size() <= 10);
+        assertEquals(1, device.write_cycles);
+    }
+
+    @Test
+    public void writeWithoutAckPollingSleepsWriteTime() throws Exception {
+        eeprom.setAckPolling(false);
+        long start = System.nanoTime();
+        eeprom.write(0, new byte[] {1}, 1);
+        assertTrue(System.nanoTime() - start >= 10000000);
+        assertTrue(device.poll_times.isEmpty());
+    }
+
+    @Test
+    public void readIsChunkedByMaxReadSize() throws Exception {
+        for (int i = 0; i < device.memory.length; i++)
+            device.memory[i] = (byte) i;
+        device.max_read_length = 64;
+        eeprom.setMaxReadSize(64);
+        byte[] data = eeprom.read(10, 200);
+        assertEquals(Arrays.asList(64, 64, 64, 8), device.read_lengths);
+        assertArrayEquals(Arrays.copyOfRange(device.memory, 10, 210), data);
+
+        eeprom.setMaxReadSize(0);
+        device.max_read_length = 0;
+        eeprom.read(0, 4096);
+        assertEquals(Integer.valueOf(4096), device.read_lengths.get(4));
+    }
+
+    @Test
+    public void readIsChunkedByBlocks() throws Exception {
+        FakeI2cDevice[] blocks = new FakeI2cDevice[8];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = new FakeI2cDevice(256, At24cPart.AT24C16.getPageSize());
+            Arrays.fill(blocks[i].memory, (byte) i);
+        }
+        at24c part = new at24c(blocks, At24cPart.AT24C16);
+        byte[] data = part.read(200, 400);
+        // 56 bytes of block 0, block 1 and 88 bytes of block 2.
+        assertEquals(Arrays.asList(56), blocks[0].read_lengths);
+        assertEquals(Arrays.asList(256), blocks[1].read_lengths);
+        assertEquals(Arrays.asList(88), blocks[2].read_lengths);
+        for (int i = 0; i < data.length; i++)
+            assertEquals((200 + i) / 256, data[i]);
+
+        // chunks of max_read_size within the blocks.
+        part.setMaxReadSize(100);
+        part.read(200, 400);
+        assertEquals(Arrays.asList(56, 56), blocks[0].read_lengths);
+        assertEquals(Arrays.asList(256, 100, 100, 56), blocks[1].read_lengths);
+    }
+
+    @Test
+    public void blockWritesGoToTheirDevice() throws Exception {
+        FakeI2cDevice[] blocks = new FakeI2cDevice[2];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = new FakeI2cDevice(256, At24cPart.AT24C04.getPageSize());
+        at24c part = new at24c(blocks, At24cPart.AT24C04);
+        part.write(250, new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, 8);
+        assertEquals(Arrays.asList(250), blocks[0].write_offsets);
+        assertEquals(Arrays.asList(0), blocks[1].write_offsets);
+        assertEquals(7, blocks[1].memory[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockPartNeedsDeviceOfEachBlock() {
+        new at24c(device, At24cPart.AT24C08);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EepromBufferTest {
+    private FakeI2cDevice device;
+    private EepromBuffer buffer;
+
+    @Before
+    public void setUp() {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+        for (int i = 0; i < device.memory.length; i++)
+            device.memory[i] = (byte) (i * 7);
+        buffer = new EepromBuffer(new at24c(device, At24cPart.AT24C32));
+    }
+
+    private byte[] memory(int offset, int length) {
+        byte[] data = new byte[length];
+        System.arraycopy(device.memory, offset, data, 0, length);
+        return data;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            data[i] = (byte) values[i];
+        return data;
+    }
+
+    @Test
+    public void primitivesAreBigEndianByDefault() throws Exception {
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        buffer.putInt(100, 0x01020304);
+        assertArrayEquals(bytes(1, 2, 3, 4), memory(100, 4));
+        buffer.putShort(104, (short) 0x0506);
+        assertArrayEquals(bytes(5, 6), memory(104, 2));
+        buffer.putLong(128, 0x0102030405060708L);
+        assertArrayEquals(bytes(1, 2, 3, 4, 5, 6, 7, 8), memory(128, 8));
+    }
+
+    @Test
+    public void primitivesRoundTrip() throws Exception {
+        buffer.put(0, (byte) -2);
+        buffer.putShort(2, (short) -12345);
+        buffer.putChar(4, '\u20AC');
+        buffer.putInt(8, 0xCAFEBABE);
+        buffer.putLong(16, 0x0123456789ABCDEFL);
+        buffer.putFloat(32, 1.5f);
+        buffer.putDouble(40, -0.25);
+
+        EepromBuffer fresh = new EepromBuffer(new at24c(device, At24cPart.AT24C32));
+        for (EepromBuffer view : new EepromBuffer[] {buffer, fresh}) {
+            assertEquals((byte) -2, view.get(0));
+            assertEquals((short) -12345, view.getShort(2));
+            assertEquals('\u20AC', view.getChar(4));
+            assertEquals(0xCAFEBABE, view.getInt(8));
+            assertEquals(0x0123456789ABCDEFL, view.getLong(16));
+            assertEquals(1.5f, view.getFloat(32), 0);
+            assertEquals(-0.25, view.getDouble(40), 0);
+        }
+    }
+
+    @Test
+    public void littleEndianOrder() throws Exception {
+        assertSame(buffer, buffer.order(ByteOrder.LITTLE_ENDIAN));
+        buffer.putInt(100, 0x01020304);
+        assertArrayEquals(bytes(4, 3, 2, 1), memory(100, 4));
+        assertEquals(0x01020304, buffer.getInt(100));
+        device.memory[200] = 0x34;
+        device.memory[201] = 0x12;
+        assertEquals((short) 0x1234, buffer.getShort(200));
+    }
+
+    @Test
+    public void valuesAcrossPageBoundary() throws Exception {
+        buffer.putLong(28, 0x1122334455667788L);
+        assertArrayEquals(bytes(0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, 0x88), memory(28, 8));
+        assertEquals(2, device.write_cycles);
+        assertEquals(0x1122334455667788L, buffer.getLong(28));
+
+        device.memory[1023] = 0x7F;
+        device.memory[1024] = (byte) 0xF0;
+        assertEquals((short) 0x7FF0, buffer.getShort(1023));
+        assertEquals(0x11223344, buffer.getInt(28));
+        assertEquals(0x55667788, buffer.getInt(32));
+    }
+
+    @Test
+    public void putUpdatesCachedPages() throws Exception {
+        buffer.getInt(0);
+        long reads = buffer.getDeviceReads();
+        buffer.putInt(20, 0x0A0B0C0D);
+        assertEquals(0x0A0B0C0D, buffer.getInt(20));
+        assertEquals(reads, buffer.getDeviceReads());
+    }
+
+    @Test
+    public void readAheadDoublesOnSequentialMisses() throws Exception {
+        // misses at pages 0, 1, 3, 7, 15 read 1, 2, 4, 8, 16 pages, then 16 pages each.
+        int[] misses = {0, 1, 3, 7, 15, 31, 47};
+        int miss = 0;
+        for (int page = 0; page < 48; page++) {
+            buffer.get(page * device.page_size);
+            if (miss < misses.length && misses[miss] == page)
+                miss++;
+            assertEquals("page " + page, miss, buffer.getDeviceReads());
+        }
+        assertEquals(buffer.getDeviceReads(), device.reads);
+    }
+
+    @Test
+    public void randomMissResetsReadAhead() throws Exception {
+        buffer.get(0);
+        buffer.get(32);
+        buffer.get(2048);
+        assertEquals(3, buffer.getDeviceReads());
+        // one page was read at 2048, so the next page is a miss reading two.
+        buffer.get(2048 + 32);
+        buffer.get(2048 + 64);
+        assertEquals(4, buffer.getDeviceReads());
+    }
+
+    @Test
+    public void readAheadLimit() throws Exception {
+        buffer.setReadAhead(1);
+        for (int offset = 0; offset < 1024; offset += 4)
+            buffer.getInt(offset);
+        assertEquals(32, buffer.getDeviceReads());
+    }
+
+    @Test
+    public void sequentialParseOfWholeDevice() throws Exception {
+        for (int offset = 0; offset < buffer.capacity(); offset += 4)
+            assertEquals(((offset * 7) & 0xFF) << 24 | ((offset * 7 + 7) & 0xFF) << 16
+                    | ((offset * 7 + 14) & 0xFF) << 8 | ((offset * 7 + 21) & 0xFF),
+                    buffer.getInt(offset));
+        // 1 + 2 + 4 + 8 pages, then 16 pages a read for the other 113 of 128 pages.
+        assertEquals(12, buffer.getDeviceReads());
+        assertEquals(12, device.reads);
+    }
+
+    @Test
+    public void bulkGetIntoCallerBuffer() throws Exception {
+        byte[] dst = new byte[110];
+        buffer.get(10, dst, 5, 100);
+        assertArrayEquals(memory(10, 100), Arrays.copyOfRange(dst, 5, 105));
+        assertEquals(0, dst[0]);
+        assertEquals(0, dst[109]);
+        assertEquals(1, buffer.getDeviceReads());
+
+        buffer.get(10, dst, 5, 100);
+        assertEquals(1, buffer.getDeviceReads());
+    }
+
+    @Test
+    public void bulkGetReadsAroundCachedPages() throws Exception {
+        buffer.get(64);
+        byte[] dst = new byte[128];
+        buffer.get(0, dst);
+        assertArrayEquals(memory(0, 128), dst);
+        // pages 0 - 1 in one read, page 2 from the cache and page 3 in another read.
+        assertEquals(3, buffer.getDeviceReads());
+    }
+
+    @Test
+    public void invalidateDropsCachedPages() throws Exception {
+        buffer.get(0);
+        device.memory[0] = 42;
+        assertNotEquals(42, buffer.get(0));
+        buffer.invalidate();
+        assertEquals(42, buffer.get(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readOutOfDeviceIsRejected() throws Exception {
+        buffer.getInt(buffer.capacity() - 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void bulkGetOutOfArrayIsRejected() throws Exception {
+        buffer.get(0, new byte[4], 2, 4);
+    }
+}
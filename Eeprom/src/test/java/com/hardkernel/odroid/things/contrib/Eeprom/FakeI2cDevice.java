@@ -0,0 +1,159 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import com.google.android.things.pio.I2cDevice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * i2c device acting like an at24c memory, for host tests.
+ * writes wrap in their page like the device does, and every write is one write cycle.
+ * ack polls nack while the device is set busy.
+ */
+class FakeI2cDevice implements I2cDevice {
+    final byte[] memory;
+    final int page_size;
+    int write_cycles;
+    int reads;
+    // length of every read, and the most the i2c adapter transfers, 0 for no limit.
+    final List<Integer> read_lengths = new ArrayList<>();
+    int max_read_length;
+    // offset of every write, in write order.
+    final List<Integer> write_offsets = new ArrayList<>();
+    // time each write cycle takes.
+    long write_time_ms;
+    // writes left before the device stops acking, negative for no limit.
+    int writes_left = -1;
+    // acks writes without storing them, like a part with its WP pin high.
+    boolean write_protected;
+    // ack polls to nack before the write cycle is done, negative to nack forever.
+    int busy_polls;
+    // System.nanoTime() of every ack poll.
+    final List<Long> poll_times = new ArrayList<>();
+    // time ack polls nack for after each write, like the write cycle of a real part.
+    long cycle_time_ms;
+    private long cycle_end;
+    // System.nanoTime() of every write.
+    final List<Long> write_times = new ArrayList<>();
+
+    FakeI2cDevice(At24cPart part) {
+        this(part.getSize(), part.getPageSize());
+    }
+
+    /**
+     * @param size memory size, 256 for a block of a part selecting blocks by i2c address.
+     * @param page_size page size of the part.
+     */
+    FakeI2cDevice(int size, int page_size) {
+        memory = new byte[size];
+        Arrays.fill(memory, (byte) 0xFF);
+        this.page_size = page_size;
+    }
+
+    private int address(int reg) {
+        return reg & 0xFFFF;
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        int address = address(reg);
+        if (address + length > memory.length)
+            throw new IOException("read out of memory");
+        if (max_read_length > 0 && length > max_read_length)
+            throw new IOException("read longer than the adapter transfers");
+        System.arraycopy(memory, address, buffer, 0, length);
+        reads++;
+        read_lengths.add(length);
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        if (writes_left == 0)
+            throw new IOException("NACK");
+        if (writes_left > 0)
+            writes_left--;
+        if (length > page_size)
+            throw new IOException("write longer than a page");
+        int address = address(reg);
+        int base = address - address % page_size;
+        for (int i = 0; i < length && !write_protected; i++)
+            memory[base + (address % page_size + i) % page_size] = buffer[i];
+        write_cycles++;
+        write_offsets.add(address);
+        write_times.add(System.nanoTime());
+        cycle_end = System.nanoTime() + cycle_time_ms * 1000000;
+        if (write_time_ms > 0) {
+            try {
+                Thread.sleep(write_time_ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void read(byte[] buffer, int length) throws IOException {
+        // ack polling, the write cycle is done after busy_polls nacks.
+        poll_times.add(System.nanoTime());
+        if (System.nanoTime() < cycle_end)
+            throw new IOException("NACK");
+        if (busy_polls == 0)
+            return;
+        if (busy_polls > 0)
+            busy_polls--;
+        throw new IOException("NACK");
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) throws IOException {
+        throw new IOException("not supported");
+    }
+
+    @Override
+    public byte readRegByte(int reg) {
+        return memory[address(reg)];
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        writeRegBuffer(reg, new byte[] {data}, 1);
+    }
+
+    @Override
+    public short readRegWord(int reg) {
+        int address = address(reg);
+        return (short) ((memory[address] & 0xFF) | memory[address + 1] << 8);
+    }
+
+    @Override
+    public void writeRegWord(int reg, short data) throws IOException {
+        writeRegBuffer(reg, new byte[] {(byte) data, (byte) (data >> 8)}, 2);
+    }
+
+    @Override
+    public String getName() {
+        return "I2C-1";
+    }
+
+    @Override
+    public void close() {
+    }
+}
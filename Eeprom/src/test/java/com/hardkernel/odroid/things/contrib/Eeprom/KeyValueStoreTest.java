@@ -0,0 +1,259 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class KeyValueStoreTest {
+    private static final int OFFSET = 1024;
+    private static final int LENGTH = 1024;
+
+    private FakeI2cDevice device;
+    private KeyValueStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private KeyValueStore open() throws IOException, InterruptedException {
+        return new KeyValueStore(new at24c(device, At24cPart.AT24C32), OFFSET, LENGTH);
+    }
+
+    private KeyValueStore reopen() throws IOException, InterruptedException {
+        store.close();
+        store = open();
+        return store;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void assertRegionOnly() {
+        for (int i = 0; i < device.memory.length; i++) {
+            if (i < OFFSET || i >= OFFSET + LENGTH)
+                assertEquals("byte " + i, (byte) 0xFF, device.memory[i]);
+        }
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        assertNull(store.get("name"));
+        store.put("name", bytes("odroid"));
+        store.put("empty", new byte[0]);
+        assertArrayEquals(bytes("odroid"), store.get("name"));
+        assertArrayEquals(new byte[0], store.get("empty"));
+        assertTrue(store.contains("name"));
+        assertEquals(2, store.size());
+        assertRegionOnly();
+    }
+
+    @Test
+    public void putReplacesValue() throws Exception {
+        store.put("name", bytes("n2"));
+        store.put("name", bytes("m1"));
+        assertArrayEquals(bytes("m1"), store.get("name"));
+        assertEquals(1, store.size());
+        assertTrue(store.getStalePages() > 0);
+    }
+
+    @Test
+    public void getReturnsCopy() throws Exception {
+        store.put("name", bytes("c4"));
+        store.get("name")[0] = 0;
+        assertArrayEquals(bytes("c4"), store.get("name"));
+    }
+
+    @Test
+    public void getHitsCacheAfterPut() throws Exception {
+        store.put("name", bytes("odroid"));
+        int reads = device.reads;
+        assertArrayEquals(bytes("odroid"), store.get("name"));
+        assertArrayEquals(bytes("odroid"), store.get("name"));
+        assertEquals(reads, device.reads);
+    }
+
+    @Test
+    public void getReadsOnceAfterReopen() throws Exception {
+        store.put("name", bytes("odroid"));
+        reopen();
+        int reads = device.reads;
+        assertArrayEquals(bytes("odroid"), store.get("name"));
+        assertEquals(reads + 1, device.reads);
+        assertArrayEquals(bytes("odroid"), store.get("name"));
+        assertEquals(reads + 1, device.reads);
+    }
+
+    @Test
+    public void putUpdatesCachedValue() throws Exception {
+        store.put("name", bytes("n2"));
+        store.get("name");
+        byte[] value = bytes("m1");
+        store.put("name", value);
+        value[0] = 0;
+        int reads = device.reads;
+        assertArrayEquals(bytes("m1"), store.get("name"));
+        assertEquals(reads, device.reads);
+    }
+
+    @Test
+    public void removeDropsCachedValue() throws Exception {
+        store.put("name", bytes("odroid"));
+        store.get("name");
+        store.remove("name");
+        assertNull(store.get("name"));
+
+        reopen();
+        assertNull(store.get("name"));
+    }
+
+    @Test
+    public void evictedValueIsReadAgain() throws Exception {
+        store.close();
+        store = new KeyValueStore(new at24c(device, At24cPart.AT24C32), 0, device.memory.length);
+        // four values of 300 bytes do not fit in the 1 KB cache together.
+        byte[][] values = new byte[4][300];
+        for (int i = 0; i < values.length; i++) {
+            Arrays.fill(values[i], (byte) i);
+            store.put("key" + i, values[i]);
+        }
+        int reads = device.reads;
+        assertArrayEquals(values[3], store.get("key3"));
+        assertEquals(reads, device.reads);
+        assertArrayEquals(values[0], store.get("key0"));
+        assertEquals(reads + 1, device.reads);
+    }
+
+    @Test
+    public void removeDropsKey() throws Exception {
+        store.put("a", bytes("1"));
+        store.put("b", bytes("2"));
+        assertTrue(store.remove("a"));
+        assertFalse(store.remove("a"));
+        assertNull(store.get("a"));
+        assertFalse(store.contains("a"));
+        assertEquals(new HashSet<>(Arrays.asList("b")), store.keySet());
+    }
+
+    @Test
+    public void reopenRestoresLatestValues() throws Exception {
+        store.put("a", bytes("1"));
+        store.put("b", bytes("2"));
+        store.put("a", bytes("3"));
+        store.remove("b");
+        store.put("c", new byte[100]);
+
+        reopen();
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), store.keySet());
+        assertArrayEquals(bytes("3"), store.get("a"));
+        assertArrayEquals(new byte[100], store.get("c"));
+        assertNull(store.get("b"));
+    }
+
+    @Test
+    public void reopenIgnoresTornRecord() throws Exception {
+        byte[] value = new byte[40];
+        Arrays.fill(value, (byte) 2);
+        store.put("a", bytes("1"));
+        store.put("a", value);
+        // the record takes two pages, only the first one reaches the device.
+        device.writes_left = 1;
+        try {
+            store.put("a", new byte[40]);
+            fail("write did not fail");
+        } catch (IOException expected) {
+        }
+        device.writes_left = -1;
+
+        reopen();
+        assertArrayEquals(value, store.get("a"));
+    }
+
+    @Test
+    public void compactionReclaimsStalePages() throws Exception {
+        // 32 pages hold far less than the records written, so the log wraps many times.
+        for (int i = 0; i < 200; i++)
+            store.put("counter", bytes("value " + i + " of the counter"));
+        store.compact();
+        assertEquals(0, store.getStalePages());
+        assertArrayEquals(bytes("value 199 of the counter"), store.get("counter"));
+        assertRegionOnly();
+
+        reopen();
+        assertArrayEquals(bytes("value 199 of the counter"), store.get("counter"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void compactionKeepsLiveKeys() throws Exception {
+        for (int round = 0; round < 40; round++) {
+            for (int key = 0; key < 4; key++)
+                store.put("key" + key, bytes(key + ":" + round));
+            if (round % 3 == 0)
+                store.put("removed" + round, bytes("x"));
+            if (round % 3 == 1)
+                store.remove("removed" + (round - 1));
+        }
+        store.put("kept", bytes("kept"));
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int key = 0; key < 4; key++)
+                assertArrayEquals(bytes(key + ":39"), store.get("key" + key));
+            assertArrayEquals(bytes("kept"), store.get("kept"));
+            assertEquals(6, store.size());
+            assertTrue(store.contains("removed39"));
+            reopen();
+        }
+        assertRegionOnly();
+    }
+
+    @Test
+    public void compactionFreesPages() throws Exception {
+        store.put("a", bytes("1"));
+        int free = store.getFreePages();
+        for (int i = 0; i < 5; i++)
+            store.put("b", bytes("2"));
+        store.compact();
+        assertEquals(free - 1, store.getFreePages());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unalignedRegionIsRejected() throws Exception {
+        new KeyValueStore(new at24c(device, At24cPart.AT24C32), 10, LENGTH);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void regionOutOfDeviceIsRejected() throws Exception {
+        new KeyValueStore(new at24c(device, At24cPart.AT24C32), 3072, 2048);
+    }
+}
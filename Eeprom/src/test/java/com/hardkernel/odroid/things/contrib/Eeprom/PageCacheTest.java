@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PageCacheTest {
+    private FakeI2cDevice device;
+    private PageCache cache;
+
+    @Before
+    public void setUp() {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+        cache = new PageCache(new at24c(device, At24cPart.AT24C32));
+    }
+
+    private static byte[] filled(int size, int value) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    public void writesReachDeviceOnFlush() throws Exception {
+        cache.write(40, filled(4, 1), 4);
+        assertArrayEquals(filled(4, 1), cache.read(40, 4));
+        assertEquals(0, device.write_cycles);
+        assertEquals(1, cache.getDirtyPageCount());
+
+        cache.flush();
+        assertEquals(1, device.write_cycles);
+        assertEquals(0, cache.getDirtyPageCount());
+        assertArrayEquals(filled(4, 1), Arrays.copyOfRange(device.memory, 40, 44));
+    }
+
+    @Test
+    public void dirtyRangeOfPageIsOneCycle() throws Exception {
+        device.memory[36] = 5;
+        cache.write(34, filled(1, 1), 1);
+        cache.write(40, filled(1, 2), 1);
+        cache.write(34, filled(1, 3), 1);
+        cache.flush();
+        assertEquals(Arrays.asList(34), device.write_offsets);
+        assertEquals(3, device.memory[34]);
+        assertEquals(5, device.memory[36]);
+        assertEquals(2, device.memory[40]);
+    }
+
+    @Test
+    public void writeAcrossPagesDirtiesEach() throws Exception {
+        cache.write(60, filled(40, 1), 40);
+        assertEquals(3, cache.getDirtyPageCount());
+        cache.flush();
+        assertEquals(Arrays.asList(60, 64, 96), device.write_offsets);
+    }
+
+    @Test
+    public void pagesAreLoadedOnce() throws Exception {
+        cache.read(0, 100);
+        cache.read(10, 20);
+        cache.write(50, filled(2, 1), 2);
+        assertEquals(1, device.reads);
+    }
+
+    @Test
+    public void thresholdFlushesDirtyPages() throws Exception {
+        cache.setFlushThreshold(3);
+        cache.write(0, filled(1, 1), 1);
+        cache.write(32, filled(1, 1), 1);
+        cache.write(33, filled(1, 1), 1);
+        assertEquals(0, device.write_cycles);
+        assertEquals(2, cache.getDirtyPageCount());
+
+        cache.write(64, filled(1, 1), 1);
+        assertEquals(Arrays.asList(0, 32, 64), device.write_offsets);
+        assertEquals(0, cache.getDirtyPageCount());
+    }
+
+    @Test
+    public void verifyFailureKeepsPageDirty() throws Exception {
+        device.write_protected = true;
+        cache.write(100, filled(2, 1), 2);
+        try {
+            cache.flush();
+            fail("verify did not fail");
+        } catch (IOException e) {
+            assertEquals("verify failed at 100", e.getMessage());
+        }
+        assertEquals(1, cache.getDirtyPageCount());
+
+        device.write_protected = false;
+        cache.flush();
+        assertEquals(0, cache.getDirtyPageCount());
+        assertEquals(1, device.memory[100]);
+    }
+
+    @Test
+    public void flushWithoutVerifyDoesNotReadBack() throws Exception {
+        cache.setVerify(false);
+        cache.write(100, filled(2, 1), 2);
+        int reads = device.reads;
+        device.write_protected = true;
+        cache.flush();
+        assertEquals(reads, device.reads);
+        assertEquals(0, cache.getDirtyPageCount());
+    }
+
+    @Test
+    public void invalidateKeepsDirtyPages() throws Exception {
+        cache.write(0, filled(1, 1), 1);
+        cache.read(32, 1);
+        device.memory[32] = 9;
+        device.memory[1] = 9;
+        cache.invalidate();
+        assertEquals(9, cache.read(32, 1)[0]);
+        assertArrayEquals(new byte[] {1, (byte) 0xFF}, cache.read(0, 2));
+    }
+
+    @Test
+    public void closeFlushes() throws Exception {
+        cache.write(0, filled(1, 1), 1);
+        cache.close();
+        assertEquals(1, device.memory[0]);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordLogTest {
+    private static final int RECORD_SIZE = 4;
+    private static final int SLOT_SIZE = RECORD_SIZE + 8;
+
+    private FakeI2cDevice device;
+
+    @Before
+    public void setUp() {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+    }
+
+    private RecordLog open(int offset, int slots) throws IOException, InterruptedException {
+        return new RecordLog(new at24c(device, At24cPart.AT24C32), offset,
+                slots * SLOT_SIZE, RECORD_SIZE);
+    }
+
+    private static byte[] record(int value) {
+        return new byte[] {(byte) (value >> 24), (byte) (value >> 16),
+                (byte) (value >> 8), (byte) value};
+    }
+
+    private static List<byte[]> records(int from, int to) {
+        List<byte[]> records = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            records.add(record(i));
+        return records;
+    }
+
+    private static void assertRecords(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertArrayEquals(expected.get(i), actual.get(i));
+    }
+
+    private void assertUntouchedOutside(int offset, int length) {
+        for (int i = 0; i < device.memory.length; i++) {
+            if (i < offset || i >= offset + length)
+                assertEquals("byte " + i, (byte) 0xFF, device.memory[i]);
+        }
+    }
+
+    // flips a record byte of the slot, like a write torn by a power loss.
+    private void tear(int offset, int slot) {
+        device.memory[offset + slot * SLOT_SIZE + 5] ^= 0x01;
+    }
+
+    @Test
+    public void emptyRegionHasNoRecords() throws Exception {
+        RecordLog log = open(0, 8);
+        assertEquals(0, log.getNextSequence());
+        assertEquals(0, log.size());
+        assertTrue(log.readLast(8).isEmpty());
+    }
+
+    @Test
+    public void batchEndsBeforeSlotCrossingPage() throws Exception {
+        // slots of 12 bytes at 0, 12, 24, 36, 48, 60, 72, 84, 96; 24 and 60 cross a page.
+        RecordLog log = open(0, 100);
+        for (int i = 0; i < 8; i++)
+            log.append(record(i));
+        assertEquals(Arrays.asList(0, 24, 32, 60, 64), device.write_offsets);
+        log.append(record(8));
+        log.flush();
+        assertEquals(96, (int) device.write_offsets.get(5));
+        assertRecords(records(0, 9), open(0, 100).readLast(9));
+    }
+
+    @Test
+    public void batchOfUnalignedRegionIsOneWriteCycle() throws Exception {
+        // slots of 16 bytes from 16, so a page holds the second half of one batch and
+        // the first half of the next one when batches are counted by size.
+        RecordLog log = new RecordLog(new at24c(device, At24cPart.AT24C32), 16, 20 * 16, 8);
+        for (int i = 0; i < 9; i++)
+            log.append(new byte[8]);
+        assertEquals(Arrays.asList(16, 32, 64, 96, 128), device.write_offsets);
+        assertEquals(5, device.write_cycles);
+    }
+
+    @Test
+    public void batchEndsAtEndOfRegion() throws Exception {
+        RecordLog log = open(0, 2);
+        log.append(record(0));
+        assertEquals(0, device.write_cycles);
+        log.append(record(1));
+        assertEquals(Arrays.asList(0), device.write_offsets);
+    }
+
+    @Test
+    public void flushOfMoreRecordsThanSlotsStaysInRegion() throws Exception {
+        RecordLog log = open(100, 2);
+        log.append(records(0, 5));
+        assertUntouchedOutside(100, 2 * SLOT_SIZE);
+        assertRecords(records(3, 5), log.readLast(5));
+
+        RecordLog reopened = open(100, 2);
+        assertEquals(5, reopened.getNextSequence());
+        assertEquals(3, reopened.getOldestSequence());
+        assertRecords(records(3, 5), reopened.readLast(5));
+    }
+
+    @Test
+    public void pendingRecordsOverCapacityAreRead() throws Exception {
+        RecordLog log = open(100, 2);
+        for (int i = 0; i < 5; i++)
+            log.append(record(i));
+        assertEquals(2, log.size());
+        assertRecords(records(3, 5), log.readLast(5));
+        log.flush();
+        assertUntouchedOutside(100, 2 * SLOT_SIZE);
+        assertRecords(records(3, 5), open(100, 2).readLast(5));
+    }
+
+    @Test
+    public void reopenFindsHeadAtEveryPosition() throws Exception {
+        RecordLog log = open(64, 7);
+        for (int i = 0; i < 3 * 7; i++) {
+            log.append(record(i));
+            log.flush();
+            RecordLog reopened = open(64, 7);
+            assertEquals(i + 1, reopened.getNextSequence());
+            assertEquals(Math.max(0, i + 1 - 7), reopened.getOldestSequence());
+            assertRecords(records(Math.max(0, i - 2), i + 1), reopened.readLast(3));
+        }
+        assertUntouchedOutside(64, 7 * SLOT_SIZE);
+    }
+
+    @Test
+    public void tornNewestSlotIsDropped() throws Exception {
+        RecordLog log = open(0, 5);
+        log.append(records(0, 8));
+        tear(0, 7 % 5);
+
+        RecordLog reopened = open(0, 5);
+        assertEquals(7, reopened.getNextSequence());
+        assertRecords(records(3, 7), reopened.readLast(5));
+    }
+
+    @Test
+    public void tornNewestSlotZeroIsDropped() throws Exception {
+        RecordLog log = open(0, 5);
+        log.append(records(0, 11));
+        tear(0, 0);
+
+        RecordLog reopened = open(0, 5);
+        assertEquals(10, reopened.getNextSequence());
+        assertRecords(records(6, 10), reopened.readLast(5));
+    }
+
+    @Test
+    public void tornOldestSlotIsSkipped() throws Exception {
+        RecordLog log = open(0, 5);
+        log.append(records(0, 8));
+        tear(0, 3);
+
+        RecordLog reopened = open(0, 5);
+        assertEquals(8, reopened.getNextSequence());
+        assertEquals(4, reopened.getOldestSequence());
+        assertRecords(records(4, 8), reopened.readLast(5));
+    }
+
+    @Test
+    public void tornSlotInTheMiddleIsLeftOut() throws Exception {
+        RecordLog log = open(0, 5);
+        log.append(records(0, 5));
+        tear(0, 2);
+
+        List<byte[]> expected = records(0, 5);
+        expected.remove(2);
+        assertRecords(expected, open(0, 5).readLast(5));
+    }
+
+    @Test
+    public void appendsContinueAfterReopen() throws Exception {
+        RecordLog log = open(0, 5);
+        log.append(records(0, 3));
+        RecordLog reopened = open(0, 5);
+        reopened.append(records(3, 6));
+        assertRecords(records(1, 6), open(0, 5).readLast(5));
+        assertTrue(Arrays.equals(record(5), open(0, 5).readLast(1).get(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void regionForOneRecordIsRejected() throws Exception {
+        open(0, 1);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StripedVolumeTest {
+    private static final int PAGE_SIZE = 32;
+
+    private FakeI2cDevice[] devices;
+    private at24c[] chips;
+
+    @Before
+    public void setUp() {
+        devices = new FakeI2cDevice[4];
+        chips = new at24c[devices.length];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = new FakeI2cDevice(At24cPart.AT24C32);
+            chips[i] = new at24c(devices[i], At24cPart.AT24C32);
+        }
+    }
+
+    private StripedVolume volume(int count) {
+        return new StripedVolume(Arrays.copyOf(chips, count));
+    }
+
+    @Test
+    public void pagesAreStripedOverChips() throws Exception {
+        StripedVolume volume = volume(3);
+        assertEquals(3 * 4096, volume.getSize());
+        byte[] data = new byte[9 * PAGE_SIZE];
+        for (int page = 0; page < 9; page++)
+            Arrays.fill(data, page * PAGE_SIZE, (page + 1) * PAGE_SIZE, (byte) page);
+        volume.write(0, data, data.length);
+
+        // page p of the volume is page p / 3 of chip p % 3.
+        for (int page = 0; page < 9; page++) {
+            FakeI2cDevice device = devices[page % 3];
+            for (int i = 0; i < PAGE_SIZE; i++)
+                assertEquals("page " + page, page, device.memory[page / 3 * PAGE_SIZE + i]);
+        }
+        assertEquals(Arrays.asList(0, 32, 64), devices[1].write_offsets);
+        assertEquals(0, devices[3].write_cycles);
+    }
+
+    @Test
+    public void unalignedWriteAndRead() throws Exception {
+        StripedVolume volume = volume(2);
+        byte[] data = new byte[150];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        volume.write(50, data, data.length);
+        // 14 bytes of page 1, pages 2 - 5 and 8 bytes of page 6.
+        assertEquals(Arrays.asList(18, 32, 64), devices[1].write_offsets);
+        assertEquals(Arrays.asList(32, 64, 96), devices[0].write_offsets);
+
+        assertArrayEquals(data, volume.read(50, data.length));
+        // one sequential read for each chip.
+        assertEquals(1, devices[0].reads);
+        assertEquals(1, devices[1].reads);
+    }
+
+    @Test
+    public void writeCyclesOfChipsOverlap() throws Exception {
+        for (FakeI2cDevice device : devices)
+            device.cycle_time_ms = 10;
+        StripedVolume volume = volume(4);
+        long start = System.nanoTime();
+        volume.write(0, new byte[4 * PAGE_SIZE], 4 * PAGE_SIZE);
+        long elapsed = System.nanoTime() - start;
+
+        // no chip is polled before the last one is written.
+        long last_write = devices[3].write_times.get(0);
+        for (FakeI2cDevice device : devices)
+            assertTrue(device.poll_times.get(0) > last_write);
+        // serial write cycles would take 40ms.
+        assertTrue("took " + elapsed / 1000000 + "ms", elapsed < 30000000);
+    }
+
+    @Test
+    public void chipIsWaitedBeforeItsNextWrite() throws Exception {
+        for (FakeI2cDevice device : devices)
+            device.cycle_time_ms = 5;
+        StripedVolume volume = volume(2);
+        volume.write(0, new byte[4 * PAGE_SIZE], 4 * PAGE_SIZE);
+        for (int i = 0; i < 2; i++) {
+            FakeI2cDevice device = devices[i];
+            assertEquals(2, device.write_times.size());
+            assertTrue(device.write_times.get(1) - device.write_times.get(0) >= 5000000);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyChipRejectsWrite() throws Exception {
+        chips[1].read_only = true;
+        volume(2).write(0, new byte[1], 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chipsOfDifferentTypesAreRejected() {
+        new StripedVolume(chips[0], new at24c(new FakeI2cDevice(At24cPart.AT24C64),
+                At24cPart.AT24C64));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void writeOutOfVolumeIsRejected() throws Exception {
+        volume(2).write(2 * 4096 - 1, new byte[2], 2);
+    }
+}
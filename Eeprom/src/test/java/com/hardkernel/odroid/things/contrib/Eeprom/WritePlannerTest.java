@@ -0,0 +1,139 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Eeprom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WritePlannerTest {
+    private FakeI2cDevice device;
+    private at24c eeprom;
+    private WritePlanner plan;
+
+    @Before
+    public void setUp() {
+        device = new FakeI2cDevice(At24cPart.AT24C32);
+        eeprom = new at24c(device, At24cPart.AT24C32);
+        plan = new WritePlanner(eeprom.getPageSize());
+    }
+
+    private static byte[] filled(int size, int value) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    @Test
+    public void writeSplitsOnPageBoundaries() throws Exception {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        eeprom.write(20, data, data.length);
+        // 12 bytes up to the page end, two whole pages and 24 bytes.
+        assertEquals(Arrays.asList(20, 32, 64, 96), device.write_offsets);
+        assertArrayEquals(data, Arrays.copyOfRange(device.memory, 20, 120));
+    }
+
+    @Test
+    public void writeOfPartOfArray() throws Exception {
+        byte[] data = new byte[50];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        eeprom.write(30, data, 10, 40);
+        assertEquals(Arrays.asList(30, 32, 64), device.write_offsets);
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 50),
+                Arrays.copyOfRange(device.memory, 30, 70));
+    }
+
+    @Test
+    public void adjacentWritesCoalesce() throws Exception {
+        plan.add(0, filled(4, 1));
+        plan.add(4, filled(4, 2));
+        plan.add(8, filled(24, 3));
+        assertEquals(1, plan.getPageCount());
+        assertEquals(1, plan.getCycleCount());
+        eeprom.write(plan);
+        assertEquals(Arrays.asList(0), device.write_offsets);
+        assertTrue(plan.isEmpty());
+    }
+
+    @Test
+    public void gapsInPageTakeOwnCycles() throws Exception {
+        plan.add(0, filled(4, 1));
+        plan.add(10, filled(4, 2));
+        plan.add(31, filled(2, 3));
+        assertEquals(2, plan.getPageCount());
+        assertEquals(4, plan.getCycleCount());
+        eeprom.write(plan);
+        assertEquals(Arrays.asList(0, 10, 31, 32), device.write_offsets);
+        assertEquals(0xFF, device.memory[4] & 0xFF);
+        assertEquals(3, device.memory[32]);
+    }
+
+    @Test
+    public void laterWriteWins() throws Exception {
+        plan.add(0, filled(8, 1));
+        plan.add(4, filled(8, 2));
+        assertEquals(12, plan.getEnd());
+        eeprom.write(plan);
+        assertEquals(1, device.write_cycles);
+        assertArrayEquals(new byte[] {1, 1, 1, 1, 2, 2, 2, 2, 2, 2, 2, 2},
+                Arrays.copyOfRange(device.memory, 0, 12));
+    }
+
+    @Test
+    public void pagesAreWrittenInOffsetOrder() throws Exception {
+        plan.add(200, filled(1, 1));
+        plan.add(100, filled(1, 2));
+        plan.add(0, filled(1, 3));
+        while (plan.writeNextPage(eeprom))
+            ;
+        assertEquals(Arrays.asList(0, 100, 200), device.write_offsets);
+    }
+
+    @Test
+    public void overlayPatchesPendingBytes() {
+        plan.add(30, new byte[] {1, 2, 3, 4});
+        byte[] data = filled(8, 9);
+        plan.overlay(28, data);
+        assertArrayEquals(new byte[] {9, 9, 1, 2, 3, 4, 9, 9}, data);
+    }
+
+    @Test
+    public void emptyPlan() throws Exception {
+        assertTrue(plan.isEmpty());
+        assertEquals(0, plan.getEnd());
+        assertEquals(0, plan.getCycleCount());
+        eeprom.write(plan);
+        assertEquals(0, device.write_cycles);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void planOfOtherPageSizeIsRejected() throws Exception {
+        eeprom.write(new WritePlanner(64));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void planOutOfDeviceIsRejected() throws Exception {
+        plan.add(4095, filled(2, 1));
+        eeprom.write(plan);
+    }
+}
@@ -26,6 +26,7 @@ public class CanMessage {
     private long id;
     private ByteBuffer data;
     private boolean isRtr;
+    private boolean isExtended;
 
     /**
      * Create CAN message.
@@ -34,8 +35,20 @@ public class CanMessage {
      * @param data
      */
     public CanMessage(long id, boolean isRtr, ByteBuffer data){
+        this(id, false, isRtr, data);
+    }
+
+    /**
+     * Create CAN message with standard(11 bit) or extended(29 bit) identifier.
+     * @param id
+     * @param isExtended
+     * @param isRtr
+     * @param data
+     */
+    public CanMessage(long id, boolean isExtended, boolean isRtr, ByteBuffer data){
         this.data = data;
         this.id = id;
+        this.isExtended = isExtended;
         this.isRtr = isRtr;
     }
 
@@ -43,6 +56,10 @@ public class CanMessage {
         return isRtr;
     }
 
+    public boolean isExtended(){
+        return isExtended;
+    }
+
     public long getId(){
         return id;
     }
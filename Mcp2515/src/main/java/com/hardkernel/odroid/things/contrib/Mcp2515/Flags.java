@@ -57,6 +57,11 @@ public class Flags {
     public static final byte CANSTAT_ICOD_RXB1 = (byte)0x0E;
     public static final byte CANSTAT_ICOD_MASK = (byte)0x0E;
 
+    public static final byte TXBCTRL_ABTF = (byte)0x40;
+    public static final byte TXBCTRL_MLOA = (byte)0x20;
+    public static final byte TXBCTRL_TXERR = (byte)0x10;
+    public static final byte TXBCTRL_TXREQ = (byte)0x08;
+
     public static final byte RXB0CTRL_RXM_ANY = (byte)0x60;
     public static final byte RXB0CTRL_RXM_FILTER = (byte)0x00;
     public static final byte RXB0CTRL_RXRTR = (byte)0x08;
@@ -82,6 +87,13 @@ public class Flags {
     public static final byte CANINTF_WAKIF = (byte)0x40;
     public static final byte CANINTF_MERRF = (byte)0x80;
 
-    public static final int ID_IDE = 0x00040000;
+    public static final byte RXB1CTRL_RXM_ANY = (byte)0x60;
+    public static final byte RXB1CTRL_RXM_FILTER = (byte)0x00;
+    public static final byte RXB1CTRL_RXRTR = (byte)0x08;
+
+    public static final byte SIDL_EXIDE = (byte)0x08;
+    public static final byte DLC_RTR = (byte)0x40;
+
+    public static final int ID_IDE = 0x00080000;
     public static final int ID_SRR = 0x00100000;
 }
@@ -0,0 +1,605 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Mcp2515;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SAE J1939 layer on the Mcp2515 driver.
+ * It decodes priority, PGN and addresses from the 29 bit identifier, routes messages by PGN and
+ * reassembles the multi-packet messages of the transport protocol, BAM and RTS/CTS.
+ * Reassembly buffers are allocated at creation, so receiving does not allocate.
+ * Address claim is handled on its own thread, out of the interrupt path.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class J1939 implements Mcp2515.MessageReceivedListener, AutoCloseable {
+    private static final String TAG = J1939.class.getSimpleName();
+
+    public static final int ADDRESS_GLOBAL = 0xFF;
+    public static final int ADDRESS_NULL = 0xFE;
+
+    public static final int PGN_REQUEST = 0xEA00;
+    public static final int PGN_ADDRESS_CLAIMED = 0xEE00;
+    public static final int PGN_TP_CM = 0xEC00;
+    public static final int PGN_TP_DT = 0xEB00;
+
+    public static final int PRIORITY_DEFAULT = 6;
+    public static final int PRIORITY_TP = 7;
+
+    /**
+     * Largest message of the transport protocol, 255 packets of 7 bytes.
+     */
+    public static final int MAX_MESSAGE_SIZE = 255 * 7;
+
+    private static final int TP_CM_RTS = 16;
+    private static final int TP_CM_CTS = 17;
+    private static final int TP_CM_EOMA = 19;
+    private static final int TP_CM_BAM = 32;
+    private static final int TP_CM_ABORT = 255;
+
+    // Connection abort reasons of J1939-21.
+    private static final int ABORT_BUSY = 1;
+    private static final int ABORT_RESOURCES = 2;
+    private static final int ABORT_TIMEOUT = 3;
+    private static final int ABORT_SIZE = 9;
+
+    // Transport timeouts of J1939-21 in milliseconds.
+    private static final long TIMEOUT_T1 = 750;
+    private static final long TIMEOUT_T2 = 1250;
+    private static final long ADDRESS_CLAIM_WAIT = 250;
+
+    /**
+     * Interface to receive J1939 messages of a PGN.
+     */
+    public interface PgnListener {
+        /**
+         * Called on the interrupt thread with a complete message.
+         * @param data message data. it is owned by J1939 and valid only during this call.
+         * @param length message length in bytes.
+         */
+        void onReceived(int pgn, int priority, int source, int destination,
+                        byte[] data, int length);
+    }
+
+    /**
+     * Interface to be notified of address claim result.
+     */
+    public interface AddressListener {
+        /**
+         * @param address claimed address, or {@link #ADDRESS_NULL} when it is lost.
+         */
+        void onAddressChanged(int address);
+    }
+
+    private static class Session {
+        boolean active;
+        boolean broadcast;
+        int source;
+        int pgn;
+        int priority;
+        int size;
+        int packets;
+        int received;
+        int windowEnd;
+        int maxWindow;
+        long deadline;
+        final byte[] data = new byte[MAX_MESSAGE_SIZE];
+    }
+
+    private final Mcp2515 mcp2515;
+    private final long name;
+    private final int preferredAddress;
+    private volatile int address;
+    private volatile boolean claimed = false;
+
+    private final SparseArray<PgnListener> listeners = new SparseArray<>();
+    private PgnListener defaultListener = null;
+    private AddressListener addressListener = null;
+
+    private final Session[] sessions;
+    private final int windowSize;
+    private final byte[] frame = new byte[8];
+    private final byte[] reply = new byte[8];
+    private final byte[] claim = new byte[8];
+
+    private final ScheduledExecutorService claimExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Create J1939 layer with 4 reassembly sessions and 16 packets for each CTS.
+     * @param mcp2515 CAN controller. J1939 opens it to all extended frames and registers
+     *                itself as the message listener.
+     * @param address preferred source address of this node.
+     * @param name 64 bit NAME of this node, used on address claim.
+     * @throws IOException exception about spi process.
+     */
+    public J1939(Mcp2515 mcp2515, int address, long name) throws IOException {
+        this(mcp2515, address, name, 4, 16);
+    }
+
+    /**
+     * Create J1939 layer.
+     * @param mcp2515 CAN controller. J1939 opens it to all extended frames and registers
+     *                itself as the message listener.
+     * @param address preferred source address of this node.
+     * @param name 64 bit NAME of this node, used on address claim.
+     * @param sessionCount number of transport sessions received at the same time.
+     * @param windowSize number of packets requested in each CTS, 1 to 255.
+     * @throws IOException exception about spi process.
+     */
+    public J1939(Mcp2515 mcp2515, int address, long name, int sessionCount, int windowSize)
+            throws IOException {
+        if (address < 0 || address >= ADDRESS_NULL)
+            throw new IllegalArgumentException("Wrong address " + address);
+        if (sessionCount < 1)
+            throw new IllegalArgumentException("Session count must be bigger then zero");
+        if (windowSize < 1 || windowSize > 255)
+            throw new IllegalArgumentException("Window size must be between 1 and 255");
+
+        this.mcp2515 = mcp2515;
+        this.name = name;
+        this.preferredAddress = address;
+        this.address = address;
+        this.windowSize = windowSize;
+
+        sessions = new Session[sessionCount];
+        for (int i = 0; i < sessionCount; i++)
+            sessions[i] = new Session();
+
+        mcp2515.acceptExtendedFrames();
+        mcp2515.setListener(this);
+    }
+
+    /**
+     * @return priority field of the 29 bit identifier.
+     */
+    public static int getPriority(long id) {
+        return (int) ((id >> 26) & 0x07);
+    }
+
+    /**
+     * @return PGN of the 29 bit identifier. PDU1 format PGN has zero for PS field.
+     */
+    public static int getPgn(long id) {
+        int pgn = (int) ((id >> 8) & 0x3FFFF);
+        if (isPdu1(pgn))
+            pgn &= 0x3FF00;
+        return pgn;
+    }
+
+    /**
+     * @return source address of the 29 bit identifier.
+     */
+    public static int getSourceAddress(long id) {
+        return (int) (id & 0xFF);
+    }
+
+    /**
+     * @return destination address of the 29 bit identifier.
+     * PDU2 format messages are always {@link #ADDRESS_GLOBAL}.
+     */
+    public static int getDestinationAddress(long id) {
+        if (isPdu1((int) (id >> 8)))
+            return (int) ((id >> 8) & 0xFF);
+        return ADDRESS_GLOBAL;
+    }
+
+    /**
+     * @return true when PF field of PGN is under 240, the destination specific format.
+     */
+    public static boolean isPdu1(int pgn) {
+        return ((pgn >> 8) & 0xFF) < 240;
+    }
+
+    /**
+     * Build the 29 bit identifier.
+     * @param destination destination address. ignored for PDU2 format PGN.
+     */
+    public static long makeId(int priority, int pgn, int source, int destination) {
+        long id = ((long) (priority & 0x07) << 26) | ((long) (pgn & 0x3FFFF) << 8)
+                | (source & 0xFF);
+        if (isPdu1(pgn))
+            id = (id & ~0xFF00L) | ((destination & 0xFF) << 8);
+        return id;
+    }
+
+    /**
+     * Register the listener for a PGN.
+     * @param pgn target PGN.
+     * @param listener message receiver. null removes the listener.
+     */
+    public void setPgnListener(int pgn, PgnListener listener) {
+        synchronized (listeners) {
+            if (listener == null)
+                listeners.remove(pgn);
+            else
+                listeners.put(pgn, listener);
+        }
+    }
+
+    /**
+     * Register the listener for PGNs without their own listener.
+     * @param listener message receiver.
+     */
+    public void setDefaultListener(PgnListener listener) {
+        synchronized (listeners) {
+            defaultListener = listener;
+        }
+    }
+
+    /**
+     * Register the listener for address claim result.
+     * @param listener address receiver.
+     */
+    public void setAddressListener(AddressListener listener) {
+        addressListener = listener;
+    }
+
+    /**
+     * @return current source address, {@link #ADDRESS_NULL} when it is lost.
+     */
+    public int getAddress() {
+        return address;
+    }
+
+    /**
+     * @return true after address claim is done without contention.
+     */
+    public boolean isAddressClaimed() {
+        return claimed;
+    }
+
+    /**
+     * Start address claim of the preferred address.
+     * The result is given to {@link AddressListener} from the address claim thread.
+     */
+    public void claimAddress() {
+        claimExecutor.execute(() -> {
+            address = preferredAddress;
+            claimed = false;
+            sendAddressClaim(preferredAddress);
+        });
+        claimExecutor.schedule(() -> {
+            if (address != ADDRESS_NULL) {
+                claimed = true;
+                notifyAddress(address);
+            }
+        }, ADDRESS_CLAIM_WAIT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send single frame J1939 message from the current address.
+     * @param priority message priority, 0 to 7.
+     * @param pgn message PGN.
+     * @param destination destination address for PDU1 format PGN.
+     * @param data message data.
+     * @param length data length, 0 to 8.
+     * @return false when every transmit buffer is still pending.
+     * @throws IOException exception about spi process.
+     */
+    public boolean send(int priority, int pgn, int destination, byte[] data, int length)
+            throws IOException {
+        return mcp2515.send(makeId(priority, pgn, address, destination), true, false,
+                data, length);
+    }
+
+    @Override
+    public void onReceived(CanMessage message) {
+        if (!message.isExtended() || message.isRemoteTransmitRequest())
+            return;
+
+        long id = message.getId();
+        int pgn = getPgn(id);
+        int source = getSourceAddress(id);
+        int destination = getDestinationAddress(id);
+        int length = message.getDataLength();
+
+        ByteBuffer data = message.getData();
+        for (int i = 0; i < length; i++)
+            frame[i] = data.get(i);
+
+        if (destination != ADDRESS_GLOBAL && destination != address)
+            return;
+
+        try {
+            switch (pgn) {
+                case PGN_TP_CM:
+                    if (length == 8)
+                        onConnectionManagement(getPriority(id), source, destination);
+                    break;
+                case PGN_TP_DT:
+                    if (length == 8)
+                        onDataTransfer(source, destination);
+                    break;
+                case PGN_ADDRESS_CLAIMED:
+                    if (length == 8)
+                        onAddressClaim(source, readName(frame));
+                    break;
+                case PGN_REQUEST:
+                    if (length >= 3 && readPgn(frame, 0) == PGN_ADDRESS_CLAIMED)
+                        claimExecutor.execute(() -> sendAddressClaim(address));
+                    else
+                        dispatch(pgn, getPriority(id), source, destination, frame, length);
+                    break;
+                default:
+                    dispatch(pgn, getPriority(id), source, destination, frame, length);
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to reply on transport protocol", e);
+        }
+    }
+
+    private void dispatch(int pgn, int priority, int source, int destination,
+                          byte[] data, int length) {
+        PgnListener listener;
+        synchronized (listeners) {
+            listener = listeners.get(pgn, defaultListener);
+        }
+        if (listener != null)
+            listener.onReceived(pgn, priority, source, destination, data, length);
+    }
+
+    private void onConnectionManagement(int priority, int source, int destination)
+            throws IOException {
+        int control = frame[0] & 0xFF;
+        int size = (frame[1] & 0xFF) | ((frame[2] & 0xFF) << 8);
+        int packets = frame[3] & 0xFF;
+        int pgn = readPgn(frame, 5);
+        boolean broadcast = (destination == ADDRESS_GLOBAL);
+
+        switch (control) {
+            case TP_CM_BAM:
+            case TP_CM_RTS: {
+                if (broadcast != (control == TP_CM_BAM))
+                    return;
+                if (size < 9 || size > MAX_MESSAGE_SIZE || packets != (size + 6) / 7) {
+                    // Not "busy", so the sender does not just try the same message again.
+                    if (!broadcast)
+                        sendAbort(source, pgn,
+                                size > MAX_MESSAGE_SIZE ? ABORT_SIZE : ABORT_RESOURCES);
+                    return;
+                }
+
+                Session session = obtainSession(source, broadcast);
+                if (session == null) {
+                    if (!broadcast)
+                        sendAbort(source, pgn, ABORT_BUSY);
+                    return;
+                }
+                session.active = true;
+                session.broadcast = broadcast;
+                session.source = source;
+                session.pgn = pgn;
+                session.priority = priority;
+                session.size = size;
+                session.packets = packets;
+                session.received = 0;
+
+                if (broadcast) {
+                    session.deadline = SystemClock.uptimeMillis() + TIMEOUT_T1;
+                } else {
+                    int maxWindow = frame[4] & 0xFF;
+                    session.maxWindow = (maxWindow == 0) ? windowSize
+                            : Math.min(maxWindow, windowSize);
+                    sendClearToSend(session);
+                }
+                break;
+            }
+            case TP_CM_ABORT: {
+                Session session = findSession(source, broadcast);
+                if (session != null)
+                    session.active = false;
+                break;
+            }
+            default:
+                // CTS and EOMA are for the sender, it is not supported.
+                break;
+        }
+    }
+
+    private void onDataTransfer(int source, int destination) throws IOException {
+        Session session = findSession(source, destination == ADDRESS_GLOBAL);
+        if (session == null)
+            return;
+
+        long now = SystemClock.uptimeMillis();
+        if (now > session.deadline) {
+            session.active = false;
+            if (!session.broadcast)
+                sendAbort(source, session.pgn, ABORT_TIMEOUT);
+            return;
+        }
+
+        int sequence = frame[0] & 0xFF;
+        if (sequence != session.received + 1) {
+            if (session.broadcast) {
+                // BAM can not ask again, drop this message.
+                session.active = false;
+            } else if (sequence == session.windowEnd) {
+                // Lost packet in this window, ask again from the missing one.
+                sendClearToSend(session);
+            }
+            return;
+        }
+
+        int offset = session.received * 7;
+        int count = Math.min(7, session.size - offset);
+        System.arraycopy(frame, 1, session.data, offset, count);
+        session.received++;
+
+        if (session.received == session.packets) {
+            session.active = false;
+            if (!session.broadcast)
+                sendEndOfMessageAck(session);
+            dispatch(session.pgn, session.priority, source,
+                    session.broadcast ? ADDRESS_GLOBAL : address,
+                    session.data, session.size);
+        } else if (!session.broadcast && session.received == session.windowEnd) {
+            sendClearToSend(session);
+        } else {
+            session.deadline = now + TIMEOUT_T1;
+        }
+    }
+
+    private Session findSession(int source, boolean broadcast) {
+        for (Session session : sessions) {
+            if (session.active && session.source == source && session.broadcast == broadcast)
+                return session;
+        }
+        return null;
+    }
+
+    /**
+     * Get session for new transfer. The running session of the same source is restarted,
+     * and timed out sessions are reused.
+     */
+    private Session obtainSession(int source, boolean broadcast) {
+        Session session = findSession(source, broadcast);
+        if (session != null)
+            return session;
+
+        long now = SystemClock.uptimeMillis();
+        for (Session candidate : sessions) {
+            if (!candidate.active || now > candidate.deadline)
+                return candidate;
+        }
+        return null;
+    }
+
+    private void sendClearToSend(Session session) throws IOException {
+        int count = Math.min(session.maxWindow, session.packets - session.received);
+        session.windowEnd = session.received + count;
+        session.deadline = SystemClock.uptimeMillis() + TIMEOUT_T2;
+
+        reply[0] = (byte) TP_CM_CTS;
+        reply[1] = (byte) count;
+        reply[2] = (byte) (session.received + 1);
+        reply[3] = (byte) 0xFF;
+        reply[4] = (byte) 0xFF;
+        writePgn(reply, 5, session.pgn);
+        sendReply(session.source);
+    }
+
+    private void sendEndOfMessageAck(Session session) throws IOException {
+        reply[0] = (byte) TP_CM_EOMA;
+        reply[1] = (byte) session.size;
+        reply[2] = (byte) (session.size >> 8);
+        reply[3] = (byte) session.packets;
+        reply[4] = (byte) 0xFF;
+        writePgn(reply, 5, session.pgn);
+        sendReply(session.source);
+    }
+
+    private void sendAbort(int destination, int pgn, int reason) throws IOException {
+        reply[0] = (byte) TP_CM_ABORT;
+        reply[1] = (byte) reason;
+        reply[2] = (byte) 0xFF;
+        reply[3] = (byte) 0xFF;
+        reply[4] = (byte) 0xFF;
+        writePgn(reply, 5, pgn);
+        sendReply(destination);
+    }
+
+    private void sendReply(int destination) throws IOException {
+        if (!mcp2515.send(makeId(PRIORITY_TP, PGN_TP_CM, address, destination), true, false,
+                reply, 8))
+            Log.w(TAG, "No free TX buffer for transport reply");
+    }
+
+    private void onAddressClaim(int source, long otherName) {
+        if (source != address)
+            return;
+        claimExecutor.execute(() -> {
+            if (source != address)
+                return;
+            if (Long.compareUnsigned(name, otherName) < 0) {
+                // Lower NAME has priority, keep our address.
+                sendAddressClaim(address);
+            } else {
+                address = ADDRESS_NULL;
+                claimed = false;
+                // Cannot claim address.
+                sendAddressClaim(ADDRESS_NULL);
+                notifyAddress(ADDRESS_NULL);
+            }
+        });
+    }
+
+    /**
+     * Must be called on the address claim thread.
+     */
+    private void sendAddressClaim(int source) {
+        for (int i = 0; i < 8; i++)
+            claim[i] = (byte) (name >> (8 * i));
+        try {
+            mcp2515.send(makeId(PRIORITY_DEFAULT, PGN_ADDRESS_CLAIMED, source, ADDRESS_GLOBAL),
+                    true, false, claim, 8);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to send address claim", e);
+        }
+    }
+
+    private void notifyAddress(int address) {
+        AddressListener listener = addressListener;
+        if (listener != null)
+            listener.onAddressChanged(address);
+    }
+
+    private static long readName(byte[] data) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value |= (long) (data[i] & 0xFF) << (8 * i);
+        return value;
+    }
+
+    private static int readPgn(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0x03) << 16);
+    }
+
+    private static void writePgn(byte[] data, int offset, int pgn) {
+        data[offset] = (byte) pgn;
+        data[offset + 1] = (byte) (pgn >> 8);
+        data[offset + 2] = (byte) (pgn >> 16);
+    }
+
+    /**
+     * Stop the address claim thread and drop running transport sessions.
+     * The Mcp2515 is not closed.
+     */
+    @Override
+    public void close() {
+        mcp2515.setListener(null);
+        claimExecutor.shutdownNow();
+        for (Session session : sessions)
+            session.active = false;
+        synchronized (listeners) {
+            listeners.clear();
+            defaultListener = null;
+        }
+        addressListener = null;
+    }
+}
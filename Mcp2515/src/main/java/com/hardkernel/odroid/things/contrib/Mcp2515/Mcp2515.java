@@ -18,6 +18,7 @@ package com.hardkernel.odroid.things.contrib.Mcp2515;
 
 import androidx.annotation.VisibleForTesting;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.GpioCallback;
@@ -38,9 +39,15 @@ import java.nio.ByteBuffer;
 public class Mcp2515 implements AutoCloseable {
     private static final String TAG = Mcp2515.class.getSimpleName();
 
+    private static final long REMOTE_KEY_EXTENDED = 1L << 32;
+
     private SpiDevice device;
     private Gpio interruptPin;
 
+    // 1 - command, 4 - id, 1 - DLC, 8 - data
+    private final byte[] txBuffer = new byte[1 + 4 + 1 + 8];
+    private final byte[] commandBuffer = new byte[2];
+
     /**
      * Interface to receive the CAN message.
      */
@@ -49,8 +56,35 @@ public class Mcp2515 implements AutoCloseable {
     }
     private MessageReceivedListener listener = null;
 
+    /**
+     * Response payload for remote transmission request of an identifier.
+     */
+    private static class RemoteResponse {
+        long id;
+        boolean isExtended;
+        final byte[] data = new byte[8];
+        int length;
+        // Preloaded transmit buffer number, -1 when it is loaded on each request.
+        int txBuffer = -1;
+    }
+    private final LongSparseArray<RemoteResponse> remoteResponses = new LongSparseArray<>();
+    // Bit mask of transmit buffers kept for preloaded responses.
+    private int reservedTxBuffers = 0;
+
+    // Remote response latency from reading the request to the transmit request, in nanoseconds.
+    private long remoteResponseCount = 0;
+    private long remoteResponseFailures = 0;
+    private long remoteResponseLatencyTotal = 0;
+    private long remoteResponseLatencyMax = 0;
+    private long remoteResponseLatencyLast = 0;
+
     /**
      * Check the CAN buffer 0 and 1, and call listener when it is received message.
+     * Buffers are read until both are empty, so a message arrived while handling the other
+     * buffer is not lost.
+     * Remote transmission requests with registered response are answered here and not given
+     * to the listener. A request that can not be answered for lack of a free transmit buffer
+     * is given to the listener.
      */
     public void processInterrupt(){
         try {
@@ -60,26 +94,38 @@ public class Mcp2515 implements AutoCloseable {
             byte eflg = readRegister(Registers.EFLG);
             Log.w(TAG, "EFLG: " + byte2hex(eflg));
 
-            if ((flags & Flags.CANINTF_RX0IF) > 0 ){
-                CanMessage message = readMessage(0);
-                assert message != null;
-                Log.w(TAG, "Received msg on RX0: " + String.format("0x%04x",message.getId()) );
-                if (listener != null){
-                    listener.onReceived(message);
+            while ((flags & (Flags.CANINTF_RX0IF | Flags.CANINTF_RX1IF)) > 0) {
+                if ((flags & Flags.CANINTF_RX0IF) > 0 ){
+                    long readTime = System.nanoTime();
+                    CanMessage message = readMessage(0);
+                    assert message != null;
+                    // Clean up interrupt of the buffer 0
+                    modifyRegister(Registers.CANINTF, Flags.CANINTF_RX0IF, (byte)0x00);
+                    if (!respondRemote(message, readTime)) {
+                        Log.w(TAG, "Received msg on RX0: " + String.format("0x%04x",message.getId()) );
+                        if (listener != null){
+                            listener.onReceived(message);
+                        }
+                    }
                 }
-            }
 
-            if ((flags & Flags.CANINTF_RX1IF) > 0){
-                CanMessage message = readMessage(1);
-                assert message != null;
-                Log.w(TAG, "Received msg on RX1: " + String.format("0x%04x",message.getId()) );
-                if (listener != null){
-                    listener.onReceived(message);
+                if ((flags & Flags.CANINTF_RX1IF) > 0){
+                    long readTime = System.nanoTime();
+                    CanMessage message = readMessage(1);
+                    assert message != null;
+                    // Clean up interrupt of the buffer 1
+                    modifyRegister(Registers.CANINTF, Flags.CANINTF_RX1IF, (byte)0x00);
+                    if (!respondRemote(message, readTime)) {
+                        Log.w(TAG, "Received msg on RX1: " + String.format("0x%04x",message.getId()) );
+                        if (listener != null){
+                            listener.onReceived(message);
+                        }
+                    }
                 }
+
+                flags = readRegister(Registers.CANINTF);
             }
 
-            // Clean up interrupt
-            writeRegister(Registers.CANINTF, (byte)0x00);
             // Clean up EFLG
             writeRegister(Registers.EFLG, (byte)0x00);
 
@@ -173,6 +219,302 @@ public class Mcp2515 implements AutoCloseable {
         );
     }
 
+    /**
+     * Open both receive buffers to every extended(29 bit) frame, like J1939 needs.
+     * Standard frames are rejected by the filters. RXB0 rolls over to RXB1 when it is full,
+     * and both buffers raise the interrupt.
+     * @throws IOException exception about spi process.
+     */
+    public void acceptExtendedFrames() throws IOException {
+        modifyRegister(Registers.CANCTRL, Flags.CANCTRL_MODE_MASK, Flags.CANCTRL_MODE_CONFIG);
+
+        // Masks all zero: every identifier bit is "don't care".
+        for (int i = 0; i < 4; i++) {
+            writeRegister((byte)(Registers.RXM0SIDH + i), (byte)0x00);
+            writeRegister((byte)(Registers.RXM1SIDH + i), (byte)0x00);
+        }
+
+        // Filters only match on EXIDE, so standard frames never hit.
+        byte[] filters = {
+                Registers.RXF0SIDH, Registers.RXF1SIDH, Registers.RXF2SIDH,
+                Registers.RXF3SIDH, Registers.RXF4SIDH, Registers.RXF5SIDH
+        };
+        for (byte filter : filters) {
+            writeRegister(filter, (byte)0x00);
+            writeRegister((byte)(filter + 1), Flags.SIDL_EXIDE);
+            writeRegister((byte)(filter + 2), (byte)0x00);
+            writeRegister((byte)(filter + 3), (byte)0x00);
+        }
+
+        writeRegister(Registers.RXB0CTRL,
+                (byte)(Flags.RXB0CTRL_RXM_FILTER | Flags.RXB0CTRL_BUKT));
+        writeRegister(Registers.RXB1CTRL, Flags.RXB1CTRL_RXM_FILTER);
+        writeRegister(Registers.CANINTE,
+                (byte)(Flags.CANINTE_RX0IE | Flags.CANINTE_RX1IE));
+
+        // set normal mode
+        writeRegister(Registers.CANCTRL,
+                (byte)( Flags.CANCTRL_MODE_NORMAL | Flags.CANCTRL_CLKPRE_1 )
+        );
+    }
+
+    /**
+     * Send CAN message on a free transmit buffer.
+     * @param message CAN message to send. up to 8 bytes of data from index 0 are sent.
+     * @return false when every transmit buffer is still pending.
+     * @throws IOException exception about spi process.
+     */
+    public boolean send(CanMessage message) throws IOException {
+        ByteBuffer data = message.getData();
+        int len = (data == null) ? 0 : Math.min(data.capacity(), 8);
+        byte[] payload = new byte[len];
+        for (int i = 0; i < len; i++) {
+            payload[i] = data.get(i);
+        }
+        return send(message.getId(), message.isExtended(), message.isRemoteTransmitRequest(),
+                payload, len);
+    }
+
+    /**
+     * Send CAN frame on a free transmit buffer, without allocation.
+     * @param id standard(11 bit) or extended(29 bit) identifier.
+     * @param isExtended true for extended identifier.
+     * @param isRtr true for remote transmission request.
+     * @param data frame data.
+     * @param length data length, 0 to 8.
+     * @return false when every transmit buffer is still pending.
+     * @throws IOException exception about spi process.
+     */
+    public synchronized boolean send(long id, boolean isExtended, boolean isRtr,
+                                     byte[] data, int length) throws IOException {
+        if (length < 0 || length > 8) {
+            throw new IllegalArgumentException("Bad data length " + length);
+        }
+
+        int tx = findFreeTxBuffer();
+        if (tx < 0) {
+            return false;
+        }
+
+        loadTxBuffer(tx, id, isExtended, isRtr, data, length);
+
+        commandBuffer[0] = (byte)(Commands.RTS | (1 << tx));
+        device.write(commandBuffer, 1);
+        return true;
+    }
+
+    /**
+     * Register response for remote transmission request of the identifier.
+     * The driver answers matching request on the interrupt path, and the request is not given
+     * to the listener.
+     * With preload, the response is kept on a transmit buffer and sent by a single RTS command.
+     * TXB2 and TXB1 can be preloaded, TXB0 is always left for {@link #send}.
+     * @param id standard(11 bit) or extended(29 bit) identifier.
+     * @param isExtended true for extended identifier.
+     * @param data response data.
+     * @param length data length, 0 to 8.
+     * @param preload keep the response on a transmit buffer.
+     * @throws IOException exception about spi process.
+     * @throws IllegalStateException no transmit buffer is left to preload.
+     */
+    public synchronized void setRemoteResponse(long id, boolean isExtended, byte[] data,
+                                               int length, boolean preload)
+            throws IOException, IllegalStateException {
+        if (length < 0 || length > 8) {
+            throw new IllegalArgumentException("Bad data length " + length);
+        }
+
+        long key = remoteKey(id, isExtended);
+        RemoteResponse response = remoteResponses.get(key);
+        if (response == null) {
+            response = new RemoteResponse();
+            response.id = id;
+            response.isExtended = isExtended;
+        }
+
+        if (preload && response.txBuffer < 0) {
+            if ((reservedTxBuffers & 0x04) == 0) {
+                response.txBuffer = 2;
+            } else if ((reservedTxBuffers & 0x02) == 0) {
+                response.txBuffer = 1;
+            } else {
+                throw new IllegalStateException("No transmit buffer left to preload");
+            }
+            reservedTxBuffers |= 1 << response.txBuffer;
+        } else if (!preload && response.txBuffer >= 0) {
+            reservedTxBuffers &= ~(1 << response.txBuffer);
+            response.txBuffer = -1;
+        }
+
+        System.arraycopy(data, 0, response.data, 0, length);
+        response.length = length;
+        remoteResponses.put(key, response);
+
+        if (response.txBuffer >= 0) {
+            // Drop pending request before loading, the buffer can be in use by send().
+            modifyRegister((byte)(Registers.TXB0CTRL + 0x10 * response.txBuffer),
+                    Flags.TXBCTRL_TXREQ, (byte)0x00);
+            loadTxBuffer(response.txBuffer, id, isExtended, false, response.data, length);
+        }
+    }
+
+    /**
+     * Remove response for remote transmission request of the identifier.
+     * Its preloaded transmit buffer is given back to {@link #send}.
+     * @param id standard(11 bit) or extended(29 bit) identifier.
+     * @param isExtended true for extended identifier.
+     */
+    public synchronized void removeRemoteResponse(long id, boolean isExtended) {
+        long key = remoteKey(id, isExtended);
+        RemoteResponse response = remoteResponses.get(key);
+        if (response == null) {
+            return;
+        }
+        if (response.txBuffer >= 0) {
+            reservedTxBuffers &= ~(1 << response.txBuffer);
+        }
+        remoteResponses.remove(key);
+    }
+
+    /**
+     * @return number of remote transmission requests answered by the driver.
+     */
+    public synchronized long getRemoteResponseCount() {
+        return remoteResponseCount;
+    }
+
+    /**
+     * @return latency from reading the request to the transmit request of the last response,
+     * in nanoseconds.
+     */
+    public synchronized long getRemoteResponseLatencyLast() {
+        return remoteResponseLatencyLast;
+    }
+
+    /**
+     * @return maximum latency from reading the request to the transmit request, in nanoseconds.
+     */
+    public synchronized long getRemoteResponseLatencyMax() {
+        return remoteResponseLatencyMax;
+    }
+
+    /**
+     * @return average latency from reading the request to the transmit request, in nanoseconds.
+     */
+    public synchronized long getRemoteResponseLatencyAverage() {
+        if (remoteResponseCount == 0) {
+            return 0;
+        }
+        return remoteResponseLatencyTotal / remoteResponseCount;
+    }
+
+    /**
+     * @return number of remote transmission requests not answered for lack of a free
+     * transmit buffer. They are given to the listener.
+     */
+    public synchronized long getRemoteResponseFailures() {
+        return remoteResponseFailures;
+    }
+
+    /**
+     * Clear remote response latency statistics.
+     */
+    public synchronized void resetRemoteResponseStats() {
+        remoteResponseCount = 0;
+        remoteResponseFailures = 0;
+        remoteResponseLatencyTotal = 0;
+        remoteResponseLatencyMax = 0;
+        remoteResponseLatencyLast = 0;
+    }
+
+    /**
+     * Answer remote transmission request with registered response.
+     * @param readTime time the request started to be read, for the latency.
+     * @return true when the message is answered.
+     */
+    private synchronized boolean respondRemote(CanMessage message, long readTime)
+            throws IOException {
+        if (!message.isRemoteTransmitRequest() || remoteResponses.size() == 0) {
+            return false;
+        }
+        RemoteResponse response =
+                remoteResponses.get(remoteKey(message.getId(), message.isExtended()));
+        if (response == null) {
+            return false;
+        }
+
+        if (response.txBuffer >= 0) {
+            commandBuffer[0] = (byte)(Commands.RTS | (1 << response.txBuffer));
+            device.write(commandBuffer, 1);
+        } else if (!send(response.id, response.isExtended, false,
+                response.data, response.length)) {
+            Log.w(TAG, "No free TX buffer for remote response");
+            remoteResponseFailures++;
+            return false;
+        }
+
+        long latency = System.nanoTime() - readTime;
+        remoteResponseCount++;
+        remoteResponseLatencyTotal += latency;
+        remoteResponseLatencyLast = latency;
+        if (latency > remoteResponseLatencyMax) {
+            remoteResponseLatencyMax = latency;
+        }
+        return true;
+    }
+
+    private static long remoteKey(long id, boolean isExtended) {
+        return isExtended ? (id | REMOTE_KEY_EXTENDED) : id;
+    }
+
+    /**
+     * Find the transmit buffer without pending request.
+     * @return buffer number 0 to 2, -1 when all of them are pending.
+     */
+    private int findFreeTxBuffer() throws IOException {
+        commandBuffer[0] = Commands.READ_STATUS;
+        commandBuffer[1] = 0x00;
+        device.transfer(commandBuffer, commandBuffer, 2);
+
+        byte status = commandBuffer[1];
+        if ((status & Flags.STATUS_MES_TRANSMIT_REQ_0) == 0 && (reservedTxBuffers & 0x01) == 0)
+            return 0;
+        if ((status & Flags.STATUS_MES_TRANSMIT_REQ_1) == 0 && (reservedTxBuffers & 0x02) == 0)
+            return 1;
+        if ((status & Flags.STATUS_MES_TRANSMIT_REQ_2) == 0 && (reservedTxBuffers & 0x04) == 0)
+            return 2;
+        return -1;
+    }
+
+    private void loadTxBuffer(int tx, long id, boolean isExtended, boolean isRtr,
+                              byte[] data, int length) throws IOException {
+        txBuffer[0] = (byte)(Commands.LOAD_TX_0_ID + 0x02 * tx);
+        encodeId(txBuffer, 1, id, isExtended);
+        txBuffer[5] = (byte)(length | (isRtr ? Flags.DLC_RTR : 0));
+        if (length > 0) {
+            System.arraycopy(data, 0, txBuffer, 6, length);
+        }
+        device.write(txBuffer, 6 + length);
+    }
+
+    /**
+     * Encode identifier to the SIDH, SIDL, EID8 and EID0 register layout.
+     */
+    static void encodeId(byte[] buffer, int offset, long id, boolean isExtended) {
+        if (isExtended) {
+            buffer[offset] = (byte)(id >> 21);
+            buffer[offset + 1] = (byte)((((id >> 18) & 0x07) << 5) | Flags.SIDL_EXIDE
+                    | ((id >> 16) & 0x03));
+            buffer[offset + 2] = (byte)(id >> 8);
+            buffer[offset + 3] = (byte)id;
+        } else {
+            buffer[offset] = (byte)(id >> 3);
+            buffer[offset + 1] = (byte)((id & 0x07) << 5);
+            buffer[offset + 2] = 0x00;
+            buffer[offset + 3] = 0x00;
+        }
+    }
+
     /**
      * Close Mcp2515's communication and interrupts.
      */
@@ -241,6 +583,7 @@ public class Mcp2515 implements AutoCloseable {
 
         long id = 0;
         boolean isRtr = false;
+        boolean isExtended = false;
         CanMessage message;
 
         if (buffer_id > 1 || buffer_id < 0){
@@ -267,13 +610,18 @@ public class Mcp2515 implements AutoCloseable {
             }
 
             if ( (id & Flags.ID_IDE) == 0 ){
+                if ( (id & Flags.ID_SRR) > 0 ){
+                    isRtr = true;
+                }
                 id = id >> 21;
-            }
-            if ( (id & Flags.ID_SRR) > 0 ){
-                isRtr = true;
+            } else {
+                // SID10..0, EID17..16 and EID15..0 make the 29 bit identifier.
+                id = ((id >> 3) & 0x1FFC0000L) | (id & 0x0003FFFFL);
+                isExtended = true;
+                isRtr = (temp[5] & Flags.DLC_RTR) != 0;
             }
 
-            message = new CanMessage(id, isRtr, buffer);
+            message = new CanMessage(id, isExtended, isRtr, buffer);
 
         } catch (IOException e){
             throw new IOException("readMessage: Unable to get data", e);
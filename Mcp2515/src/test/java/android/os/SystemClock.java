@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host test double of android.os.SystemClock with a clock set by the test,
+ * so timeouts are tested without waiting.
+ */
+public final class SystemClock {
+    private static volatile long uptime = 1000;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return uptime;
+    }
+
+    public static long elapsedRealtime() {
+        return uptime;
+    }
+
+    public static void sleep(long ms) {
+        uptime += ms;
+    }
+
+    /**
+     * Moves the clock of the test forward.
+     */
+    public static void advance(long ms) {
+        uptime += ms;
+    }
+}
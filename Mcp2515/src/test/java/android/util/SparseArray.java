@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.util.TreeMap;
+
+/**
+ * Host test double of android.util.SparseArray, on a TreeMap.
+ */
+public class SparseArray<E> {
+    private final TreeMap<Integer, E> map = new TreeMap<>();
+
+    public E get(int key) {
+        return map.get(key);
+    }
+
+    public E get(int key, E valueIfKeyNotFound) {
+        E value = map.get(key);
+        return value == null ? valueIfKeyNotFound : value;
+    }
+
+    public void put(int key, E value) {
+        map.put(key, value);
+    }
+
+    public void remove(int key) {
+        map.remove(key);
+    }
+
+    public void delete(int key) {
+        map.remove(key);
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2023 Hardkernel Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Mcp2515;
+
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class J1939Test {
+    private static final int ADDRESS = 0x80;
+    private static final int PEER = 0x10;
+    private static final long NAME = 0x0123456789ABCDEFL;
+    private static final int PGN = 0xFECA;
+
+    /**
+     * Frame sent through the mocked controller.
+     */
+    private static class Frame {
+        final long id;
+        final byte[] data;
+
+        Frame(long id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Message given to the PGN listener.
+     */
+    private static class Message {
+        final int pgn;
+        final int source;
+        final int destination;
+        final byte[] data;
+
+        Message(int pgn, int source, int destination, byte[] data) {
+            this.pgn = pgn;
+            this.source = source;
+            this.destination = destination;
+            this.data = data;
+        }
+    }
+
+    private Mcp2515 mcp2515;
+    private J1939 j1939;
+    private final List<Frame> sent = new ArrayList<>();
+    private final List<Message> received = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mcp2515 = mock(Mcp2515.class);
+        when(mcp2515.send(anyLong(), anyBoolean(), anyBoolean(), any(byte[].class), anyInt()))
+                .thenAnswer(invocation -> {
+                    Object[] args = invocation.getArguments();
+                    byte[] data = Arrays.copyOf((byte[]) args[3], (Integer) args[4]);
+                    synchronized (sent) {
+                        sent.add(new Frame((Long) args[0], data));
+                    }
+                    return true;
+                });
+        j1939 = create(4, 16);
+    }
+
+    @After
+    public void tearDown() {
+        j1939.close();
+    }
+
+    private J1939 create(int sessions, int window) throws IOException {
+        J1939 j1939 = new J1939(mcp2515, ADDRESS, NAME, sessions, window);
+        j1939.setDefaultListener((pgn, priority, source, destination, data, length) ->
+                received.add(new Message(pgn, source, destination,
+                        Arrays.copyOf(data, length))));
+        return j1939;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            data[i] = (byte) values[i];
+        return data;
+    }
+
+    private void receive(int priority, int pgn, int source, int destination, byte[] data) {
+        j1939.onReceived(new CanMessage(J1939.makeId(priority, pgn, source, destination),
+                true, false, ByteBuffer.wrap(data)));
+    }
+
+    private void receiveConnection(int destination, int control, int size, int packets,
+                                   int maxWindow) {
+        receive(J1939.PRIORITY_TP, J1939.PGN_TP_CM, PEER, destination,
+                bytes(control, size & 0xFF, size >> 8, packets, maxWindow,
+                        PGN & 0xFF, (PGN >> 8) & 0xFF, PGN >> 16));
+    }
+
+    private void receiveData(int destination, int sequence, byte[] message) {
+        byte[] data = new byte[8];
+        Arrays.fill(data, (byte) 0xFF);
+        data[0] = (byte) sequence;
+        int offset = (sequence - 1) * 7;
+        System.arraycopy(message, offset, data, 1, Math.min(7, message.length - offset));
+        receive(J1939.PRIORITY_TP, J1939.PGN_TP_DT, PEER, destination, data);
+    }
+
+    private static byte[] message(int size) {
+        byte[] message = new byte[size];
+        for (int i = 0; i < size; i++)
+            message[i] = (byte) (i * 3 + 1);
+        return message;
+    }
+
+    private void assertConnectionReply(Frame frame, int control, int b1, int b2, int b3) {
+        assertEquals(J1939.makeId(J1939.PRIORITY_TP, J1939.PGN_TP_CM, ADDRESS, PEER), frame.id);
+        assertArrayEquals(bytes(control, b1, b2, b3, 0xFF,
+                PGN & 0xFF, (PGN >> 8) & 0xFF, PGN >> 16), frame.data);
+    }
+
+    private void assertAbort(Frame frame, int reason) {
+        assertConnectionReply(frame, 255, reason, 0xFF, 0xFF);
+    }
+
+    @Test
+    public void decodesPdu1Identifier() {
+        long id = 0x18EA20F1L;
+        assertEquals(6, J1939.getPriority(id));
+        assertEquals(J1939.PGN_REQUEST, J1939.getPgn(id));
+        assertEquals(0xF1, J1939.getSourceAddress(id));
+        assertEquals(0x20, J1939.getDestinationAddress(id));
+        assertTrue(J1939.isPdu1(J1939.PGN_REQUEST));
+        assertEquals(id, J1939.makeId(6, J1939.PGN_REQUEST, 0xF1, 0x20));
+    }
+
+    @Test
+    public void decodesPdu2Identifier() {
+        long id = 0x0CFECA03L;
+        assertEquals(3, J1939.getPriority(id));
+        assertEquals(PGN, J1939.getPgn(id));
+        assertEquals(0x03, J1939.getSourceAddress(id));
+        assertEquals(J1939.ADDRESS_GLOBAL, J1939.getDestinationAddress(id));
+        assertFalse(J1939.isPdu1(PGN));
+        // the destination has no field in PDU2 format.
+        assertEquals(id, J1939.makeId(3, PGN, 0x03, 0x20));
+    }
+
+    @Test
+    public void opensControllerToExtendedFrames() throws IOException {
+        verify(mcp2515).acceptExtendedFrames();
+        verify(mcp2515).setListener(j1939);
+    }
+
+    @Test
+    public void dispatchesSingleFrameByPgn() {
+        List<Integer> own = new ArrayList<>();
+        j1939.setPgnListener(0xEF00, (pgn, priority, source, destination, data, length) ->
+                own.add(priority));
+        receive(6, PGN, PEER, J1939.ADDRESS_GLOBAL, bytes(1, 2, 3));
+        receive(3, 0xEF00, PEER, ADDRESS, bytes(4));
+        // destination specific message for another node.
+        receive(3, 0xEF00, PEER, 0x42, bytes(5));
+
+        assertEquals(1, received.size());
+        assertEquals(PGN, received.get(0).pgn);
+        assertEquals(J1939.ADDRESS_GLOBAL, received.get(0).destination);
+        assertArrayEquals(bytes(1, 2, 3), received.get(0).data);
+        assertEquals(Arrays.asList(3), own);
+    }
+
+    @Test
+    public void ignoresStandardAndRemoteFrames() {
+        j1939.onReceived(new CanMessage(0x123, false, false, ByteBuffer.wrap(bytes(1))));
+        j1939.onReceived(new CanMessage(J1939.makeId(6, PGN, PEER, 0), true, true,
+                ByteBuffer.allocate(0)));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void reassemblesBam() {
+        byte[] message = message(20);
+        receiveConnection(J1939.ADDRESS_GLOBAL, 32, 20, 3, 0xFF);
+        for (int sequence = 1; sequence <= 3; sequence++)
+            receiveData(J1939.ADDRESS_GLOBAL, sequence, message);
+
+        assertEquals(1, received.size());
+        assertEquals(PGN, received.get(0).pgn);
+        assertEquals(PEER, received.get(0).source);
+        assertArrayEquals(message, received.get(0).data);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void dropsBamAfterT1() {
+        byte[] message = message(20);
+        receiveConnection(J1939.ADDRESS_GLOBAL, 32, 20, 3, 0xFF);
+        receiveData(J1939.ADDRESS_GLOBAL, 1, message);
+        SystemClock.advance(751);
+        receiveData(J1939.ADDRESS_GLOBAL, 2, message);
+        receiveData(J1939.ADDRESS_GLOBAL, 3, message);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void dropsBamWithLostPacket() {
+        byte[] message = message(20);
+        receiveConnection(J1939.ADDRESS_GLOBAL, 32, 20, 3, 0xFF);
+        receiveData(J1939.ADDRESS_GLOBAL, 1, message);
+        receiveData(J1939.ADDRESS_GLOBAL, 3, message);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void reassemblesRtsCts() {
+        byte[] message = message(20);
+        receiveConnection(ADDRESS, 16, 20, 3, 0xFF);
+        assertEquals(1, sent.size());
+        assertConnectionReply(sent.get(0), 17, 3, 1, 0xFF);
+
+        for (int sequence = 1; sequence <= 3; sequence++)
+            receiveData(ADDRESS, sequence, message);
+        assertEquals(2, sent.size());
+        assertConnectionReply(sent.get(1), 19, 20, 0, 3);
+        assertEquals(1, received.size());
+        assertEquals(ADDRESS, received.get(0).destination);
+        assertArrayEquals(message, received.get(0).data);
+    }
+
+    @Test
+    public void sendsCtsForEachWindow() throws IOException {
+        j1939.close();
+        j1939 = create(4, 2);
+        byte[] message = message(33);
+        receiveConnection(ADDRESS, 16, 33, 5, 0xFF);
+        for (int sequence = 1; sequence <= 5; sequence++)
+            receiveData(ADDRESS, sequence, message);
+
+        assertEquals(4, sent.size());
+        assertConnectionReply(sent.get(0), 17, 2, 1, 0xFF);
+        assertConnectionReply(sent.get(1), 17, 2, 3, 0xFF);
+        assertConnectionReply(sent.get(2), 17, 1, 5, 0xFF);
+        assertConnectionReply(sent.get(3), 19, 33, 0, 5);
+        assertArrayEquals(message, received.get(0).data);
+    }
+
+    @Test
+    public void takesWindowOfSender() {
+        receiveConnection(ADDRESS, 16, 100, 15, 4);
+        assertConnectionReply(sent.get(0), 17, 4, 1, 0xFF);
+    }
+
+    @Test
+    public void asksAgainForLostPacket() {
+        byte[] message = message(28);
+        receiveConnection(ADDRESS, 16, 28, 4, 0xFF);
+        receiveData(ADDRESS, 1, message);
+        receiveData(ADDRESS, 2, message);
+        receiveData(ADDRESS, 4, message);
+        assertEquals(2, sent.size());
+        assertConnectionReply(sent.get(1), 17, 2, 3, 0xFF);
+
+        receiveData(ADDRESS, 3, message);
+        receiveData(ADDRESS, 4, message);
+        assertConnectionReply(sent.get(2), 19, 28, 0, 4);
+        assertArrayEquals(message, received.get(0).data);
+    }
+
+    @Test
+    public void abortsAfterT2WithoutData() {
+        receiveConnection(ADDRESS, 16, 20, 3, 0xFF);
+        SystemClock.advance(1251);
+        receiveData(ADDRESS, 1, message(20));
+        assertEquals(2, sent.size());
+        assertAbort(sent.get(1), 3);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void abortsAfterT1BetweenPackets() {
+        byte[] message = message(20);
+        receiveConnection(ADDRESS, 16, 20, 3, 0xFF);
+        receiveData(ADDRESS, 1, message);
+        // T2 is still running, T1 is over.
+        SystemClock.advance(751);
+        receiveData(ADDRESS, 2, message);
+        assertEquals(2, sent.size());
+        assertAbort(sent.get(1), 3);
+
+        receiveData(ADDRESS, 3, message);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void abortsMalformedRts() {
+        receiveConnection(ADDRESS, 16, 20, 4, 0xFF);
+        receiveConnection(ADDRESS, 16, 8, 2, 0xFF);
+        receiveConnection(ADDRESS, 16, 1786, 0xFF, 0xFF);
+        assertEquals(3, sent.size());
+        assertAbort(sent.get(0), 2);
+        assertAbort(sent.get(1), 2);
+        assertAbort(sent.get(2), 9);
+    }
+
+    @Test
+    public void abortsRtsWithoutFreeSession() throws IOException {
+        j1939.close();
+        j1939 = create(1, 16);
+        receive(J1939.PRIORITY_TP, J1939.PGN_TP_CM, 0x20, ADDRESS,
+                bytes(16, 20, 0, 3, 0xFF, PGN & 0xFF, (PGN >> 8) & 0xFF, PGN >> 16));
+        receiveConnection(ADDRESS, 16, 20, 3, 0xFF);
+        assertEquals(2, sent.size());
+        assertAbort(sent.get(1), 1);
+    }
+
+    @Test
+    public void claimsAddress() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        int[] claimed = new int[1];
+        j1939.setAddressListener(address -> {
+            claimed[0] = address;
+            latch.countDown();
+        });
+        j1939.claimAddress();
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(ADDRESS, claimed[0]);
+        assertTrue(j1939.isAddressClaimed());
+
+        synchronized (sent) {
+            assertEquals(1, sent.size());
+            assertEquals(J1939.makeId(6, J1939.PGN_ADDRESS_CLAIMED, ADDRESS,
+                    J1939.ADDRESS_GLOBAL), sent.get(0).id);
+            assertArrayEquals(bytes(0xEF, 0xCD, 0xAB, 0x89, 0x67, 0x45, 0x23, 0x01),
+                    sent.get(0).data);
+        }
+    }
+
+    @Test
+    public void losesAddressToLowerName() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        j1939.setAddressListener(address -> latch.countDown());
+        receive(6, J1939.PGN_ADDRESS_CLAIMED, ADDRESS, J1939.ADDRESS_GLOBAL,
+                bytes(0, 0, 0, 0, 0, 0, 0, 0));
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(J1939.ADDRESS_NULL, j1939.getAddress());
+        assertFalse(j1939.isAddressClaimed());
+        synchronized (sent) {
+            assertEquals(J1939.makeId(6, J1939.PGN_ADDRESS_CLAIMED, J1939.ADDRESS_NULL,
+                    J1939.ADDRESS_GLOBAL), sent.get(0).id);
+        }
+    }
+
+    @Test
+    public void defendsAddressAgainstHigherName() throws InterruptedException {
+        receive(6, J1939.PGN_ADDRESS_CLAIMED, ADDRESS, J1939.ADDRESS_GLOBAL,
+                bytes(0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+        Frame frame = awaitSent();
+        assertEquals(ADDRESS, j1939.getAddress());
+        assertEquals(J1939.makeId(6, J1939.PGN_ADDRESS_CLAIMED, ADDRESS,
+                J1939.ADDRESS_GLOBAL), frame.id);
+    }
+
+    @Test
+    public void answersRequestForAddressClaimed() throws InterruptedException {
+        receive(6, J1939.PGN_REQUEST, PEER, J1939.ADDRESS_GLOBAL,
+                bytes(0x00, 0xEE, 0x00));
+        Frame frame = awaitSent();
+        assertEquals(J1939.makeId(6, J1939.PGN_ADDRESS_CLAIMED, ADDRESS,
+                J1939.ADDRESS_GLOBAL), frame.id);
+        assertTrue(received.isEmpty());
+    }
+
+    private Frame awaitSent() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (sent) {
+                if (!sent.isEmpty())
+                    return sent.get(0);
+            }
+            Thread.sleep(5);
+        }
+        fail("nothing sent");
+        return null;
+    }
+}
@@ -3,11 +3,21 @@ package com.hardkernel.odroid.things.contrib.Mcp2515;
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.SpiDevice;
 
+import org.junit.Before;
 import org.junit.Test;
 
 import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 
 public class Mcp2515Test {
     @Mock
@@ -16,8 +26,259 @@ public class Mcp2515Test {
     @Mock
     Gpio gpio;
 
+    // Register map of the controller behind the mocked SPI device.
+    private final byte[] registers = new byte[0x80];
+    // Every SPI write, in order.
+    private final List<byte[]> writes = new ArrayList<>();
+    private final List<CanMessage> received = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            write(Arrays.copyOf((byte[]) args[0], (Integer) args[1]));
+            return null;
+        }).when(spi).write(any(byte[].class), anyInt());
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            transfer((byte[]) args[0], (byte[]) args[1], (Integer) args[2]);
+            return null;
+        }).when(spi).transfer(any(byte[].class), any(byte[].class), anyInt());
+    }
+
+    private void write(byte[] data) {
+        writes.add(data);
+        int command = data[0] & 0xFF;
+        if (command == (Commands.WRITE & 0xFF)) {
+            registers[data[1]] = data[2];
+        } else if (command == Commands.BIT_MODIFY) {
+            registers[data[1]] = (byte) ((registers[data[1]] & ~data[2]) | (data[3] & data[2]));
+        } else if ((command & 0xF9) == (Commands.LOAD_TX_0_ID & 0xFF)) {
+            int sidh = Registers.TXB0SIDH + 0x10 * ((command >> 1) & 0x03);
+            System.arraycopy(data, 1, registers, sidh, data.length - 1);
+        } else if ((command & 0xF8) == (Commands.RTS & 0xFF)) {
+            for (int tx = 0; tx < 3; tx++) {
+                if ((command & (1 << tx)) != 0)
+                    registers[Registers.TXB0CTRL + 0x10 * tx] |= Flags.TXBCTRL_TXREQ;
+            }
+        }
+    }
+
+    private void transfer(byte[] tx, byte[] rx, int length) {
+        int command = tx[0] & 0xFF;
+        if (command == Commands.READ) {
+            rx[2] = registers[tx[1]];
+        } else if (command == (Commands.READ_STATUS & 0xFF)) {
+            int status = 0;
+            for (int i = 0; i < 3; i++) {
+                if ((registers[Registers.TXB0CTRL + 0x10 * i] & Flags.TXBCTRL_TXREQ) != 0)
+                    status |= Flags.STATUS_MES_TRANSMIT_REQ_0 << (2 * i);
+            }
+            rx[1] = (byte) status;
+        } else if ((command & 0xF9) == (Commands.READ_RX_0_ID & 0xFF)) {
+            int sidh = Registers.RXB0SIDH + 0x10 * ((command >> 2) & 0x01);
+            System.arraycopy(registers, sidh, rx, 1, length - 1);
+        } else {
+            fail("Unexpected SPI transfer " + command);
+        }
+    }
+
+    private Mcp2515 create() throws IOException {
+        Mcp2515 mcp2515 = new Mcp2515(spi, gpio);
+        mcp2515.setListener(received::add);
+        writes.clear();
+        return mcp2515;
+    }
+
+    /**
+     * Puts a frame on a receive buffer and raises its interrupt flag.
+     */
+    private void receive(int buffer, long id, boolean isExtended, boolean isRtr, byte[] data) {
+        int sidh = Registers.RXB0SIDH + 0x10 * buffer;
+        Mcp2515.encodeId(registers, sidh, id, isExtended);
+        if (isRtr && !isExtended)
+            registers[sidh + 1] |= 0x10;
+        registers[sidh + 4] = (byte) (data.length | (isRtr && isExtended ? Flags.DLC_RTR : 0));
+        System.arraycopy(data, 0, registers, sidh + 5, data.length);
+        registers[Registers.CANINTF] |= (byte) (1 << buffer);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            data[i] = (byte) values[i];
+        return data;
+    }
+
     @Test
     public void correctInit() throws IOException, IllegalAccessException, InterruptedException {
         Mcp2515 mcp2515 = new Mcp2515(spi, gpio);
     }
+
+    @Test
+    public void encodesStandardId() {
+        byte[] buffer = new byte[4];
+        Mcp2515.encodeId(buffer, 0, 0x123, false);
+        // SID10..3, SID2..0 in the top bits of SIDL.
+        assertArrayEquals(bytes(0x24, 0x60, 0x00, 0x00), buffer);
+    }
+
+    @Test
+    public void encodesExtendedId() {
+        byte[] buffer = new byte[4];
+        Mcp2515.encodeId(buffer, 0, 0x18FECA03L, true);
+        // SID10..3, SID2..0 | EXIDE | EID17..16, EID15..8, EID7..0.
+        assertArrayEquals(bytes(0xC7, 0xEA, 0xCA, 0x03), buffer);
+    }
+
+    @Test
+    public void sendsStandardFrame() throws IOException {
+        Mcp2515 mcp2515 = create();
+        assertTrue(mcp2515.send(0x123, false, false, bytes(1, 2), 2));
+        assertEquals(2, writes.size());
+        assertArrayEquals(bytes(0x40, 0x24, 0x60, 0x00, 0x00, 0x02, 1, 2), writes.get(0));
+        assertArrayEquals(bytes(0x81), writes.get(1));
+    }
+
+    @Test
+    public void sendsExtendedRemoteRequest() throws IOException {
+        Mcp2515 mcp2515 = create();
+        assertTrue(mcp2515.send(0x18FECA03L, true, true, new byte[0], 0));
+        assertArrayEquals(bytes(0x40, 0xC7, 0xEA, 0xCA, 0x03, 0x40), writes.get(0));
+    }
+
+    @Test
+    public void sendsOnNextFreeBuffer() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.send(0x100, false, false, new byte[0], 0);
+        mcp2515.send(0x101, false, false, new byte[0], 0);
+        mcp2515.send(0x102, false, false, new byte[0], 0);
+        assertFalse(mcp2515.send(0x103, false, false, new byte[0], 0));
+        assertEquals((byte) 0x42, writes.get(2)[0]);
+        assertArrayEquals(bytes(0x82), writes.get(3));
+        assertEquals((byte) 0x44, writes.get(4)[0]);
+        assertArrayEquals(bytes(0x84), writes.get(5));
+    }
+
+    @Test
+    public void decodesReceivedIds() throws IOException {
+        Mcp2515 mcp2515 = create();
+        receive(0, 0x18FECA03L, true, false, bytes(9, 8, 7));
+        receive(1, 0x7FF, false, false, bytes(6));
+        mcp2515.processInterrupt();
+
+        assertEquals(2, received.size());
+        CanMessage extended = received.get(0);
+        assertEquals(0x18FECA03L, extended.getId());
+        assertTrue(extended.isExtended());
+        assertFalse(extended.isRemoteTransmitRequest());
+        assertArrayEquals(bytes(9, 8, 7), extended.getData().array());
+        CanMessage standard = received.get(1);
+        assertEquals(0x7FF, standard.getId());
+        assertFalse(standard.isExtended());
+        assertEquals(0, registers[Registers.CANINTF]);
+    }
+
+    @Test
+    public void decodesEveryExtendedIdBit() throws IOException {
+        Mcp2515 mcp2515 = create();
+        for (int bit = 0; bit < 29; bit++) {
+            receive(0, 1L << bit, true, false, new byte[0]);
+            mcp2515.processInterrupt();
+            assertEquals(1L << bit, received.get(bit).getId());
+        }
+    }
+
+    @Test
+    public void decodesRemoteRequests() throws IOException {
+        Mcp2515 mcp2515 = create();
+        receive(0, 0x123, false, true, new byte[0]);
+        receive(1, 0x1234567L, true, true, new byte[0]);
+        mcp2515.processInterrupt();
+        assertTrue(received.get(0).isRemoteTransmitRequest());
+        assertTrue(received.get(1).isRemoteTransmitRequest());
+        assertEquals(0x1234567L, received.get(1).getId());
+    }
+
+    @Test
+    public void preloadsRemoteResponse() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.setRemoteResponse(0x123, false, bytes(5, 6), 2, true);
+        assertEquals(2, writes.size());
+        assertArrayEquals(bytes(Commands.BIT_MODIFY, Registers.TXB2CTRL,
+                Flags.TXBCTRL_TXREQ, 0x00), writes.get(0));
+        assertArrayEquals(bytes(0x44, 0x24, 0x60, 0x00, 0x00, 0x02, 5, 6), writes.get(1));
+
+        writes.clear();
+        receive(0, 0x123, false, true, new byte[0]);
+        mcp2515.processInterrupt();
+        // a single RTS on the preloaded buffer, no load.
+        byte[] rts = bytes(0x84);
+        assertEquals(1, writes.stream().filter(w -> Arrays.equals(w, rts)).count());
+        assertEquals(0, writes.stream().filter(w -> (w[0] & 0xF9) == 0x40).count());
+        assertTrue(received.isEmpty());
+        assertEquals(1, mcp2515.getRemoteResponseCount());
+    }
+
+    @Test
+    public void remoteResponseWithoutPreloadUsesFreeBuffer() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.setRemoteResponse(0x18FECA03L, true, bytes(1), 1, false);
+        assertTrue(writes.isEmpty());
+
+        receive(1, 0x18FECA03L, true, true, new byte[0]);
+        mcp2515.processInterrupt();
+        assertTrue(writes.stream().anyMatch(
+                w -> Arrays.equals(w, bytes(0x40, 0xC7, 0xEA, 0xCA, 0x03, 0x01, 1))));
+        assertTrue(writes.stream().anyMatch(w -> Arrays.equals(w, bytes(0x81))));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void remoteRequestOfOtherIdGoesToListener() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.setRemoteResponse(0x123, false, bytes(1), 1, true);
+        receive(0, 0x124, false, true, new byte[0]);
+        // same number as an extended identifier.
+        receive(1, 0x123, true, true, new byte[0]);
+        mcp2515.processInterrupt();
+        assertEquals(2, received.size());
+        assertEquals(0, mcp2515.getRemoteResponseCount());
+    }
+
+    @Test
+    public void remoteRequestWithoutFreeBufferGoesToListener() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.setRemoteResponse(0x123, false, bytes(1), 1, false);
+        for (int i = 0; i < 3; i++)
+            registers[Registers.TXB0CTRL + 0x10 * i] |= Flags.TXBCTRL_TXREQ;
+        receive(0, 0x123, false, true, new byte[0]);
+        mcp2515.processInterrupt();
+        assertEquals(1, received.size());
+        assertEquals(1, mcp2515.getRemoteResponseFailures());
+        assertEquals(0, mcp2515.getRemoteResponseCount());
+    }
+
+    @Test
+    public void sendSkipsPreloadedBuffers() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.setRemoteResponse(0x200, false, new byte[0], 0, true);
+        mcp2515.setRemoteResponse(0x201, false, new byte[0], 0, true);
+        writes.clear();
+        assertTrue(mcp2515.send(0x100, false, false, new byte[0], 0));
+        assertFalse(mcp2515.send(0x101, false, false, new byte[0], 0));
+
+        mcp2515.removeRemoteResponse(0x201, false);
+        assertTrue(mcp2515.send(0x101, false, false, new byte[0], 0));
+        assertArrayEquals(bytes(0x82), writes.get(writes.size() - 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void preloadFailsWithoutBufferLeft() throws IOException {
+        Mcp2515 mcp2515 = create();
+        mcp2515.setRemoteResponse(0x200, false, new byte[0], 0, true);
+        mcp2515.setRemoteResponse(0x201, false, new byte[0], 0, true);
+        mcp2515.setRemoteResponse(0x202, false, new byte[0], 0, true);
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays an animation file written by {@link AnimationWriter} on a display.
+ * The file is memory-mapped and each frame delta is copied from it into the display buffer,
+ * so only the changed columns are sent and no decoded frame is kept on the heap.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AnimationPlayer implements Closeable {
+    private static final String TAG = "AnimationPlayer";
+
+    private final Ssd1306 mDisplay;
+    private final PageCanvas mCanvas;
+    private final MappedByteBuffer mData;
+
+    private final int mFrameCount;
+    private final int mIndexOffset;
+    private volatile int mFrameRate;
+    // Next frame to apply. mFrameCount stands for the delta back to the first frame.
+    private int mFrame;
+
+    private final Object mLock = new Object();
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * Opens an animation file for the display.
+     * @param display The display to play on. Its size must match the animation.
+     * @param file The animation file.
+     * @throws IOException when the file can not be read or is not an animation file.
+     */
+    public AnimationPlayer(Ssd1306 display, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed.
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mData.capacity() < AnimationWriter.HEADER_SIZE
+                || mData.getInt(0) != AnimationWriter.MAGIC) {
+            throw new IOException("Not an animation file");
+        }
+        if (mData.getShort(4) != AnimationWriter.VERSION) {
+            throw new IOException("Unsupported animation version " + mData.getShort(4));
+        }
+        int width = mData.getShort(6) & 0xFFFF;
+        int height = mData.getShort(8) & 0xFFFF;
+        mFrameRate = mData.getShort(10) & 0xFFFF;
+        mFrameCount = mData.getInt(12);
+        mIndexOffset = mData.getInt(16);
+        if (mFrameCount <= 0
+                || mIndexOffset + 4L * (mFrameCount + 1) > mData.capacity()) {
+            throw new IOException("Animation file truncated");
+        }
+
+        mDisplay = display;
+        mCanvas = display.getCanvas();
+        if (width != mCanvas.getWidth() || height != mCanvas.getHeight()) {
+            throw new IllegalArgumentException("Animation size " + width + "x" + height
+                    + " does not match the display");
+        }
+    }
+
+    /**
+     * @return the number of frames of the animation
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return the frames per second the animation plays at
+     */
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Overrides the frame rate stored in the file.
+     * @param frameRate The frames per second.
+     */
+    public void setFrameRate(int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("Invalid frame rate " + frameRate);
+        }
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * @return true while the playback thread runs
+     */
+    public boolean isPlaying() {
+        synchronized (mLock) {
+            return mThread != null && mThread.isAlive();
+        }
+    }
+
+    /**
+     * Clears the display buffer and goes back to the first frame.
+     * Must not be called while playing.
+     */
+    public void rewind() {
+        mCanvas.fill(false);
+        mFrame = 0;
+    }
+
+    /**
+     * Applies the next frame delta to the display buffer without showing it.
+     * The first call after {@link #rewind()} draws the first frame on a blank buffer.
+     * Must not be called while playing.
+     * @param loop Set to true to go on with the first frame after the last one.
+     * @return false when the last frame was reached and loop is false.
+     * @throws IOException when the frame data is corrupt.
+     */
+    public boolean nextFrame(boolean loop) throws IOException {
+        if (mFrame == mFrameCount) {
+            if (!loop) {
+                return false;
+            }
+            if (mFrameCount == 1) {
+                // The only frame is already shown.
+                return true;
+            }
+            applyDelta(mFrameCount);
+            mFrame = 1;
+            return true;
+        }
+        applyDelta(mFrame);
+        mFrame++;
+        return true;
+    }
+
+    /**
+     * Starts playing from the first frame on a dedicated thread at the frame rate.
+     * Frames falling behind the schedule are merged into the next {@link Ssd1306#show()}.
+     * @param loop Set to true to play the animation repeatedly until {@link #stop()}.
+     */
+    public void start(boolean loop) {
+        synchronized (mLock) {
+            if (mThread != null) {
+                stop();
+            }
+            rewind();
+            mRunning = true;
+            mThread = new Thread(() -> run(loop), TAG);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stops playing and waits for the playback thread to end. The last shown frame stays
+     * on the display.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            if (thread == null) {
+                return;
+            }
+            mRunning = false;
+            thread.interrupt();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mLock) {
+            if (mThread == thread) {
+                mThread = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void run(boolean loop) {
+        long next = System.nanoTime();
+        try {
+            while (mRunning) {
+                if (!nextFrame(loop)) {
+                    return;
+                }
+                long interval = 1000000000L / mFrameRate;
+                next += interval;
+                // Behind the schedule, the due frames go out with this one.
+                long now = System.nanoTime();
+                while (now - next >= interval && mRunning) {
+                    if (!nextFrame(loop)) {
+                        break;
+                    }
+                    next += interval;
+                }
+                mDisplay.show();
+
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unable to play animation", e);
+        }
+    }
+
+    /**
+     * Copies the column runs of a frame delta into the display buffer and marks them dirty.
+     */
+    private void applyDelta(int frame) throws IOException {
+        byte[] buffer = mCanvas.getBuffer();
+        int offset = mCanvas.getOffset();
+        int width = mCanvas.getWidth();
+        int pages = mCanvas.getHeight() / 8;
+        try {
+            int position = mData.getInt(mIndexOffset + frame * 4);
+            mData.position(position);
+            int runs = mData.getShort() & 0xFFFF;
+            for (int i = 0; i < runs; i++) {
+                int page = mData.get() & 0xFF;
+                int x = mData.get() & 0xFF;
+                int length = mData.get() & 0xFF;
+                if (page >= pages || x + length > width) {
+                    throw new IOException("Bad run in frame " + frame);
+                }
+                mData.get(buffer, offset + page * width + x, length);
+                mCanvas.markDirty(x, x + length - 1, page, page);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Animation frame " + frame + " truncated", e);
+        }
+    }
+}
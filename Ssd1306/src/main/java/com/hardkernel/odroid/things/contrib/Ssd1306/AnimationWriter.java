@@ -0,0 +1,243 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Compiles a sequence of frames into an animation file for {@link AnimationPlayer}.
+ * Only the changed column runs of each page are stored, so the player streams deltas
+ * straight from the file.
+ *
+ * File layout, big endian:
+ * <pre>
+ * header  magic "SSDA", u16 version, u16 width, u16 height, u16 frame rate,
+ *         u32 frame count, u32 index offset
+ * frame   u16 run count, then for each run: u8 page, u8 column, u8 length, length bytes
+ * index   u32 offset of each frame, then of the delta from the last frame back to the first
+ * </pre>
+ * The first frame is stored as a delta from a blank screen.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AnimationWriter implements Closeable {
+    /*package*/ static final int MAGIC = 0x53534441;
+    /*package*/ static final int VERSION = 1;
+    /*package*/ static final int HEADER_SIZE = 20;
+
+    private static final int RUN_HEADER = 3;
+    private static final int MAX_RUN = 255;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameRate;
+
+    private RandomAccessFile mFile;
+    private DataOutputStream mOut;
+
+    private final byte[] mFirst;
+    private final byte[] mPrevious;
+    private final byte[] mFrame;
+    private int[] mOffsets = new int[64];
+    private int mFrameCount;
+
+    /**
+     * Creates an animation file, replacing the existing one.
+     * @param file The file to write.
+     * @param width The display width in pixels, up to 256.
+     * @param height The display height in pixels, a multiple of 8.
+     * @param frameRate The frames per second to play the animation at.
+     * @throws IOException
+     */
+    public AnimationWriter(File file, int width, int height, int frameRate) throws IOException {
+        if (width <= 0 || width > 256 || height <= 0 || height % 8 != 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("Invalid frame rate " + frameRate);
+        }
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+        mFirst = new byte[width * height / 8];
+        mPrevious = new byte[mFirst.length];
+        mFrame = new byte[mFirst.length];
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mOut = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(mFile.getChannel())));
+        // Header is written again by close() once the frame count is known.
+        writeHeader(mOut, 0, 0);
+    }
+
+    /**
+     * @return the number of frames added so far
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Adds a frame in page format, width bytes for each 8 pixel rows.
+     * @param pages The frame data.
+     * @param offset The offset of the frame data in pages.
+     * @throws IOException
+     */
+    public void addFrame(byte[] pages, int offset) throws IOException {
+        if (mOut == null) {
+            throw new IllegalStateException("Animation file closed");
+        }
+        if (pages.length - offset < mFrame.length) {
+            throw new IllegalArgumentException("Frame too short: " + (pages.length - offset));
+        }
+        if (mFrameCount == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mFrameCount * 2);
+        }
+        mOffsets[mFrameCount] = mOut.size();
+        writeDelta(mPrevious, pages, offset);
+        System.arraycopy(pages, offset, mPrevious, 0, mPrevious.length);
+        if (mFrameCount == 0) {
+            System.arraycopy(pages, offset, mFirst, 0, mFirst.length);
+        }
+        mFrameCount++;
+    }
+
+    /**
+     * Adds the content of a canvas of the animation size as a frame.
+     * @throws IOException
+     */
+    public void addFrame(PageCanvas canvas) throws IOException {
+        if (canvas.getWidth() != mWidth || canvas.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Canvas size does not match the animation");
+        }
+        addFrame(canvas.getBuffer(), canvas.getOffset());
+    }
+
+    /**
+     * Converts a bitmap of the animation size and adds it as a frame.
+     * @param bmp The frame image.
+     * @param drawWhite Set to true to draw white pixels, false to draw pixels based on gradient.
+     * @throws IOException
+     */
+    public void addFrame(Bitmap bmp, boolean drawWhite) throws IOException {
+        if (bmp.getWidth() != mWidth || bmp.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Bitmap size does not match the animation");
+        }
+        Arrays.fill(mFrame, (byte) 0);
+        BitmapHelper.bmpToBytes(mFrame, 0, bmp, drawWhite);
+        addFrame(mFrame, 0);
+    }
+
+    /**
+     * Writes the loop delta, the frame index and the header, and closes the file.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            if (mFrameCount == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mFrameCount + 1);
+            }
+            mOffsets[mFrameCount] = mOut.size();
+            writeDelta(mPrevious, mFirst, 0);
+
+            int indexOffset = mOut.size();
+            for (int i = 0; i <= mFrameCount; i++) {
+                mOut.writeInt(mOffsets[i]);
+            }
+            mOut.flush();
+
+            mFile.seek(0);
+            DataOutputStream header = new DataOutputStream(
+                    Channels.newOutputStream(mFile.getChannel()));
+            writeHeader(header, mFrameCount, indexOffset);
+            header.flush();
+        } finally {
+            mOut = null;
+            try {
+                mFile.close();
+            } finally {
+                mFile = null;
+            }
+        }
+    }
+
+    private void writeHeader(DataOutputStream out, int frameCount, int indexOffset)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(mWidth);
+        out.writeShort(mHeight);
+        out.writeShort(mFrameRate);
+        out.writeInt(frameCount);
+        out.writeInt(indexOffset);
+    }
+
+    /**
+     * Writes the changed column runs between two frames. Runs closer than a run header
+     * are merged, the unchanged bytes cost less than another run.
+     */
+    private void writeDelta(byte[] from, byte[] to, int offset) throws IOException {
+        int pages = mHeight / 8;
+        int runs = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                mOut.writeShort(runs);
+            }
+            for (int page = 0; page < pages; page++) {
+                int base = page * mWidth;
+                int x = 0;
+                while (x < mWidth) {
+                    if (from[base + x] == to[offset + base + x]) {
+                        x++;
+                        continue;
+                    }
+                    int start = x;
+                    int end = x;
+                    for (x++; x < mWidth && x - start < MAX_RUN; x++) {
+                        if (from[base + x] != to[offset + base + x]) {
+                            end = x;
+                        } else if (x - end > RUN_HEADER) {
+                            break;
+                        }
+                    }
+                    if (pass == 0) {
+                        runs++;
+                    } else {
+                        mOut.writeByte(page);
+                        mOut.writeByte(start);
+                        mOut.writeByte(end - start + 1);
+                        mOut.write(to, offset + base + start, end - start + 1);
+                    }
+                    x = end + 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import android.util.LongSparseArray;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bitmap font kept as a glyph atlas in SSD1306 page layout.
+ * Every glyph is rasterized once at load into a cell of the line height, so drawing text is
+ * shifting and OR-ing glyph columns into a {@link PageCanvas}. Measuring and drawing do not
+ * allocate.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class BitmapFont {
+    private static final int ASCII_SIZE = 128;
+
+    private final int mAscent;
+    private final int mLineHeight;
+    private final int mPages;
+
+    // Glyph table sorted by code point, and the atlas holding glyph columns page by page.
+    private final int[] mCodePoints;
+    private final int[] mOffsets;
+    private final int[] mWidths;
+    private final int[] mAdvances;
+    private final int[] mXOffsets;
+    private final byte[] mAtlas;
+    private final int[] mAscii = new int[ASCII_SIZE];
+    private final int mDefaultGlyph;
+
+    // Keyed by both code points, supplementary ones included.
+    private final LongSparseArray<Integer> mKerning = new LongSparseArray<>();
+    private int mLetterSpacing = 0;
+
+    /**
+     * Glyph read from a font file, before it goes into the atlas.
+     */
+    private static final class Glyph {
+        int codePoint;
+        int width;
+        int advance;
+        int xOffset;
+        byte[] columns;
+    }
+
+    private BitmapFont(int ascent, int lineHeight, List<Glyph> glyphs, int defaultChar) {
+        mAscent = ascent;
+        mLineHeight = lineHeight;
+        mPages = (lineHeight + 7) / 8;
+
+        glyphs.sort((a, b) -> Integer.compare(a.codePoint, b.codePoint));
+        int count = glyphs.size();
+        mCodePoints = new int[count];
+        mOffsets = new int[count];
+        mWidths = new int[count];
+        mAdvances = new int[count];
+        mXOffsets = new int[count];
+
+        int size = 0;
+        for (Glyph glyph : glyphs) {
+            size += glyph.columns.length;
+        }
+        mAtlas = new byte[size];
+
+        Arrays.fill(mAscii, -1);
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = glyphs.get(i);
+            mCodePoints[i] = glyph.codePoint;
+            mOffsets[i] = offset;
+            mWidths[i] = glyph.width;
+            mAdvances[i] = glyph.advance;
+            mXOffsets[i] = glyph.xOffset;
+            System.arraycopy(glyph.columns, 0, mAtlas, offset, glyph.columns.length);
+            offset += glyph.columns.length;
+            if (glyph.codePoint >= 0 && glyph.codePoint < ASCII_SIZE) {
+                mAscii[glyph.codePoint] = i;
+            }
+        }
+
+        int fallback = findGlyph(defaultChar);
+        if (fallback < 0) {
+            fallback = findGlyph('?');
+        }
+        mDefaultGlyph = fallback;
+    }
+
+    /**
+     * Loads a font in the Glyph Bitmap Distribution Format (BDF).
+     * @param in The BDF font stream. It is read to the end but not closed.
+     * @return The loaded font.
+     * @throws IOException when the stream can not be read or is not a BDF font.
+     */
+    public static BitmapFont loadBdf(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.US_ASCII));
+
+        int ascent = -1;
+        int descent = -1;
+        int boxHeight = 0;
+        int boxY = 0;
+        int defaultChar = -1;
+        List<int[]> boxes = new ArrayList<>();
+        List<int[][]> bitmaps = new ArrayList<>();
+        List<int[]> metrics = new ArrayList<>();
+
+        int encoding = -1;
+        int advance = 0;
+        int[] box = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            switch (fields[0]) {
+                case "FONTBOUNDINGBOX":
+                    boxHeight = parse(fields, 2);
+                    boxY = parse(fields, 4);
+                    break;
+                case "FONT_ASCENT":
+                    ascent = parse(fields, 1);
+                    break;
+                case "FONT_DESCENT":
+                    descent = parse(fields, 1);
+                    break;
+                case "DEFAULT_CHAR":
+                    defaultChar = parse(fields, 1);
+                    break;
+                case "ENCODING":
+                    encoding = parse(fields, 1);
+                    break;
+                case "DWIDTH":
+                    advance = parse(fields, 1);
+                    break;
+                case "BBX":
+                    box = new int[]{parse(fields, 1), parse(fields, 2),
+                            parse(fields, 3), parse(fields, 4)};
+                    break;
+                case "BITMAP": {
+                    if (box == null) {
+                        throw new IOException("BITMAP without BBX");
+                    }
+                    int[][] rows = new int[box[1]][];
+                    for (int r = 0; r < box[1]; r++) {
+                        String hex = reader.readLine();
+                        if (hex == null) {
+                            throw new IOException("Unexpected end of BDF font");
+                        }
+                        rows[r] = parseHexRow(hex.trim());
+                    }
+                    if (encoding >= 0) {
+                        boxes.add(box);
+                        bitmaps.add(rows);
+                        metrics.add(new int[]{encoding, advance});
+                    }
+                    encoding = -1;
+                    box = null;
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        if (ascent < 0 || descent < 0) {
+            ascent = boxHeight + boxY;
+            descent = -boxY;
+        }
+        int lineHeight = ascent + descent;
+        if (lineHeight <= 0 || boxes.isEmpty()) {
+            throw new IOException("Not a BDF font");
+        }
+
+        List<Glyph> glyphs = new ArrayList<>(boxes.size());
+        for (int i = 0; i < boxes.size(); i++) {
+            int[] bbx = boxes.get(i);
+            int[][] rows = bitmaps.get(i);
+            Glyph glyph = new Glyph();
+            glyph.codePoint = metrics.get(i)[0];
+            glyph.advance = metrics.get(i)[1];
+            glyph.width = bbx[0];
+            glyph.xOffset = bbx[2];
+            glyph.columns = rasterize(rows, bbx[0], ascent - bbx[3] - bbx[1], lineHeight);
+            glyphs.add(glyph);
+        }
+        return new BitmapFont(ascent, lineHeight, glyphs, defaultChar);
+    }
+
+    /**
+     * Creates a font from glyphs given as rows of bits, the most significant bit on the left
+     * like BDF bitmaps.
+     * @param lineHeight The height of every glyph cell, the rows of each glyph.
+     * @param ascent The pixels from the top of the cell to the baseline.
+     * @param codePoints The code point of each glyph.
+     * @param widths The width of each glyph in pixels, up to 32.
+     * @param rows lineHeight rows of each glyph, one int for each row.
+     * @return The font with the advance of each glyph set to its width plus one.
+     */
+    public static BitmapFont fromRows(int lineHeight, int ascent, int[] codePoints,
+                                      int[] widths, int[][] rows) {
+        List<Glyph> glyphs = new ArrayList<>(codePoints.length);
+        for (int i = 0; i < codePoints.length; i++) {
+            int width = widths[i];
+            int shift = 32 - width;
+            int[][] bytes = new int[lineHeight][];
+            for (int r = 0; r < lineHeight; r++) {
+                int bits = rows[i][r] << shift;
+                bytes[r] = new int[]{(bits >>> 24) & 0xFF, (bits >>> 16) & 0xFF,
+                        (bits >>> 8) & 0xFF, bits & 0xFF};
+            }
+            Glyph glyph = new Glyph();
+            glyph.codePoint = codePoints[i];
+            glyph.width = width;
+            glyph.advance = width + 1;
+            glyph.columns = rasterize(bytes, width, 0, lineHeight);
+            glyphs.add(glyph);
+        }
+        return new BitmapFont(ascent, lineHeight, glyphs, -1);
+    }
+
+    /**
+     * Rasterizes rows of MSB-first bits into page-format columns of a line height cell.
+     */
+    private static byte[] rasterize(int[][] rows, int width, int top, int lineHeight) {
+        int pages = (lineHeight + 7) / 8;
+        byte[] columns = new byte[width * pages];
+        for (int r = 0; r < rows.length; r++) {
+            int y = top + r;
+            if (y < 0 || y >= lineHeight) {
+                continue;
+            }
+            int index = (y >> 3) * width;
+            byte bit = (byte) (1 << (y & 7));
+            for (int x = 0; x < width; x++) {
+                int b = x >> 3;
+                if (b < rows[r].length && (rows[r][b] & (0x80 >> (x & 7))) != 0) {
+                    columns[index + x] |= bit;
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static int[] parseHexRow(String hex) throws IOException {
+        int[] bytes = new int[hex.length() / 2];
+        try {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad BDF bitmap row " + hex, e);
+        }
+        return bytes;
+    }
+
+    private static int parse(String[] fields, int index) throws IOException {
+        if (fields.length <= index) {
+            throw new IOException("Missing value in BDF line " + fields[0]);
+        }
+        try {
+            return Integer.parseInt(fields[index]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad value in BDF line " + fields[0], e);
+        }
+    }
+
+    /**
+     * @return the height of a line of text in pixels
+     */
+    public int getLineHeight() {
+        return mLineHeight;
+    }
+
+    /**
+     * @return the pixels from the top of a line to the baseline
+     */
+    public int getAscent() {
+        return mAscent;
+    }
+
+    /**
+     * @return true when the font has a glyph for the code point
+     */
+    public boolean hasGlyph(int codePoint) {
+        return findGlyph(codePoint) >= 0;
+    }
+
+    /**
+     * Sets extra pixels added after every glyph, negative to tighten text.
+     */
+    public void setLetterSpacing(int pixels) {
+        mLetterSpacing = pixels;
+    }
+
+    /**
+     * Sets the advance adjustment of a pair of code points, negative to move them closer.
+     * @param left The code point of the first glyph.
+     * @param right The code point of the glyph following it.
+     * @param adjust The pixels added to the advance of the first glyph, 0 to remove the pair.
+     */
+    public void setKerning(int left, int right, int adjust) {
+        long key = kerningKey(left, right);
+        if (adjust == 0) {
+            mKerning.delete(key);
+        } else {
+            mKerning.put(key, adjust);
+        }
+    }
+
+    /**
+     * Measures the width of a line of text.
+     * @param text The text to measure.
+     * @return The advance of the whole text in pixels.
+     */
+    public int measureText(CharSequence text) {
+        int width = 0;
+        int previous = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            int glyph = glyphFor(codePoint);
+            if (glyph < 0) {
+                continue;
+            }
+            if (previous >= 0) {
+                width += kerning(previous, codePoint) + mLetterSpacing;
+            }
+            width += mAdvances[glyph];
+            previous = codePoint;
+        }
+        return width;
+    }
+
+    /**
+     * Draws a line of text. Glyphs out of the canvas are skipped and the rest are clipped.
+     * @param canvas The canvas to draw on.
+     * @param text The text to draw.
+     * @param x The horizontal start of the text.
+     * @param y The top of the line.
+     * @param on Set to true to turn glyph pixels on, false to clear them.
+     * @return The horizontal position after the last glyph.
+     */
+    public int drawText(PageCanvas canvas, CharSequence text, int x, int y, boolean on) {
+        PageCanvas.BlitMode mode = on ? PageCanvas.BlitMode.Or : PageCanvas.BlitMode.Clear;
+        int width = canvas.getWidth();
+        if (y >= canvas.getHeight() || y + mLineHeight <= 0) {
+            return x + measureText(text);
+        }
+
+        int previous = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            int glyph = glyphFor(codePoint);
+            if (glyph < 0) {
+                continue;
+            }
+            if (previous >= 0) {
+                x += kerning(previous, codePoint) + mLetterSpacing;
+            }
+            int left = x + mXOffsets[glyph];
+            int glyphWidth = mWidths[glyph];
+            if (glyphWidth > 0 && left < width && left + glyphWidth > 0) {
+                canvas.blit(mAtlas, mOffsets[glyph], glyphWidth, mLineHeight, left, y, mode);
+            }
+            x += mAdvances[glyph];
+            previous = codePoint;
+        }
+        return x;
+    }
+
+    /**
+     * Draws a line of text on the display buffer, rendered the next time
+     * {@link Ssd1306#show()} is called.
+     * @return The horizontal position after the last glyph.
+     */
+    public int drawText(Ssd1306 display, CharSequence text, int x, int y) {
+        return drawText(display.getCanvas(), text, x, y, true);
+    }
+
+    private int glyphFor(int codePoint) {
+        int glyph = findGlyph(codePoint);
+        return glyph >= 0 ? glyph : mDefaultGlyph;
+    }
+
+    private int findGlyph(int codePoint) {
+        if (codePoint >= 0 && codePoint < ASCII_SIZE) {
+            return mAscii[codePoint];
+        }
+        int index = Arrays.binarySearch(mCodePoints, codePoint);
+        return index >= 0 ? index : -1;
+    }
+
+    private int kerning(int left, int right) {
+        if (mKerning.size() == 0) {
+            return 0;
+        }
+        Integer adjust = mKerning.get(kerningKey(left, right));
+        return adjust == null ? 0 : adjust;
+    }
+
+    private static long kerningKey(int left, int right) {
+        return ((long) left << 32) | (right & 0xFFFFFFFFL);
+    }
+}
@@ -17,13 +17,121 @@
 package com.hardkernel.odroid.things.contrib.Ssd1306;
 
 import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 
 public class BitmapHelper {
     private static final int GRADIENT_CUTOFF = 170; // Tune for gradient picker on grayscale images.
 
+    private static final int DEFAULT_CACHE_SIZE = 64 * 1024;
+
+    /**
+     * How gray levels are turned into on and off pixels.
+     */
+    public enum DitherMode {
+        /**
+         * Pixels brighter than the middle gray are on.
+         */
+        Threshold,
+        /**
+         * Ordered dithering with an 8x8 Bayer matrix. Stable between frames, good for live images.
+         */
+        Bayer,
+        /**
+         * Floyd-Steinberg error diffusion. Finer gray levels, but noise moves between frames.
+         */
+        ErrorDiffusion
+    }
+
+    // 8x8 Bayer matrix scaled to luma thresholds.
+    private static final int[] BAYER_THRESHOLDS = new int[64];
+    static {
+        int[] bayer = {
+                0, 32, 8, 40, 2, 34, 10, 42,
+                48, 16, 56, 24, 50, 18, 58, 26,
+                12, 44, 4, 36, 14, 46, 6, 38,
+                60, 28, 52, 20, 62, 30, 54, 22,
+                3, 35, 11, 43, 1, 33, 9, 41,
+                51, 19, 59, 27, 49, 17, 57, 25,
+                15, 47, 7, 39, 13, 45, 5, 37,
+                63, 31, 55, 23, 61, 29, 53, 21
+        };
+        for (int i = 0; i < 64; i++) {
+            BAYER_THRESHOLDS[i] = bayer[i] * 4 + 2;
+        }
+    }
+
+    /**
+     * Converted bitmap in page format, keyed by bitmap identity, generation and draw mode.
+     * Cached keys reach the bitmap only through a weak reference, so the cache does not keep
+     * dropped bitmaps alive. Entries of collected bitmaps match nothing and age out of the LRU.
+     */
+    private static final class CacheKey {
+        // Set only on the lookup key, for the duration of a lookup.
+        Bitmap bitmap;
+        WeakReference<Bitmap> reference;
+        int identity;
+        int generation;
+        boolean drawWhite;
+
+        CacheKey set(Bitmap bitmap, boolean drawWhite) {
+            this.bitmap = bitmap;
+            this.identity = System.identityHashCode(bitmap);
+            this.generation = bitmap.getGenerationId();
+            this.drawWhite = drawWhite;
+            return this;
+        }
+
+        CacheKey weaken() {
+            reference = new WeakReference<>(bitmap);
+            bitmap = null;
+            return this;
+        }
+
+        Bitmap get() {
+            return (bitmap != null) ? bitmap : (reference != null) ? reference.get() : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey key = (CacheKey) o;
+            if (identity != key.identity || generation != key.generation
+                    || drawWhite != key.drawWhite) {
+                return false;
+            }
+            Bitmap bitmap = get();
+            return bitmap != null && bitmap == key.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return identity * 31 + generation * 2 + (drawWhite ? 1 : 0);
+        }
+    }
+
+    private static final LruCache<CacheKey, byte[]> sCache =
+            new LruCache<CacheKey, byte[]>(DEFAULT_CACHE_SIZE) {
+                @Override
+                protected int sizeOf(CacheKey key, byte[] value) {
+                    return value.length;
+                }
+            };
+    // Reused for cache lookups and pixel rows, guarded by the class lock.
+    private static final CacheKey sLookupKey = new CacheKey();
+    private static int[] sRows = new int[0];
+    // Error diffused to the next row, and the page data of the last dithered bitmap.
+    private static int[] sErrors = new int[0];
+    private static byte[] sDithered = new byte[0];
+
     /**
      * Converts a bitmap image to LCD screen data and sets it on the given screen at the specified
-     * offset.
+     * offset. Pixels out of the screen are clipped.
+     * The converted data is cached, so drawing the same bitmap again costs only a copy.
      * @param mScreen The OLED screen to write the bitmap data to.
      * @param xOffset The horizontal offset to draw the image at.
      * @param yOffset The vertical offset to draw the image at.
@@ -33,30 +141,176 @@ public class BitmapHelper {
      */
     public static void setBmpData(Ssd1306 mScreen, int xOffset, int yOffset, Bitmap bmp,
                                   boolean drawWhite) {
+        byte[] pages = bmpToPages(bmp, drawWhite);
+        mScreen.getCanvas().blit(pages, bmp.getWidth(), bmp.getHeight(), xOffset, yOffset,
+                PageCanvas.BlitMode.Or);
+    }
+
+    /**
+     * Converts a bitmap image to LCD screen data and ORs it into the given buffer.
+     * The converted data is cached like {@link #bmpToPages(Bitmap, boolean)}.
+     * @param buffer The screen's data buffer.
+     * @param offset The byte offset to start writing screen bitmap data at.
+     * @param bmp The bitmap image that you want to convert to screen data.
+     * @param drawWhite Set to true to draw white pixels, false to draw pixels based on gradient.
+     */
+    public static void bmpToBytes(byte[] buffer, int offset, Bitmap bmp, boolean drawWhite) {
         int width = bmp.getWidth();
         int height = bmp.getHeight();
-        int bmpByteSize = (int) Math.ceil((double) (width * ((height / 8) > 1 ? (height / 8) : 1)));
+        int length = Math.max(0, Math.min(width * ((height + 7) / 8), buffer.length - offset));
 
         // Each byte stored in memory represents 8 vertical pixels.  As such, you must fill the
         // memory with pixel data moving vertically top-down through the image and scrolling
         // across, while appending the vertical pixel data by series of 8.
+        // The page data comes from the cache, so the same bitmap is converted only once.
+        byte[] pages = bmpToPages(bmp, drawWhite);
+        for (int i = 0; i < length; i++) {
+            buffer[offset + i] |= pages[i];
+        }
+    }
+
+    /**
+     * Converts a bitmap image to page-format data, width bytes for each 8 pixel rows.
+     * The result is kept in a LRU cache keyed by the bitmap and its generation, so a changed
+     * bitmap is converted again. The cache refers to the bitmap weakly, so it does not keep
+     * the bitmap from being collected.
+     * @param bmp The bitmap image that you want to convert to screen data.
+     * @param drawWhite Set to true to draw white pixels, false to draw pixels based on gradient.
+     * @return The page-format data. It is shared with the cache and must not be modified.
+     */
+    public static synchronized byte[] bmpToPages(Bitmap bmp, boolean drawWhite) {
+        byte[] pages = sCache.get(sLookupKey.set(bmp, drawWhite));
+        sLookupKey.bitmap = null;
+        if (pages != null) {
+            return pages;
+        }
+
+        pages = convert(bmp, drawWhite);
+        sCache.put(new CacheKey().set(bmp, drawWhite).weaken(), pages);
+        return pages;
+    }
+
+    /**
+     * Dithers a bitmap image and draws it on the given screen at the specified offset,
+     * replacing the pixels below it. Pixels out of the screen are clipped.
+     * Nothing is cached, so it suits images changing every frame like camera thumbnails.
+     * @param mScreen The OLED screen to write the bitmap data to.
+     * @param xOffset The horizontal offset to draw the image at.
+     * @param yOffset The vertical offset to draw the image at.
+     * @param bmp The bitmap image that you want to convert to screen data.
+     * @param dither The dithering to apply.
+     */
+    public static synchronized void setBmpDataDithered(Ssd1306 mScreen, int xOffset,
+                                                       int yOffset, Bitmap bmp,
+                                                       DitherMode dither) {
+        int width = bmp.getWidth();
+        int height = bmp.getHeight();
+        int length = width * ((height + 7) / 8);
+        if (sDithered.length < length) {
+            sDithered = new byte[length];
+        }
+        dither(bmp, dither, sDithered, 0);
+        mScreen.getCanvas().blit(sDithered, width, height, xOffset, yOffset,
+                PageCanvas.BlitMode.Copy);
+    }
 
+    /**
+     * Dithers a bitmap image into page-format data, width bytes for each 8 pixel rows.
+     * Pixels are read 8 rows at a time, and the luma is computed with integer arithmetic.
+     * @param bmp The bitmap image that you want to convert to screen data.
+     * @param dither The dithering to apply.
+     * @param pages The buffer receiving the page-format data.
+     * @param offset The index in pages of the first byte.
+     */
+    public static synchronized void dither(Bitmap bmp, DitherMode dither, byte[] pages,
+                                           int offset) {
+        int width = bmp.getWidth();
+        int height = bmp.getHeight();
+        if (sRows.length < width * 8) {
+            sRows = new int[width * 8];
+        }
         for (int y = 0; y < height; y += 8) {
-            for (int x = 0; x < width; x++) {
-                int bytePos = x + ((y / 8) * width);
-
-                for (int k = 0; k < 8; k++) {
-                    if ((k + y < height) && (bytePos < bmpByteSize)) {
-                        int pixel = bmp.getPixel(x, y + k);
-                        if (!drawWhite) { // Look at Alpha channel instead
-                            if ((pixel & 0xFF) > GRADIENT_CUTOFF) {
-                                mScreen.setPixel(x + xOffset, y + yOffset + k, true);
-                            }
-                        } else {
-                            if (pixel == -1) { // Only draw white pixels
-                                mScreen.setPixel(x + xOffset, y + yOffset + k, true);
-                            }
-                        }
+            int count = Math.min(8, height - y);
+            bmp.getPixels(sRows, 0, width, 0, y, width, count);
+            ditherRows(sRows, 0, width, width, y, count, dither, pages, offset);
+        }
+    }
+
+    /**
+     * Dithers ARGB pixels into page-format data, width bytes for each 8 pixel rows.
+     * @param pixels The ARGB pixels, like read by {@link Bitmap#getPixels}.
+     * @param pixelOffset The index in pixels of the top left pixel.
+     * @param stride The number of pixels from one row to the next.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param dither The dithering to apply.
+     * @param pages The buffer receiving the page-format data.
+     * @param offset The index in pages of the first byte.
+     */
+    public static synchronized void dither(int[] pixels, int pixelOffset, int stride,
+                                           int width, int height, DitherMode dither,
+                                           byte[] pages, int offset) {
+        ditherRows(pixels, pixelOffset, stride, width, 0, height, dither, pages, offset);
+    }
+
+    /**
+     * Dithers count rows starting at row y of the image. The error row carries the
+     * diffused error from one call to the next, it is reset at row 0.
+     */
+    private static void ditherRows(int[] pixels, int pixelOffset, int stride, int width,
+                                   int y, int count, DitherMode dither, byte[] pages, int offset) {
+        if (dither == null) {
+            throw new IllegalArgumentException("Dither mode must not be null");
+        }
+        if (dither == DitherMode.ErrorDiffusion) {
+            if (sErrors.length < width) {
+                sErrors = new int[width];
+            }
+            if (y == 0) {
+                Arrays.fill(sErrors, 0, width, 0);
+            }
+        }
+        int[] errors = sErrors;
+
+        for (int row = 0; row < count; row++, y++) {
+            int pixel = pixelOffset + row * stride;
+            int index = offset + (y >> 3) * width;
+            int bit = 1 << (y & 7);
+            if ((y & 7) == 0) {
+                Arrays.fill(pages, index, index + width, (byte) 0);
+            }
+
+            if (dither == DitherMode.ErrorDiffusion) {
+                // errors[x] holds the error for this row until x is done, then for the next.
+                int right = 0;
+                int belowRight = 0;
+                for (int x = 0; x < width; x++) {
+                    int value = luma(pixels[pixel + x]) + right + errors[x];
+                    int error;
+                    if (value > 127) {
+                        pages[index + x] |= (byte) bit;
+                        error = value - 255;
+                    } else {
+                        error = value;
+                    }
+                    right = error * 7 / 16;
+                    if (x > 0) {
+                        errors[x - 1] += error * 3 / 16;
+                    }
+                    errors[x] = belowRight + error * 5 / 16;
+                    belowRight = error / 16;
+                }
+            } else if (dither == DitherMode.Bayer) {
+                int matrixRow = (y & 7) * 8;
+                for (int x = 0; x < width; x++) {
+                    if (luma(pixels[pixel + x]) > BAYER_THRESHOLDS[matrixRow + (x & 7)]) {
+                        pages[index + x] |= (byte) bit;
+                    }
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    if (luma(pixels[pixel + x]) > 127) {
+                        pages[index + x] |= (byte) bit;
                     }
                 }
             }
@@ -64,39 +318,54 @@ public class BitmapHelper {
     }
 
     /**
-     * Converts a bitmap image to LCD screen data and returns the screen data as bytes.
-     * @param buffer The screen's data buffer.
-     * @param offset The byte offset to start writing screen bitmap data at.
-     * @param bmp The bitmap image that you want to convert to screen data.
-     * @param drawWhite Set to true to draw white pixels, false to draw pixels based on gradient.
-     * @return A byte array with pixel data for the SSD1306.
+     * Integer Rec. 601 luma, 0 to 255.
      */
-    public static void bmpToBytes(byte[] buffer, int offset, Bitmap bmp, boolean drawWhite) {
+    private static int luma(int argb) {
+        return (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150
+                + (argb & 0xFF) * 29) >> 8;
+    }
+
+    /**
+     * Sets the size of the conversion cache.
+     * @param bytes The maximum bytes of page-format data kept in the cache.
+     */
+    public static void setCacheSize(int bytes) {
+        sCache.resize(bytes);
+    }
+
+    /**
+     * Drops all converted bitmaps from the cache.
+     */
+    public static void clearCache() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Reads 8 rows of pixels at once and packs each column of them into a byte.
+     */
+    private static byte[] convert(Bitmap bmp, boolean drawWhite) {
         int width = bmp.getWidth();
         int height = bmp.getHeight();
+        byte[] pages = new byte[width * ((height + 7) / 8)];
+        if (sRows.length < width * 8) {
+            sRows = new int[width * 8];
+        }
+        int[] rows = sRows;
 
-        // Each byte stored in memory represents 8 vertical pixels.  As such, you must fill the
-        // memory with pixel data moving vertically top-down through the image and scrolling
-        // across, while appending the vertical pixel data by series of 8.
-        for (int y = 0; y < height; y += 8) {
-            for (int x = 0; x < width; x++) {
-                int bytePos = (offset + x) + ((y / 8) * width);
-
-                for (int k = 0; k < 8; k++) {
-                    if ((k + y < height) && (bytePos < buffer.length)) {
-                        int pixel = bmp.getPixel(x, y + k);
-                        if (!drawWhite) { // Look at Alpha channel instead
-                            if ((pixel & 0xFF) > GRADIENT_CUTOFF) {
-                                buffer[bytePos] |= 1 << k;
-                            }
-                        } else {
-                            if (pixel == -1) { // Only draw white pixels
-                                buffer[bytePos] |= 1 << k;
-                            }
-                        }
+        for (int y = 0, index = 0; y < height; y += 8) {
+            int count = Math.min(8, height - y);
+            bmp.getPixels(rows, 0, width, 0, y, width, count);
+            for (int x = 0; x < width; x++, index++) {
+                int bits = 0;
+                for (int k = 0, pixel = x; k < count; k++, pixel += width) {
+                    if (drawWhite ? rows[pixel] == -1 // Only draw white pixels
+                            : (rows[pixel] & 0xFF) > GRADIENT_CUTOFF) {
+                        bits |= 1 << k;
                     }
                 }
+                pages[index] = (byte) bits;
             }
         }
+        return pages;
     }
-}
\ No newline at end of file
+}
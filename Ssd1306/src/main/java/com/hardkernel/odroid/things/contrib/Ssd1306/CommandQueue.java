@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+/**
+ * Display settings commands waiting for the next frame.
+ * Each setting has a slot holding its latest command, so a setting changed several times
+ * between frames is sent once, and a command equal to the last one sent is dropped.
+ */
+final class CommandQueue {
+    static final int SLOT_SCROLL = 0;
+    static final int SLOT_CONTRAST = 1;
+    static final int SLOT_INVERSE = 2;
+    static final int SLOT_FLIP = 3;
+    static final int SLOT_MIRROR = 4;
+    static final int SLOT_DISPLAY = 5;
+    static final int SLOT_START_LINE = 6;
+    private static final int SLOTS = 7;
+
+    /**
+     * The most bytes {@link #drain(byte[], int)} writes, every slot with an argument.
+     */
+    static final int MAX_LENGTH = SLOTS * 2;
+
+    // Command, argument and length packed in an int. 0 is no command, or not known to be sent.
+    private static final int NONE = 0;
+    private final int[] mQueued = new int[SLOTS];
+    private final int[] mSent = new int[SLOTS];
+
+    synchronized void put(int slot, int command) {
+        queue(slot, command & 0xFF | 1 << 16);
+    }
+
+    synchronized void put(int slot, int command, int argument) {
+        queue(slot, command & 0xFF | (argument & 0xFF) << 8 | 2 << 16);
+    }
+
+    private void queue(int slot, int packed) {
+        mQueued[slot] = (packed == mSent[slot]) ? NONE : packed;
+    }
+
+    synchronized boolean isEmpty() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (mQueued[slot] != NONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the queued commands into the buffer in slot order, and takes them as sent.
+     * @return the number of bytes written.
+     */
+    synchronized int drain(byte[] buffer, int offset) {
+        int length = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int packed = mQueued[slot];
+            if (packed == NONE) {
+                continue;
+            }
+            buffer[offset + length++] = (byte) packed;
+            if ((packed >> 16) == 2) {
+                buffer[offset + length++] = (byte) (packed >> 8);
+            }
+            mSent[slot] = packed;
+            mQueued[slot] = NONE;
+        }
+        return length;
+    }
+
+    /**
+     * Forgets the last command sent for the slot, after it was changed by other means.
+     */
+    synchronized void forget(int slot) {
+        mSent[slot] = NONE;
+    }
+
+    /**
+     * Forgets the last command sent for every slot, after the display was reset or
+     * initialized, so no setting is dropped as redundant.
+     */
+    synchronized void forgetAll() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            mSent[slot] = NONE;
+        }
+    }
+}
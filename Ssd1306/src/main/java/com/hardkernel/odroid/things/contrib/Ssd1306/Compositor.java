@@ -0,0 +1,271 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composes a static background layer and 1bpp sprites on the display.
+ * Each {@link #show()} recomposes only the page columns touched by background drawings and
+ * by sprites that moved or changed, so the frame cost follows the size of the change.
+ * The display buffer belongs to the compositor while it is used.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Compositor {
+    private final Ssd1306 mDisplay;
+    private final PageCanvas mDisplayCanvas;
+    private final int mWidth;
+    private final int mPages;
+
+    private final byte[] mBackground;
+    private final DirtyRegion mBackgroundDirty;
+    private final PageCanvas mBackgroundCanvas;
+
+    // Sprites in drawing order, lowest z first.
+    private final List<Sprite> mSprites = new ArrayList<>();
+    private final DirtyRegion mDamage;
+
+    /**
+     * Page-format image drawn over the background at a position.
+     * Without a mask the sprite pixels are ORed, with a mask the pixels on in the mask are
+     * replaced by the sprite, so sprites can cover what is below them.
+     */
+    public final class Sprite {
+        private byte[] mPages;
+        private byte[] mMask;
+        private int mSpriteWidth;
+        private int mSpriteHeight;
+        private int mX;
+        private int mY;
+        private int mZ;
+        private boolean mVisible = true;
+
+        // Bounds drawn by the last show(), damaged when the sprite changes.
+        private boolean mShown;
+        private int mShownX;
+        private int mShownY;
+        private int mShownWidth;
+        private int mShownHeight;
+        private boolean mChanged = true;
+
+        private Sprite(byte[] pages, byte[] mask, int width, int height, int z) {
+            setImage(pages, mask, width, height);
+            mZ = z;
+        }
+
+        /**
+         * Replaces the sprite image.
+         * @param pages The page-format image, width bytes for each 8 rows.
+         * @param mask The page-format mask with the same layout, or null to OR the image.
+         * @param width The width of the image in pixels.
+         * @param height The height of the image in pixels.
+         */
+        public void setImage(byte[] pages, byte[] mask, int width, int height) {
+            int length = width * ((height + 7) / 8);
+            if (width <= 0 || height <= 0 || pages.length < length
+                    || (mask != null && mask.length < length)) {
+                throw new IllegalArgumentException("Invalid sprite image " + width + "x" + height);
+            }
+            mPages = pages;
+            mMask = mask;
+            mSpriteWidth = width;
+            mSpriteHeight = height;
+            mChanged = true;
+        }
+
+        /**
+         * Marks the sprite for redrawing after its image array was modified in place.
+         */
+        public void invalidate() {
+            mChanged = true;
+        }
+
+        public void setPosition(int x, int y) {
+            if (x != mX || y != mY) {
+                mX = x;
+                mY = y;
+                mChanged = true;
+            }
+        }
+
+        public void setVisible(boolean visible) {
+            if (visible != mVisible) {
+                mVisible = visible;
+                mChanged = true;
+            }
+        }
+
+        /**
+         * Sets the z-order. Sprites with a higher z are drawn over those with a lower z,
+         * sprites with the same z in the order they were added.
+         */
+        public void setZ(int z) {
+            if (z != mZ) {
+                mZ = z;
+                if (mSprites.remove(this)) {
+                    insert(this);
+                }
+                mChanged = true;
+            }
+        }
+
+        public int getX() {
+            return mX;
+        }
+
+        public int getY() {
+            return mY;
+        }
+
+        public int getZ() {
+            return mZ;
+        }
+
+        public int getWidth() {
+            return mSpriteWidth;
+        }
+
+        public int getHeight() {
+            return mSpriteHeight;
+        }
+
+        public boolean isVisible() {
+            return mVisible;
+        }
+    }
+
+    /**
+     * Creates a compositor with a blank background on the display.
+     * @param display The display to compose on.
+     */
+    public Compositor(Ssd1306 display) {
+        mDisplay = display;
+        mDisplayCanvas = display.getCanvas();
+        mWidth = mDisplayCanvas.getWidth();
+        mPages = mDisplayCanvas.getHeight() / 8;
+
+        mBackground = new byte[mWidth * mPages];
+        mBackgroundDirty = new DirtyRegion(mWidth, mPages);
+        mBackgroundCanvas = new PageCanvas(mBackground, 0, mWidth, mDisplayCanvas.getHeight(),
+                mBackgroundDirty);
+        mDamage = new DirtyRegion(mWidth, mPages);
+        // The display buffer holds whatever was drawn before, compose all of it first.
+        mBackgroundDirty.addAll();
+    }
+
+    /**
+     * @return the canvas of the background layer. Drawings are shown with the next
+     * {@link #show()}.
+     */
+    public PageCanvas getBackground() {
+        return mBackgroundCanvas;
+    }
+
+    /**
+     * Adds a sprite at 0,0.
+     * @param pages The page-format image, width bytes for each 8 rows.
+     * @param mask The page-format mask with the same layout, or null to OR the image.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @param z The z-order of the sprite.
+     * @return The sprite to move and change.
+     */
+    public Sprite addSprite(byte[] pages, byte[] mask, int width, int height, int z) {
+        Sprite sprite = new Sprite(pages, mask, width, height, z);
+        insert(sprite);
+        return sprite;
+    }
+
+    /**
+     * Removes a sprite. Its area is recomposed with the next {@link #show()}.
+     */
+    public void removeSprite(Sprite sprite) {
+        if (mSprites.remove(sprite) && sprite.mShown) {
+            mDamage.addRect(sprite.mShownX, sprite.mShownY,
+                    sprite.mShownWidth, sprite.mShownHeight);
+        }
+    }
+
+    /**
+     * Recomposes the changed areas into the display buffer and shows them.
+     * @throws IOException
+     */
+    public void show() throws IOException {
+        mDamage.add(mBackgroundDirty);
+        mBackgroundDirty.clear();
+        for (Sprite sprite : mSprites) {
+            if (!sprite.mChanged) {
+                continue;
+            }
+            if (sprite.mShown) {
+                mDamage.addRect(sprite.mShownX, sprite.mShownY,
+                        sprite.mShownWidth, sprite.mShownHeight);
+            }
+            sprite.mShown = sprite.mVisible;
+            sprite.mShownX = sprite.mX;
+            sprite.mShownY = sprite.mY;
+            sprite.mShownWidth = sprite.mSpriteWidth;
+            sprite.mShownHeight = sprite.mSpriteHeight;
+            if (sprite.mShown) {
+                mDamage.addRect(sprite.mX, sprite.mY, sprite.mSpriteWidth, sprite.mSpriteHeight);
+            }
+            sprite.mChanged = false;
+        }
+
+        if (!mDamage.isEmpty()) {
+            compose();
+            mDamage.clear();
+        }
+        mDisplay.show();
+    }
+
+    private void compose() {
+        byte[] dst = mDisplayCanvas.getBuffer();
+        int dstOffset = mDisplayCanvas.getOffset();
+        for (int page = 0; page < mPages; page++) {
+            if (!mDamage.isDirty(page)) {
+                continue;
+            }
+            int start = mDamage.getStart(page);
+            int end = mDamage.getEnd(page);
+            System.arraycopy(mBackground, page * mWidth + start,
+                    dst, dstOffset + page * mWidth + start, end - start + 1);
+            mDisplayCanvas.markDirty(start, end, page, page);
+
+            for (Sprite sprite : mSprites) {
+                if (!sprite.mVisible) {
+                    continue;
+                }
+                PageCanvas.BlitMode mode = (sprite.mMask == null)
+                        ? PageCanvas.BlitMode.Or : PageCanvas.BlitMode.Copy;
+                mDisplayCanvas.blit(sprite.mPages, sprite.mMask, 0,
+                        sprite.mSpriteWidth, sprite.mSpriteHeight, sprite.mX, sprite.mY, mode,
+                        start, end + 1, page, page);
+            }
+        }
+    }
+
+    private void insert(Sprite sprite) {
+        int index = mSprites.size();
+        while (index > 0 && mSprites.get(index - 1).mZ > sprite.mZ) {
+            index--;
+        }
+        mSprites.add(index, sprite);
+    }
+}
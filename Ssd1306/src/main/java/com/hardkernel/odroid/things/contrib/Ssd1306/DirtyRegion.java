@@ -0,0 +1,159 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+/**
+ * Changed column range of each page of the page-format display buffer.
+ * A page is a row of bytes, each byte holds 8 vertical pixels.
+ */
+final class DirtyRegion {
+    private final int mWidth;
+    private final int mPages;
+
+    // Inclusive column range of each page. mStart > mEnd when the page is clean.
+    private final int[] mStart;
+    private final int[] mEnd;
+    private boolean mEmpty;
+
+    DirtyRegion(int width, int pages) {
+        mWidth = width;
+        mPages = pages;
+        mStart = new int[pages];
+        mEnd = new int[pages];
+        clear();
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getPages() {
+        return mPages;
+    }
+
+    /**
+     * Marks a single byte, 8 vertical pixels, as changed.
+     */
+    void add(int x, int page) {
+        if (x < mStart[page]) {
+            mStart[page] = x;
+        }
+        if (x > mEnd[page]) {
+            mEnd[page] = x;
+        }
+        mEmpty = false;
+    }
+
+    /**
+     * Marks the inclusive column and page range as changed. The range is clipped to the buffer.
+     */
+    void add(int x0, int x1, int page0, int page1) {
+        if (x0 < 0) {
+            x0 = 0;
+        }
+        if (x1 >= mWidth) {
+            x1 = mWidth - 1;
+        }
+        if (page0 < 0) {
+            page0 = 0;
+        }
+        if (page1 >= mPages) {
+            page1 = mPages - 1;
+        }
+        if (x0 > x1 || page0 > page1) {
+            return;
+        }
+        for (int page = page0; page <= page1; page++) {
+            if (x0 < mStart[page]) {
+                mStart[page] = x0;
+            }
+            if (x1 > mEnd[page]) {
+                mEnd[page] = x1;
+            }
+        }
+        mEmpty = false;
+    }
+
+    /**
+     * Marks the pixel rectangle as changed. The rectangle is clipped to the buffer.
+     */
+    void addRect(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        add(x, x + width - 1, y < 0 ? 0 : y >> 3, (y + height - 1) >> 3);
+    }
+
+    void addAll() {
+        for (int page = 0; page < mPages; page++) {
+            mStart[page] = 0;
+            mEnd[page] = mWidth - 1;
+        }
+        mEmpty = false;
+    }
+
+    /**
+     * Merges the changed range of the other region into this one.
+     */
+    void add(DirtyRegion other) {
+        if (other.mEmpty) {
+            return;
+        }
+        for (int page = 0; page < mPages; page++) {
+            if (other.mStart[page] < mStart[page]) {
+                mStart[page] = other.mStart[page];
+            }
+            if (other.mEnd[page] > mEnd[page]) {
+                mEnd[page] = other.mEnd[page];
+            }
+        }
+        mEmpty = false;
+    }
+
+    /**
+     * Copies the changed range of the other region into this one.
+     */
+    void set(DirtyRegion other) {
+        System.arraycopy(other.mStart, 0, mStart, 0, mPages);
+        System.arraycopy(other.mEnd, 0, mEnd, 0, mPages);
+        mEmpty = other.mEmpty;
+    }
+
+    void clear() {
+        for (int page = 0; page < mPages; page++) {
+            mStart[page] = mWidth;
+            mEnd[page] = -1;
+        }
+        mEmpty = true;
+    }
+
+    boolean isEmpty() {
+        return mEmpty;
+    }
+
+    boolean isDirty(int page) {
+        return mStart[page] <= mEnd[page];
+    }
+
+    int getStart(int page) {
+        return mStart[page];
+    }
+
+    int getEnd(int page) {
+        return mEnd[page];
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Link between the SSD1306 protocol and the bus the display is wired to.
+ * The first byte of every buffer handed to a transport is reserved for it, the command or
+ * data bytes start at index 1. The I2C transport puts its control byte there, so buffers go
+ * out without another copy.
+ */
+public interface DisplayTransport extends Closeable {
+    /**
+     * Sends command bytes to the display.
+     * @param buffer The reserved byte followed by the commands.
+     * @param length The length of buffer to send, the reserved byte included.
+     * @throws IOException
+     */
+    void writeCommands(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Sends pixel data to the display RAM at the current address window.
+     * @param buffer The reserved byte followed by the pixel data.
+     * @param length The length of buffer to send, the reserved byte included.
+     * @throws IOException
+     */
+    void writeData(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Called after the last data write of a frame.
+     * @throws IOException
+     */
+    default void endFrame() throws IOException {
+    }
+
+    /**
+     * Sets the listener called after the transport reset the display, so the driver knows
+     * the display lost its RAM and settings. Transports without a reset ignore it.
+     * @param listener The listener, or null to remove it.
+     */
+    default void setResetListener(Runnable listener) {
+    }
+
+    /**
+     * @return the name of the bus the display is on. Displays sharing a bus share its bandwidth.
+     */
+    String getBusName();
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Transport emulating the SSD1306 display RAM without a panel.
+ * It follows the address window, addressing and start line commands, and captures a frame
+ * at the end of each {@link Ssd1306#show()}: kept in memory, or written to a directory as
+ * PBM or PNG images. Frames are the RAM as shown with the start line, inverse, flip and
+ * mirror are not applied.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FrameSink implements DisplayTransport {
+    public static final int FORMAT_PBM = 0;
+    public static final int FORMAT_PNG = 1;
+
+    private static final int RAM_WIDTH = 128;
+    private static final int RAM_PAGES = 8;
+    private static final int DEFAULT_MAX_FRAMES = 64;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final File mDirectory;
+    private final int mFormat;
+
+    private final byte[] mRam = new byte[RAM_WIDTH * RAM_PAGES];
+    private final List<byte[]> mFrames = new ArrayList<>();
+    private int mMaxFrames = DEFAULT_MAX_FRAMES;
+    private int mFrameCount;
+
+    // Command decoding within a command transaction.
+    private int mCommand = -1;
+    private final int[] mArguments = new int[6];
+    private int mArgumentCount;
+
+    private int mColumnStart = 0;
+    private int mColumnEnd = RAM_WIDTH - 1;
+    private int mPageStart = 0;
+    private int mPageEnd = RAM_PAGES - 1;
+    private int mColumn;
+    private int mPage;
+    private int mStartLine;
+    private int mContrast = 0x7F;
+    private boolean mDisplayOn;
+    private boolean mInverse;
+
+    /**
+     * Creates a sink keeping the frames in memory.
+     * @param width display width in pixels.
+     * @param height display height in pixels.
+     */
+    public FrameSink(int width, int height) {
+        this(width, height, null, FORMAT_PBM);
+    }
+
+    /**
+     * Creates a sink writing every frame as an image file named frame-NNNNNN.
+     * @param width display width in pixels.
+     * @param height display height in pixels.
+     * @param directory The directory to write the images to.
+     * @param format {@link #FORMAT_PBM} or {@link #FORMAT_PNG}.
+     */
+    public FrameSink(int width, int height, File directory, int format) {
+        if (width <= 0 || width > RAM_WIDTH || height <= 0 || height > RAM_PAGES * 8
+                || height % 8 != 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        if (format != FORMAT_PBM && format != FORMAT_PNG) {
+            throw new IllegalArgumentException("Invalid format " + format);
+        }
+        mWidth = width;
+        mHeight = height;
+        mDirectory = directory;
+        mFormat = format;
+    }
+
+    /**
+     * Sets how many of the latest frames are kept in memory.
+     */
+    public synchronized void setMaxFrames(int frames) {
+        if (frames < 0) {
+            throw new IllegalArgumentException("Invalid frame count " + frames);
+        }
+        mMaxFrames = frames;
+        while (mFrames.size() > frames) {
+            mFrames.remove(0);
+        }
+    }
+
+    /**
+     * @return the number of frames captured since the sink was created
+     */
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return the frames kept in memory, oldest first, in page format of the display size
+     */
+    public synchronized List<byte[]> getFrames() {
+        return new ArrayList<>(mFrames);
+    }
+
+    /**
+     * @return the latest frame in page format of the display size, or null before any frame
+     */
+    public synchronized byte[] getLastFrame() {
+        return mFrames.isEmpty() ? null : mFrames.get(mFrames.size() - 1);
+    }
+
+    /**
+     * @return the pixel of the latest frame
+     */
+    public synchronized boolean getPixel(int x, int y) {
+        byte[] frame = getLastFrame();
+        return frame != null && (frame[(y >> 3) * mWidth + x] & (1 << (y & 7))) != 0;
+    }
+
+    public synchronized boolean isDisplayOn() {
+        return mDisplayOn;
+    }
+
+    public synchronized boolean isInverse() {
+        return mInverse;
+    }
+
+    public synchronized int getContrast() {
+        return mContrast;
+    }
+
+    public synchronized int getStartLine() {
+        return mStartLine;
+    }
+
+    @Override
+    public synchronized void writeCommands(byte[] buffer, int length) {
+        mCommand = -1;
+        for (int i = 1; i < length; i++) {
+            command(buffer[i] & 0xFF);
+        }
+    }
+
+    @Override
+    public synchronized void writeData(byte[] buffer, int length) {
+        for (int i = 1; i < length; i++) {
+            mRam[mPage * RAM_WIDTH + mColumn] = buffer[i];
+            if (++mColumn > mColumnEnd) {
+                mColumn = mColumnStart;
+                if (++mPage > mPageEnd) {
+                    mPage = mPageStart;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void endFrame() throws IOException {
+        byte[] frame = capture();
+        mFrameCount++;
+        if (mMaxFrames > 0) {
+            if (mFrames.size() == mMaxFrames) {
+                mFrames.remove(0);
+            }
+            mFrames.add(frame);
+        }
+        if (mDirectory != null) {
+            String name = String.format(Locale.US, "frame-%06d.%s", mFrameCount,
+                    mFormat == FORMAT_PNG ? "png" : "pbm");
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(new File(mDirectory, name)))) {
+                if (mFormat == FORMAT_PNG) {
+                    writePng(frame, mWidth, mHeight, out);
+                } else {
+                    writePbm(frame, mWidth, mHeight, out);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getBusName() {
+        return "FrameSink";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Writes page-format pixels as a binary PBM (P4) image, pixels on as black.
+     */
+    public static void writePbm(byte[] pages, int width, int height, OutputStream out)
+            throws IOException {
+        out.write(("P4\n" + width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(packRows(pages, width, height, false));
+        out.flush();
+    }
+
+    /**
+     * Writes page-format pixels as a 1-bit grayscale PNG image, pixels on as white.
+     */
+    public static void writePng(byte[] pages, int width, int height, OutputStream out)
+            throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        // Bit depth 1, grayscale, deflate, adaptive filtering, no interlace.
+        headerData.write(new byte[]{1, 0, 0, 0, 0});
+        writeChunk(data, "IHDR", header.toByteArray());
+
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(image, deflater)) {
+            deflate.write(packRows(pages, width, height, true));
+        } finally {
+            deflater.end();
+        }
+        writeChunk(data, "IDAT", image.toByteArray());
+        writeChunk(data, "IEND", new byte[0]);
+        data.flush();
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Converts page-format pixels to rows of MSB-first bits, with a PNG filter byte ahead
+     * of each row when asked.
+     */
+    private static byte[] packRows(byte[] pages, int width, int height, boolean filterByte) {
+        int stride = (width + 7) / 8 + (filterByte ? 1 : 0);
+        byte[] rows = new byte[stride * height];
+        for (int y = 0; y < height; y++) {
+            int row = y * stride + (filterByte ? 1 : 0);
+            int src = (y >> 3) * width;
+            int bit = 1 << (y & 7);
+            for (int x = 0; x < width; x++) {
+                if ((pages[src + x] & bit) != 0) {
+                    rows[row + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Builds the frame shown from RAM, row y of the display showing RAM row y + start line.
+     */
+    private byte[] capture() {
+        byte[] frame = new byte[mWidth * (mHeight / 8)];
+        int firstPage = mStartLine >> 3;
+        int shift = mStartLine & 7;
+        for (int page = 0; page < mHeight / 8; page++) {
+            int low = ((firstPage + page) % RAM_PAGES) * RAM_WIDTH;
+            int high = ((firstPage + page + 1) % RAM_PAGES) * RAM_WIDTH;
+            for (int x = 0; x < mWidth; x++) {
+                int value = (mRam[low + x] & 0xFF) >> shift;
+                if (shift != 0) {
+                    value |= mRam[high + x] << (8 - shift);
+                }
+                frame[page * mWidth + x] = (byte) value;
+            }
+        }
+        return frame;
+    }
+
+    private void command(int value) {
+        if (mCommand >= 0) {
+            mArguments[mArgumentCount++] = value;
+            if (mArgumentCount < argumentCount(mCommand)) {
+                return;
+            }
+            execute(mCommand);
+            mCommand = -1;
+            return;
+        }
+        if (argumentCount(value) > 0) {
+            mCommand = value;
+            mArgumentCount = 0;
+            return;
+        }
+        execute(value);
+    }
+
+    private void execute(int command) {
+        if (command >= 0x40 && command <= 0x7F) {
+            mStartLine = command & 0x3F;
+            return;
+        }
+        switch (command) {
+            case 0x21:
+                mColumnStart = mArguments[0] & (RAM_WIDTH - 1);
+                mColumnEnd = mArguments[1] & (RAM_WIDTH - 1);
+                mColumn = mColumnStart;
+                break;
+            case 0x22:
+                mPageStart = mArguments[0] & (RAM_PAGES - 1);
+                mPageEnd = mArguments[1] & (RAM_PAGES - 1);
+                mPage = mPageStart;
+                break;
+            case 0x81:
+                mContrast = mArguments[0];
+                break;
+            case 0xA6:
+            case 0xA7:
+                mInverse = command == 0xA7;
+                break;
+            case 0xAE:
+            case 0xAF:
+                mDisplayOn = command == 0xAF;
+                break;
+            default:
+                // Timing, hardware configuration and scrolling do not change the RAM.
+                break;
+        }
+    }
+
+    private static int argumentCount(int command) {
+        switch (command) {
+            case 0x20:
+            case 0x81:
+            case 0x8D:
+            case 0xA8:
+            case 0xD3:
+            case 0xD5:
+            case 0xD9:
+            case 0xDA:
+            case 0xDB:
+                return 1;
+            case 0x21:
+            case 0x22:
+            case 0xA3:
+                return 2;
+            case 0x29:
+            case 0x2A:
+                return 5;
+            case 0x26:
+            case 0x27:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import com.google.android.things.pio.I2cDevice;
+import com.google.android.things.pio.PeripheralManager;
+
+import java.io.IOException;
+
+/**
+ * SSD1306 transport over I2C. Each transaction starts with a control byte telling
+ * commands from display data.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class I2cTransport implements DisplayTransport {
+    private static final int CONTROL_COMMAND = 0x00;
+    private static final int CONTROL_DATA = 0x40;
+
+    private I2cDevice mDevice;
+    private final String mBusName;
+
+    /**
+     * Opens the display at the given address of the named I2C bus.
+     * @param i2cName I2C bus name the display is connected to
+     * @param i2cAddress I2C address of the display
+     * @throws IOException
+     */
+    public I2cTransport(String i2cName, int i2cAddress) throws IOException {
+        this(PeripheralManager.getInstance().openI2cDevice(i2cName, i2cAddress), i2cName);
+    }
+
+    /**
+     * Uses an already opened I2C device. The transport closes it.
+     * @param device I2C device of the display
+     */
+    public I2cTransport(I2cDevice device) {
+        this(device, device.getName());
+    }
+
+    private I2cTransport(I2cDevice device, String busName) {
+        mDevice = device;
+        mBusName = busName;
+    }
+
+    @Override
+    public void writeCommands(byte[] buffer, int length) throws IOException {
+        if (mDevice == null) {
+            throw new IllegalStateException("I2C Device not open");
+        }
+        buffer[0] = (byte) CONTROL_COMMAND;
+        mDevice.write(buffer, length);
+    }
+
+    @Override
+    public void writeData(byte[] buffer, int length) throws IOException {
+        if (mDevice == null) {
+            throw new IllegalStateException("I2C Device not open");
+        }
+        buffer[0] = (byte) CONTROL_DATA;
+        mDevice.write(buffer, length);
+    }
+
+    @Override
+    public String getBusName() {
+        return mBusName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mDevice != null) {
+            try {
+                mDevice.close();
+            } finally {
+                mDevice = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import java.util.Arrays;
+
+/**
+ * Drawing operations on a page-format 1bpp buffer, the SSD1306 display RAM layout.
+ * Each byte holds 8 vertical pixels, the least significant bit on top, and each page is a row
+ * of width bytes. Primitives are clipped once to the canvas and work on whole bytes where
+ * they can, so nothing is thrown for shapes out of the canvas.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PageCanvas {
+    /**
+     * How blitted source pixels are combined with the canvas.
+     */
+    public enum BlitMode {
+        /**
+         * Sets the source pixels that are on.
+         */
+        Or,
+        /**
+         * Clears the source pixels that are on.
+         */
+        Clear,
+        /**
+         * Inverts the source pixels that are on.
+         */
+        Xor,
+        /**
+         * Replaces the destination with the source rectangle.
+         */
+        Copy
+    }
+
+    private final byte[] mBuffer;
+    private final int mOffset;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPages;
+    private final DirtyRegion mDirty;
+
+    /**
+     * Create a canvas on a page-format buffer.
+     * @param buffer The page-format buffer, at least width * ceil(height / 8) bytes from offset.
+     * @param offset The index of the first pixel byte in the buffer.
+     * @param width The width of the canvas in pixels.
+     * @param height The height of the canvas in pixels, a multiple of 8.
+     */
+    public PageCanvas(byte[] buffer, int offset, int width, int height) {
+        this(buffer, offset, width, height, null);
+    }
+
+    /*package*/ PageCanvas(byte[] buffer, int offset, int width, int height,
+                           DirtyRegion dirty) {
+        if (width <= 0 || height <= 0 || height % 8 != 0) {
+            throw new IllegalArgumentException("Invalid canvas size " + width + "x" + height);
+        }
+        if (offset < 0 || buffer.length - offset < width * (height / 8)) {
+            throw new IllegalArgumentException("Buffer too small for " + width + "x" + height);
+        }
+        mBuffer = buffer;
+        mOffset = offset;
+        mWidth = width;
+        mHeight = height;
+        mPages = height / 8;
+        mDirty = dirty;
+    }
+
+    /**
+     * @return the width of the canvas
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return the height of the canvas
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the backing page-format buffer
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return the index of the first pixel byte in the backing buffer
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Clears or fills the whole canvas.
+     * @param on Set to true to turn every pixel on.
+     */
+    public void fill(boolean on) {
+        Arrays.fill(mBuffer, mOffset, mOffset + mWidth * mPages, on ? (byte) 0xFF : 0);
+        markDirty(0, mWidth - 1, 0, mPages - 1);
+    }
+
+    /**
+     * @return true when the pixel is on, false for pixels out of the canvas.
+     */
+    public boolean getPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+            return false;
+        }
+        return (mBuffer[mOffset + (y >> 3) * mWidth + x] & (1 << (y & 7))) != 0;
+    }
+
+    /**
+     * Sets a pixel on or off. Pixels out of the canvas are ignored.
+     */
+    public void setPixel(int x, int y, boolean on) {
+        if (x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+            return;
+        }
+        int index = mOffset + (y >> 3) * mWidth + x;
+        if (on) {
+            mBuffer[index] |= (byte) (1 << (y & 7));
+        } else {
+            mBuffer[index] &= (byte) ~(1 << (y & 7));
+        }
+        markDirty(x, x, y >> 3, y >> 3);
+    }
+
+    /**
+     * Draws a horizontal line.
+     * @param x The left end of the line.
+     * @param y The row of the line.
+     * @param length The length of the line in pixels.
+     * @param on Set to true to turn the pixels on.
+     */
+    public void drawHLine(int x, int y, int length, boolean on) {
+        if (y < 0 || y >= mHeight) {
+            return;
+        }
+        int x0 = Math.max(0, x);
+        int x1 = Math.min(mWidth, x + length);
+        if (x0 >= x1) {
+            return;
+        }
+        int page = y >> 3;
+        int index = mOffset + page * mWidth + x0;
+        int end = index + (x1 - x0);
+        byte bit = (byte) (1 << (y & 7));
+        if (on) {
+            for (; index < end; index++) {
+                mBuffer[index] |= bit;
+            }
+        } else {
+            byte mask = (byte) ~bit;
+            for (; index < end; index++) {
+                mBuffer[index] &= mask;
+            }
+        }
+        markDirty(x0, x1 - 1, page, page);
+    }
+
+    /**
+     * Draws a vertical line.
+     * @param x The column of the line.
+     * @param y The top end of the line.
+     * @param length The length of the line in pixels.
+     * @param on Set to true to turn the pixels on.
+     */
+    public void drawVLine(int x, int y, int length, boolean on) {
+        fillRect(x, y, 1, length, on);
+    }
+
+    /**
+     * Draws the outline of a rectangle.
+     * @param x The left edge.
+     * @param y The top edge.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param on Set to true to turn the pixels on.
+     */
+    public void drawRect(int x, int y, int width, int height, boolean on) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        drawHLine(x, y, width, on);
+        drawHLine(x, y + height - 1, width, on);
+        drawVLine(x, y, height, on);
+        drawVLine(x + width - 1, y, height, on);
+    }
+
+    /**
+     * Fills a rectangle. Whole 8 pixel columns are written as a byte.
+     * @param x The left edge.
+     * @param y The top edge.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param on Set to true to turn the pixels on.
+     */
+    public void fillRect(int x, int y, int width, int height, boolean on) {
+        int x0 = Math.max(0, x);
+        int x1 = Math.min(mWidth, x + width);
+        int y0 = Math.max(0, y);
+        int y1 = Math.min(mHeight, y + height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        int page0 = y0 >> 3;
+        int page1 = (y1 - 1) >> 3;
+        for (int page = page0; page <= page1; page++) {
+            int mask = 0xFF;
+            if (page == page0) {
+                mask &= 0xFF << (y0 & 7);
+            }
+            if (page == page1) {
+                mask &= 0xFF >> (7 - ((y1 - 1) & 7));
+            }
+            int index = mOffset + page * mWidth + x0;
+            int end = index + (x1 - x0);
+            if (mask == 0xFF) {
+                Arrays.fill(mBuffer, index, end, on ? (byte) 0xFF : 0);
+            } else if (on) {
+                for (; index < end; index++) {
+                    mBuffer[index] |= (byte) mask;
+                }
+            } else {
+                byte clear = (byte) ~mask;
+                for (; index < end; index++) {
+                    mBuffer[index] &= clear;
+                }
+            }
+        }
+        markDirty(x0, x1 - 1, page0, page1);
+    }
+
+    /**
+     * Draws the outline of a circle.
+     * @param cx The horizontal center.
+     * @param cy The vertical center.
+     * @param radius The radius in pixels.
+     * @param on Set to true to turn the pixels on.
+     */
+    public void drawCircle(int cx, int cy, int radius, boolean on) {
+        if (radius < 0) {
+            return;
+        }
+        int x = radius;
+        int y = 0;
+        int error = 1 - radius;
+        while (x >= y) {
+            plot(cx + x, cy + y, on);
+            plot(cx - x, cy + y, on);
+            plot(cx + x, cy - y, on);
+            plot(cx - x, cy - y, on);
+            plot(cx + y, cy + x, on);
+            plot(cx - y, cy + x, on);
+            plot(cx + y, cy - x, on);
+            plot(cx - y, cy - x, on);
+            y++;
+            if (error < 0) {
+                error += 2 * y + 1;
+            } else {
+                x--;
+                error += 2 * (y - x) + 1;
+            }
+        }
+        markDirty(cx - radius, cx + radius, (cy - radius) >> 3, (cy + radius) >> 3);
+    }
+
+    /**
+     * Fills a circle with vertical spans, so every column is written byte-wise.
+     * @param cx The horizontal center.
+     * @param cy The vertical center.
+     * @param radius The radius in pixels.
+     * @param on Set to true to turn the pixels on.
+     */
+    public void fillCircle(int cx, int cy, int radius, boolean on) {
+        if (radius < 0) {
+            return;
+        }
+        fillRect(cx, cy - radius, 1, 2 * radius + 1, on);
+        int error = 1 - radius;
+        int ddx = 1;
+        int ddy = -2 * radius;
+        int x = 0;
+        int y = radius;
+        int px = x;
+        int py = y;
+        while (x < y) {
+            if (error >= 0) {
+                y--;
+                ddy += 2;
+                error += ddy;
+            }
+            x++;
+            ddx += 2;
+            error += ddx;
+            // Skip the columns already drawn.
+            if (x < y + 1) {
+                fillRect(cx + x, cy - y, 1, 2 * y + 1, on);
+                fillRect(cx - x, cy - y, 1, 2 * y + 1, on);
+            }
+            if (y != py) {
+                fillRect(cx + py, cy - px, 1, 2 * px + 1, on);
+                fillRect(cx - py, cy - px, 1, 2 * px + 1, on);
+                py = y;
+            }
+            px = x;
+        }
+    }
+
+    /**
+     * Draws page-format 1bpp data at any position.
+     * @param src The page-format source, srcWidth bytes for each 8 rows.
+     * @param srcWidth The width of the source in pixels.
+     * @param srcHeight The height of the source in pixels.
+     * @param x The horizontal coordinate to draw the source at.
+     * @param y The vertical coordinate to draw the source at.
+     * @param mode How the source pixels are combined with the canvas.
+     */
+    public void blit(byte[] src, int srcWidth, int srcHeight, int x, int y,
+                     BlitMode mode) {
+        blit(src, null, 0, srcWidth, srcHeight, x, y, mode);
+    }
+
+    /**
+     * Draws page-format 1bpp data stored from an offset of a larger array, like a glyph atlas.
+     * @param src The array holding the page-format source.
+     * @param srcOffset The index of the first source byte in the array.
+     * @param srcWidth The width of the source in pixels.
+     * @param srcHeight The height of the source in pixels.
+     * @param x The horizontal coordinate to draw the source at.
+     * @param y The vertical coordinate to draw the source at.
+     * @param mode How the source pixels are combined with the canvas.
+     */
+    public void blit(byte[] src, int srcOffset, int srcWidth, int srcHeight, int x, int y,
+                     BlitMode mode) {
+        blit(src, null, srcOffset, srcWidth, srcHeight, x, y, mode);
+    }
+
+    /**
+     * Draws page-format 1bpp data through a mask. Only the pixels on in the mask are
+     * replaced by the source.
+     * @param src The page-format source, srcWidth bytes for each 8 rows.
+     * @param mask The page-format mask with the same layout as the source.
+     * @param srcWidth The width of the source in pixels.
+     * @param srcHeight The height of the source in pixels.
+     * @param x The horizontal coordinate to draw the source at.
+     * @param y The vertical coordinate to draw the source at.
+     */
+    public void blitMasked(byte[] src, byte[] mask, int srcWidth, int srcHeight, int x, int y) {
+        blit(src, mask, 0, srcWidth, srcHeight, x, y, BlitMode.Copy);
+    }
+
+    private void blit(byte[] src, byte[] mask, int srcOffset, int srcWidth, int srcHeight,
+                      int x, int y, BlitMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Blit mode must not be null");
+        }
+        blit(src, mask, srcOffset, srcWidth, srcHeight, x, y, mode, 0, mWidth, 0, mPages - 1);
+    }
+
+    /**
+     * Blits only into the columns clipX0 up to clipX1 (exclusive) of the pages clipPage0 to
+     * clipPage1, leaving the bytes around them untouched.
+     */
+    /*package*/ void blit(byte[] src, byte[] mask, int srcOffset, int srcWidth, int srcHeight,
+                          int x, int y, BlitMode mode,
+                          int clipX0, int clipX1, int clipPage0, int clipPage1) {
+        int x0 = Math.max(clipX0, x);
+        int x1 = Math.min(clipX1, x + srcWidth);
+        if (x0 >= x1 || y >= (clipPage1 + 1) * 8 || y + srcHeight <= clipPage0 * 8
+                || srcHeight <= 0) {
+            return;
+        }
+
+        int srcPages = (srcHeight + 7) / 8;
+        int lastMask = 0xFF >> ((8 - (srcHeight & 7)) & 7);
+        int dstPage = Math.floorDiv(y, 8);
+        int shift = Math.floorMod(y, 8);
+        int columns = x1 - x0;
+        for (int srcPage = 0; srcPage < srcPages; srcPage++) {
+            int lowPage = dstPage + srcPage;
+            boolean low = lowPage >= clipPage0 && lowPage <= clipPage1;
+            boolean high = shift != 0 && lowPage + 1 >= clipPage0 && lowPage + 1 <= clipPage1;
+            if (!low && !high) {
+                continue;
+            }
+            int rowMask = (srcPage == srcPages - 1) ? lastMask : 0xFF;
+            int srcIndex = srcOffset + srcPage * srcWidth + (x0 - x);
+            int lowIndex = mOffset + lowPage * mWidth + x0;
+            for (int i = 0; i < columns; i++, srcIndex++, lowIndex++) {
+                int m = (mask == null) ? rowMask : (mask[srcIndex - srcOffset] & rowMask);
+                int value = src[srcIndex] & m;
+                if (low) {
+                    apply(lowIndex, (value << shift) & 0xFF, (m << shift) & 0xFF, mode);
+                }
+                if (high) {
+                    apply(lowIndex + mWidth, value >> (8 - shift), m >> (8 - shift), mode);
+                }
+            }
+        }
+        markDirty(x0, x1 - 1, Math.max(dstPage, clipPage0),
+                Math.min((y + srcHeight - 1) >> 3, clipPage1));
+    }
+
+    private void apply(int index, int value, int mask, BlitMode mode) {
+        switch (mode) {
+            case Or:
+                mBuffer[index] |= (byte) value;
+                break;
+            case Clear:
+                mBuffer[index] &= (byte) ~value;
+                break;
+            case Xor:
+                mBuffer[index] ^= (byte) value;
+                break;
+            case Copy:
+                mBuffer[index] = (byte) ((mBuffer[index] & ~mask) | value);
+                break;
+        }
+    }
+
+    private void plot(int x, int y, boolean on) {
+        if (x < 0 || y < 0 || x >= mWidth || y >= mHeight) {
+            return;
+        }
+        int index = mOffset + (y >> 3) * mWidth + x;
+        if (on) {
+            mBuffer[index] |= (byte) (1 << (y & 7));
+        } else {
+            mBuffer[index] &= (byte) ~(1 << (y & 7));
+        }
+    }
+
+    /*package*/ void markDirty(int x0, int x1, int page0, int page1) {
+        if (mDirty != null) {
+            mDirty.add(x0, x1, page0, page1);
+        }
+    }
+}
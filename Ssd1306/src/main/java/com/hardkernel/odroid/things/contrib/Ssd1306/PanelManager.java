@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flushes several displays, grouped by the bus they are on.
+ * Each bus has a thread writing the frames of its panels one after the other, so panels
+ * on different buses are written at the same time. Frames shown faster than a panel is
+ * written are coalesced, the latest one wins.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PanelManager implements Closeable {
+    private static final String TAG = "PanelManager";
+
+    /**
+     * Panels sharing a bus and the thread writing them.
+     */
+    private static final class Bus {
+        final String name;
+        final List<Ssd1306> panels = new ArrayList<>();
+        Thread thread;
+        boolean signaled;
+        boolean running = true;
+
+        Bus(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Bus> mBuses = new HashMap<>();
+    private final Map<Ssd1306, Bus> mPanels = new HashMap<>();
+
+    /**
+     * Adds a panel. Its frames are written by the thread of its bus.
+     * The panel must not run its own flush thread.
+     * @param display The panel to add.
+     */
+    public synchronized void addPanel(Ssd1306 display) {
+        if (mPanels.containsKey(display)) {
+            return;
+        }
+        String name = display.getBusName();
+        Bus bus = mBuses.get(name);
+        if (bus == null) {
+            bus = new Bus(name);
+            mBuses.put(name, bus);
+            Bus started = bus;
+            bus.thread = new Thread(() -> runBus(started), TAG + "-" + name);
+            bus.thread.start();
+        }
+        synchronized (bus) {
+            bus.panels.add(display);
+        }
+        mPanels.put(display, bus);
+    }
+
+    /**
+     * Removes a panel. A frame already shown may still be written.
+     * @param display The panel to remove.
+     */
+    public void removePanel(Ssd1306 display) {
+        Bus bus;
+        synchronized (this) {
+            bus = mPanels.remove(display);
+            if (bus == null) {
+                return;
+            }
+            synchronized (bus) {
+                bus.panels.remove(display);
+                if (!bus.panels.isEmpty()) {
+                    return;
+                }
+                bus.running = false;
+                bus.notifyAll();
+            }
+            mBuses.remove(bus.name);
+        }
+        join(bus.thread);
+    }
+
+    /**
+     * @return the number of bus threads.
+     */
+    public synchronized int getBusCount() {
+        return mBuses.size();
+    }
+
+    /**
+     * Hands the changes of the panel buffer to its bus thread and returns without waiting.
+     * Drawing can go on in the panel buffer right away.
+     * @param display The panel to show.
+     */
+    public void show(Ssd1306 display) {
+        Bus bus;
+        synchronized (this) {
+            bus = mPanels.get(display);
+        }
+        if (bus == null) {
+            throw new IllegalArgumentException("Panel not added");
+        }
+        if (display.publishFrame()) {
+            synchronized (bus) {
+                bus.signaled = true;
+                bus.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Shows every panel.
+     */
+    public void showAll() {
+        List<Ssd1306> panels;
+        synchronized (this) {
+            panels = new ArrayList<>(mPanels.keySet());
+        }
+        for (Ssd1306 display : panels) {
+            show(display);
+        }
+    }
+
+    /**
+     * Stops the bus threads after the frames already shown are written.
+     * The panels are not closed.
+     */
+    @Override
+    public void close() {
+        List<Bus> buses;
+        synchronized (this) {
+            buses = new ArrayList<>(mBuses.values());
+            mBuses.clear();
+            mPanels.clear();
+        }
+        for (Bus bus : buses) {
+            synchronized (bus) {
+                bus.running = false;
+                bus.notifyAll();
+            }
+        }
+        for (Bus bus : buses) {
+            join(bus.thread);
+        }
+    }
+
+    private void runBus(Bus bus) {
+        List<Ssd1306> panels = new ArrayList<>();
+        while (true) {
+            synchronized (bus) {
+                while (bus.running && !bus.signaled) {
+                    try {
+                        bus.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!bus.signaled) {
+                    return;
+                }
+                bus.signaled = false;
+                panels.clear();
+                panels.addAll(bus.panels);
+            }
+
+            // Frames shown while these are written signal the bus again.
+            for (Ssd1306 display : panels) {
+                try {
+                    display.flushPending();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Unable to flush panel on " + bus.name, e);
+                }
+            }
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import java.util.Arrays;
+
+/**
+ * Counters of the frames written to a display, with the start time and latency of the
+ * recent frames for the frame rate and latency percentiles.
+ */
+final class RenderStats {
+    private static final int WINDOW = 256;
+
+    private long mFrames;
+    private long mBytes;
+    private long mTransactions;
+    private long mBytesAtLastFrame;
+    private long mLastFrameBytes;
+
+    // Ring of the recent frames.
+    private final long[] mStarts = new long[WINDOW];
+    private final long[] mLatencies = new long[WINDOW];
+    private final long[] mSorted = new long[WINDOW];
+    private int mNext;
+    private int mCount;
+
+    synchronized void addTransaction(int bytes) {
+        mTransactions++;
+        mBytes += bytes;
+    }
+
+    synchronized void addFrame(long start, long latency) {
+        mFrames++;
+        mLastFrameBytes = mBytes - mBytesAtLastFrame;
+        mBytesAtLastFrame = mBytes;
+        mStarts[mNext] = start;
+        mLatencies[mNext] = latency;
+        mNext = (mNext + 1) % WINDOW;
+        if (mCount < WINDOW) {
+            mCount++;
+        }
+    }
+
+    synchronized long getFrames() {
+        return mFrames;
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    synchronized long getTransactions() {
+        return mTransactions;
+    }
+
+    synchronized long getLastFrameBytes() {
+        return mLastFrameBytes;
+    }
+
+    synchronized float getFrameRate() {
+        if (mCount < 2) {
+            return 0;
+        }
+        long newest = mStarts[(mNext + WINDOW - 1) % WINDOW];
+        long oldest = mStarts[(mNext + WINDOW - mCount) % WINDOW];
+        if (newest == oldest) {
+            return 0;
+        }
+        return (mCount - 1) * 1e9f / (newest - oldest);
+    }
+
+    synchronized long getLatency(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        System.arraycopy(mLatencies, 0, mSorted, 0, mCount);
+        Arrays.sort(mSorted, 0, mCount);
+        int index = (int) Math.ceil(percentile / 100 * mCount) - 1;
+        return mSorted[Math.max(0, Math.min(index, mCount - 1))];
+    }
+
+    synchronized void reset() {
+        mFrames = 0;
+        mBytes = 0;
+        mTransactions = 0;
+        mBytesAtLastFrame = 0;
+        mLastFrameBytes = 0;
+        mNext = 0;
+        mCount = 0;
+    }
+}
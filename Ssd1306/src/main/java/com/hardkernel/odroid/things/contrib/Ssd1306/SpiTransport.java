@@ -0,0 +1,192 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import android.os.SystemClock;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.PeripheralManager;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * SSD1306 transport over 4-wire SPI. The D/C pin selects commands (low) or display data
+ * (high), and data is streamed in chunks as large as the SPI driver takes.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SpiTransport implements DisplayTransport {
+    /**
+     * Default SPI clock. The SSD1306 serial clock cycle is 100ns at least.
+     */
+    public static final int DEFAULT_FREQUENCY = 8000000;
+    /**
+     * Default transfer size, the default buffer size of the Linux spidev driver.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private SpiDevice mDevice;
+    private Gpio mDcGpio;
+    private Gpio mResetGpio;
+    private final String mBusName;
+
+    private byte[] mChunk;
+    // Last level set on the D/C pin, so it is only switched when needed.
+    private boolean mDataMode;
+    private volatile Runnable mResetListener;
+
+    /**
+     * Opens the display on the named SPI device with a D/C pin and no reset pin.
+     * @param spiName SPI device name the display is connected to
+     * @param dcGpioName GPIO name of the D/C pin
+     * @throws IOException
+     */
+    public SpiTransport(String spiName, String dcGpioName) throws IOException {
+        this(spiName, dcGpioName, null, DEFAULT_FREQUENCY);
+    }
+
+    /**
+     * Opens the display on the named SPI device and resets it.
+     * @param spiName SPI device name the display is connected to
+     * @param dcGpioName GPIO name of the D/C pin
+     * @param resetGpioName GPIO name of the RES pin, null when it is not wired
+     * @param frequency SPI clock frequency in Hz
+     * @throws IOException
+     */
+    public SpiTransport(String spiName, String dcGpioName, String resetGpioName, int frequency)
+            throws IOException {
+        mBusName = spiName;
+        PeripheralManager manager = PeripheralManager.getInstance();
+        try {
+            mDevice = manager.openSpiDevice(spiName);
+            mDevice.setMode(SpiDevice.MODE0);
+            mDevice.setBitsPerWord(8);
+            mDevice.setFrequency(frequency);
+            mDevice.setBitJustification(SpiDevice.BIT_JUSTIFICATION_MSB_FIRST);
+
+            mDcGpio = manager.openGpio(dcGpioName);
+            mDcGpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+            mDataMode = false;
+
+            if (resetGpioName != null) {
+                mResetGpio = manager.openGpio(resetGpioName);
+                mResetGpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
+                reset();
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                close();
+            } catch (IOException | RuntimeException ignored) {
+            }
+            throw e;
+        }
+        setChunkSize(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Sets the largest single SPI transfer. Raise it when the SPI driver buffer is larger,
+     * so a whole frame goes out in one transfer.
+     * @param bytes The transfer size in bytes.
+     */
+    public void setChunkSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + bytes);
+        }
+        mChunk = new byte[bytes];
+    }
+
+    /**
+     * Pulses the RES pin. The display has to be initialized again afterwards.
+     * @throws IOException
+     */
+    public void reset() throws IOException {
+        if (mResetGpio == null) {
+            return;
+        }
+        // RES low for 3us at least, and the panel is ready in a few us after RES goes high.
+        mResetGpio.setValue(false);
+        SystemClock.sleep(1);
+        mResetGpio.setValue(true);
+        SystemClock.sleep(1);
+        Runnable listener = mResetListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void setResetListener(Runnable listener) {
+        mResetListener = listener;
+    }
+
+    @Override
+    public void writeCommands(byte[] buffer, int length) throws IOException {
+        write(buffer, length, false);
+    }
+
+    @Override
+    public void writeData(byte[] buffer, int length) throws IOException {
+        write(buffer, length, true);
+    }
+
+    private void write(byte[] buffer, int length, boolean data) throws IOException {
+        if (mDevice == null) {
+            throw new IllegalStateException("SPI Device not open");
+        }
+        if (mDataMode != data) {
+            mDcGpio.setValue(data);
+            mDataMode = data;
+        }
+        // SpiDevice.write() has no offset, so skip the reserved byte through the chunk buffer.
+        for (int offset = 1; offset < length; ) {
+            int count = Math.min(mChunk.length, length - offset);
+            System.arraycopy(buffer, offset, mChunk, 0, count);
+            mDevice.write(mChunk, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public String getBusName() {
+        return mBusName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mDevice != null) {
+                mDevice.close();
+            }
+        } finally {
+            mDevice = null;
+            try {
+                if (mDcGpio != null) {
+                    mDcGpio.close();
+                }
+            } finally {
+                mDcGpio = null;
+                if (mResetGpio != null) {
+                    try {
+                        mResetGpio.close();
+                    } finally {
+                        mResetGpio = null;
+                    }
+                }
+            }
+        }
+    }
+}
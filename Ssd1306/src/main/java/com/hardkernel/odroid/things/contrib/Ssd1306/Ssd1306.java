@@ -16,23 +16,22 @@
 
 package com.hardkernel.odroid.things.contrib.Ssd1306;
 
-import android.graphics.Bitmap;
+import android.util.Log;
 
 import com.google.android.things.pio.I2cDevice;
-import com.google.android.things.pio.PeripheralManager;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
 
 /**
- * Driver for controlling the SSD1306 OLED display.
+ * Driver for controlling the SSD1306 OLED display over I2C or SPI.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class Ssd1306 implements Closeable {
     private static final String TAG = "Ssd1306";
 
-    private I2cDevice mI2cDevice;
+    private DisplayTransport mTransport;
 
     // Screen configuration constants.
     private static final int DEFAULT_WIDTH = 128;
@@ -73,6 +72,8 @@ public class Ssd1306 implements Closeable {
     private static final int COMMAND_INVERSE_DISPLAY = 0xA7;
     private static final int COMMAND_COMSCAN_INC = 0xC0;
     private static final int COMMAND_COMSCAN_DEC = 0xC8;
+    private static final int COMMAND_COLUMN_ADDRESS = 0x21;
+    private static final int COMMAND_PAGE_ADDRESS = 0x22;
     private static final int DATA_OFFSET = 1;
     private static final int INIT_CHARGE_PUMP = 0x8D;
     private static final int INIT_CLK_DIV = 0xD5;
@@ -87,6 +88,9 @@ public class Ssd1306 implements Closeable {
 
     private static final byte SSD1306_DISPLAY_WRITE = (byte) 0xA4;
 
+    // Bytes worth sending instead of another address window: command and data transactions.
+    private static final int WINDOW_OVERHEAD = 12;
+
     private static final byte[] INIT_PAYLOAD = new byte[]{
             // Step 1: Start with the display off
             0, (byte) COMMAND_DISPLAY_OFF,
@@ -120,9 +124,41 @@ public class Ssd1306 implements Closeable {
     private int mWidth;
     private int mHeight;
 
-    // Holds the i2c payload.
+    // Holds the display payload, pixel data starts at DATA_OFFSET.
     private byte[] mBuffer;
 
+    // Changed part of mBuffer since the last show().
+    private DirtyRegion mDirty;
+    private PageCanvas mCanvas;
+
+    // Holds address window commands and partial data payloads. The first byte of each is
+    // reserved for the transport. Queued settings commands go ahead of the first window
+    // command of a frame, mWindowPrefix is their length.
+    private final byte[] mWindowCommand = new byte[1 + CommandQueue.MAX_LENGTH + 6];
+    private int mWindowPrefix;
+    private byte[] mWindowData;
+
+    // Settings changes sent with the next frame.
+    private final CommandQueue mCommands = new CommandQueue();
+
+    // Frames, bytes and flush latency counters.
+    private final RenderStats mStats = new RenderStats();
+
+    // Keeps multi-transaction commands from being split by the flush thread.
+    private final Object mBusLock = new Object();
+
+    // Double-buffered mode. mBuffer is the back buffer the application draws into,
+    // swap() publishes it to mPendingBuffer, and the flush thread copies the latest
+    // pending frame into mFlushBuffer and writes it to the display.
+    private final Object mFrameLock = new Object();
+    private byte[] mPendingBuffer;
+    private DirtyRegion mPendingDirty;
+    private byte[] mFlushBuffer;
+    private DirtyRegion mFlushDirty;
+    private Thread mFlushThread;
+    private volatile boolean mFlushRunning;
+    private volatile long mFrameIntervalNanos;
+
     /**
      * Create a new Ssd1306 driver connected to the named I2C bus
      * @param i2cName I2C bus name the display is connected to
@@ -164,9 +200,20 @@ public class Ssd1306 implements Closeable {
      * @throws IOException
      */
     public Ssd1306(String i2cName, int i2cAddress, int width, int height) throws IOException {
-        I2cDevice device = PeripheralManager.getInstance().openI2cDevice(i2cName, i2cAddress);
+        this(new I2cTransport(i2cName, i2cAddress), width, height);
+    }
+
+    /**
+     * Create a new Ssd1306 driver on the given transport with the given dimensions,
+     * like a {@link SpiTransport} for displays wired to SPI.
+     * @param transport transport to the display. The driver closes it.
+     * @param width display width in pixels.
+     * @param height display height in pixels.
+     * @throws IOException
+     */
+    public Ssd1306(DisplayTransport transport, int width, int height) throws IOException {
         try {
-            init(device, width, height);
+            init(transport, width, height);
         } catch (IOException | RuntimeException e) {
             try {
                 close();
@@ -182,7 +229,7 @@ public class Ssd1306 implements Closeable {
      * @throws IOException
      */
     /*package*/ Ssd1306(I2cDevice device) throws IOException {
-        init(device, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+        init(new I2cTransport(device), DEFAULT_WIDTH, DEFAULT_HEIGHT);
     }
 
     /**
@@ -190,28 +237,35 @@ public class Ssd1306 implements Closeable {
      * WARNING: If you change this code, power cycle your display before testing.
      * @throws IOException
      */
-    private void init(I2cDevice device, int width, int height) throws IOException {
-        mI2cDevice = device;
+    private void init(DisplayTransport transport, int width, int height) throws IOException {
+        mTransport = transport;
         mWidth = width;
         mHeight = height;
         mBuffer = new byte[((mWidth * mHeight) / 8) + 1];
-        BitmapHelper.bmpToBytes(mBuffer, DATA_OFFSET,
-                Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888),
-                false);
         mBuffer[0] = (byte) COMMAND_START_LINE;
+        mWindowData = new byte[mBuffer.length];
+        mDirty = new DirtyRegion(mWidth, mHeight / 8);
+        // Display RAM is unknown after power on, the first show() writes everything.
+        mDirty.addAll();
+        mCanvas = new PageCanvas(mBuffer, DATA_OFFSET, mWidth, mHeight, mDirty);
+        mCommands.forgetAll();
+        transport.setResetListener(this::invalidate);
 
         // Recommended initialization sequence based on http://goo.gl/VSu0C8
-        mI2cDevice.write(INIT_PAYLOAD, INIT_PAYLOAD.length);
+        byte[] payload = INIT_PAYLOAD.clone();
+        writeCommands(payload, payload.length);
         stopScroll();
+        flushCommands();
     }
 
     @Override
     public void close() throws IOException {
-        if (mI2cDevice != null) {
+        stopFlushThread();
+        if (mTransport != null) {
             try {
-                mI2cDevice.close();
+                mTransport.close();
             } finally {
-                mI2cDevice = null;
+                mTransport = null;
             }
         }
     }
@@ -236,6 +290,30 @@ public class Ssd1306 implements Closeable {
      */
     public void clearPixels() {
         Arrays.fill(mBuffer, DATA_OFFSET, mBuffer.length, (byte) 0);
+        mDirty.addAll();
+    }
+
+    /**
+     * Marks the whole display buffer as changed, so the next {@link #show()} writes all of it.
+     * Use it when the display RAM lost its content, like after a power cycle of the panel.
+     * The settings sent before are forgotten as well, so setting them again is not dropped.
+     * It is called by itself when the transport resets the display.
+     */
+    public void invalidate() {
+        mCommands.forgetAll();
+        mDirty.addAll();
+    }
+
+    /**
+     * Marks a rectangle of the display buffer as changed.
+     *
+     * @param x The horizontal coordinate of the left edge.
+     * @param y The vertical coordinate of the top edge.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     */
+    public void invalidate(int x, int y, int width, int height) {
+        mDirty.addRect(x, y, width, height);
     }
 
     /**
@@ -255,111 +333,477 @@ public class Ssd1306 implements Closeable {
         } else {
             mBuffer[DATA_OFFSET + x + ((y / 8) * mWidth)] &= ~(1 << y % 8);
         }
+        mDirty.add(x, y / 8);
+    }
+
+    /**
+     * @return the drawing canvas on the display buffer. Drawings are rendered the next time
+     * {@link #show()} is called, and only their region is written.
+     */
+    public PageCanvas getCanvas() {
+        return mCanvas;
     }
 
     /**
      * Sets the contrast for the display.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
      *
      * @param level The contrast level (0-255).
      * @throws IllegalStateException
      * @throws IllegalArgumentException
      */
     public void setContrast(int level) throws IOException, IllegalArgumentException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C Device not open");
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
         if (level < 0 || level > 255) {
             throw new IllegalArgumentException("Invalid contrast " + String.valueOf(level) +
                     ", level must be between 0 and 255");
         }
-        mI2cDevice.writeRegByte(0, (byte) COMMAND_CONTRAST_LEVEL);
-        mI2cDevice.writeRegByte(0, (byte) level);
+        mCommands.put(CommandQueue.SLOT_CONTRAST, COMMAND_CONTRAST_LEVEL, level);
     }
 
+    /**
+     * Sets the display RAM row shown at the top of the display. The RAM is a ring of 64 rows,
+     * so this pans the picture vertically without writing it again.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
+     *
+     * @param line The RAM row (0-63).
+     * @throws IllegalStateException
+     * @throws IllegalArgumentException
+     */
+    public void setStartLine(int line) throws IllegalArgumentException {
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
+        }
+        if (line < 0 || line > 63) {
+            throw new IllegalArgumentException("Invalid start line " + line);
+        }
+        mCommands.put(CommandQueue.SLOT_START_LINE, COMMAND_START_LINE | line);
+    }
 
     /**
      * Turns the display on and off.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
      *
      * @param on Set to true to enable the display; set to false to disable the display.
      * @throws IOException
      * @throws IllegalStateException
      */
     public void setDisplayOn(boolean on) throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C Device not open");
-        }
-        if (on) {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_DISPLAY_ON);
-        } else {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_DISPLAY_OFF);
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
+        mCommands.put(CommandQueue.SLOT_DISPLAY, on ? COMMAND_DISPLAY_ON : COMMAND_DISPLAY_OFF);
     }
 
     /**
      * Display Color Inverse / Normal.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
      *
      * @param on Set to Inverse Display color.
      * @throws IOException
      * @throws IllegalStateException
      */
     public void setDisplayInverse(boolean on) throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-        if (on) {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_INVERSE_DISPLAY);
-        } else {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_NORMAL_DISPLAY);
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
+        mCommands.put(CommandQueue.SLOT_INVERSE, on ? COMMAND_INVERSE_DISPLAY : COMMAND_NORMAL_DISPLAY);
     }
 
     /**
      * Flip display on/off.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
      *
      * @param on Flip display.
      * @throws IOException
      * @throws IllegalStateException
      */
     public void setDisplayFlip(boolean on) throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-        if (on) {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_COMSCAN_INC);
-        } else {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_COMSCAN_DEC);
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
+        mCommands.put(CommandQueue.SLOT_FLIP, on ? COMMAND_COMSCAN_INC : COMMAND_COMSCAN_DEC);
     }
 
     /**
      * Mirror display on/off.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
      * @param on Mirror display.
      * @throws IOException
      * @throws IllegalStateException
      */
     public void setDisplayMirror(boolean on) throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-        if (on) {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_NOSEGREMAP);
-        } else {
-            mI2cDevice.writeRegByte(0, (byte) COMMAND_SEGREMAP);
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
+        mCommands.put(CommandQueue.SLOT_MIRROR, on ? COMMAND_NOSEGREMAP : COMMAND_SEGREMAP);
     }
 
     /**
      * Renders the current pixel data to the screen.
+     * Only the pages and columns changed since the last call are written, and queued settings
+     * commands go in the same command transaction as the first address window.
+     * While the flush thread runs, this hands the frame to it like {@link #swap()}.
      *
      * @throws IOException
      * @throws IllegalStateException
      */
     public void show() throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C Device not open");
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
+        }
+        synchronized (mFrameLock) {
+            if (mFlushThread != null) {
+                swap();
+                return;
+            }
+        }
+        flush(mBuffer, mDirty);
+        mDirty.clear();
+    }
+
+    /**
+     * Starts double-buffered mode. The display buffer becomes a back buffer, and
+     * {@link #swap()} hands its content to a dedicated thread that writes it to the display.
+     * Frames swapped faster than the frame rate are coalesced, the latest one wins.
+     *
+     * @param maxFrameRate The maximum frames per second written to the display,
+     *                     0 for no limit.
+     * @throws IllegalStateException
+     */
+    public void startFlushThread(int maxFrameRate) throws IllegalStateException {
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
+        }
+        if (maxFrameRate < 0) {
+            throw new IllegalArgumentException("Invalid frame rate " + maxFrameRate);
+        }
+        synchronized (mFrameLock) {
+            mFrameIntervalNanos = (maxFrameRate == 0) ? 0 : 1000000000L / maxFrameRate;
+            if (mFlushThread != null) {
+                return;
+            }
+            createFrameBuffers();
+            mFlushRunning = true;
+            mFlushThread = new Thread(this::runFlushThread, TAG + "-flush");
+            mFlushThread.start();
         }
-        mI2cDevice.writeRegByte(0, SSD1306_DISPLAY_WRITE);
-        mI2cDevice.write(mBuffer, mBuffer.length);
+    }
+
+    /**
+     * Stops double-buffered mode. A frame already swapped is written before the thread ends.
+     */
+    public void stopFlushThread() {
+        Thread thread;
+        synchronized (mFrameLock) {
+            thread = mFlushThread;
+            if (thread == null) {
+                return;
+            }
+            mFlushRunning = false;
+            mFrameLock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mFrameLock) {
+            mFlushThread = null;
+        }
+    }
+
+    /**
+     * Hands the back buffer to the flush thread and returns without waiting for the bus.
+     * Drawing can go on in the back buffer right away.
+     *
+     * @throws IllegalStateException
+     */
+    public void swap() throws IllegalStateException {
+        synchronized (mFrameLock) {
+            if (mFlushThread == null) {
+                throw new IllegalStateException("Flush thread not started");
+            }
+            if (publishFrame()) {
+                mFrameLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Merges the changes of the back buffer into the pending frame.
+     * @return true when there is a pending frame or pending commands to flush.
+     */
+    /*package*/ boolean publishFrame() {
+        synchronized (mFrameLock) {
+            if (mDirty.isEmpty() && mCommands.isEmpty()) {
+                return false;
+            }
+            createFrameBuffers();
+            copyRegion(mBuffer, mPendingBuffer, mDirty);
+            mPendingDirty.add(mDirty);
+            mDirty.clear();
+            return true;
+        }
+    }
+
+    /**
+     * Writes the latest pending frame and the queued commands to the display.
+     */
+    /*package*/ void flushPending() throws IOException {
+        synchronized (mBusLock) {
+            synchronized (mFrameLock) {
+                if (mPendingDirty == null) {
+                    return;
+                }
+                copyRegion(mPendingBuffer, mFlushBuffer, mPendingDirty);
+                mFlushDirty.set(mPendingDirty);
+                mPendingDirty.clear();
+            }
+            flush(mFlushBuffer, mFlushDirty);
+        }
+    }
+
+    /**
+     * @return the name of the bus the display is on
+     */
+    /*package*/ String getBusName() {
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
+        }
+        return mTransport.getBusName();
+    }
+
+    private void createFrameBuffers() {
+        if (mPendingBuffer == null) {
+            mPendingBuffer = new byte[mBuffer.length];
+            mFlushBuffer = new byte[mBuffer.length];
+            mPendingDirty = new DirtyRegion(mWidth, mHeight / 8);
+            mFlushDirty = new DirtyRegion(mWidth, mHeight / 8);
+        }
+    }
+
+    private void runFlushThread() {
+        long lastFlush = System.nanoTime() - mFrameIntervalNanos;
+        while (true) {
+            synchronized (mFrameLock) {
+                while (mFlushRunning && mPendingDirty.isEmpty() && mCommands.isEmpty()) {
+                    try {
+                        mFrameLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mPendingDirty.isEmpty() && mCommands.isEmpty()) {
+                    return;
+                }
+            }
+
+            // Frame rate cap. Frames swapped while waiting are merged into the pending one.
+            long wait = lastFlush + mFrameIntervalNanos - System.nanoTime();
+            if (wait > 0 && mFlushRunning) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            lastFlush = System.nanoTime();
+            try {
+                flushPending();
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Unable to flush frame", e);
+            }
+        }
+    }
+
+    /**
+     * Copies the changed part of a page-format buffer into another one.
+     */
+    private void copyRegion(byte[] src, byte[] dst, DirtyRegion region) {
+        for (int page = 0; page < region.getPages(); page++) {
+            if (region.isDirty(page)) {
+                int start = DATA_OFFSET + page * mWidth + region.getStart(page);
+                System.arraycopy(src, start, dst, start,
+                        region.getEnd(page) - region.getStart(page) + 1);
+            }
+        }
+    }
+
+    /**
+     * Writes the changed part of the page-format buffer to the display RAM.
+     * Neighbor pages are written in one address window when it costs less than
+     * another window.
+     *
+     * @param buffer The display buffer, pixel data starts at {@link #DATA_OFFSET}.
+     * @param dirty The changed part of the buffer.
+     */
+    private void flush(byte[] buffer, DirtyRegion dirty) throws IOException {
+        if (dirty.isEmpty() && mCommands.isEmpty()) {
+            return;
+        }
+        synchronized (mBusLock) {
+            long start = System.nanoTime();
+            mWindowPrefix = mCommands.drain(mWindowCommand, 1);
+            if (dirty.isEmpty()) {
+                // Commands alone like a start line change still change what is shown.
+                writeCommands(mWindowCommand, 1 + mWindowPrefix);
+            } else {
+                flushWindows(buffer, dirty);
+            }
+            mTransport.endFrame();
+            mStats.addFrame(start, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sends the queued settings commands now, in one command transaction, instead of with
+     * the next {@link #show()}.
+     *
+     * @throws IOException
+     * @throws IllegalStateException
+     */
+    public void flushCommands() throws IOException, IllegalStateException {
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
+        }
+        synchronized (mBusLock) {
+            int length = mCommands.drain(mWindowCommand, 1);
+            if (length > 0) {
+                writeCommands(mWindowCommand, 1 + length);
+            }
+        }
+    }
+
+    private void flushWindows(byte[] buffer, DirtyRegion dirty) throws IOException {
+
+        int pages = dirty.getPages();
+        int bandFirst = -1;
+        int bandLast = -1;
+        int bandStart = 0;
+        int bandEnd = 0;
+        for (int page = 0; page < pages; page++) {
+            if (!dirty.isDirty(page)) {
+                continue;
+            }
+            int start = dirty.getStart(page);
+            int end = dirty.getEnd(page);
+            if (bandFirst >= 0) {
+                if (page == bandLast + 1) {
+                    int mergedStart = Math.min(bandStart, start);
+                    int mergedEnd = Math.max(bandEnd, end);
+                    int merged = (page - bandFirst + 1) * (mergedEnd - mergedStart + 1);
+                    int separate = (bandLast - bandFirst + 1) * (bandEnd - bandStart + 1)
+                            + WINDOW_OVERHEAD + (end - start + 1);
+                    if (merged <= separate) {
+                        bandLast = page;
+                        bandStart = mergedStart;
+                        bandEnd = mergedEnd;
+                        continue;
+                    }
+                }
+                writeWindow(buffer, bandFirst, bandLast, bandStart, bandEnd);
+            }
+            bandFirst = page;
+            bandLast = page;
+            bandStart = start;
+            bandEnd = end;
+        }
+        writeWindow(buffer, bandFirst, bandLast, bandStart, bandEnd);
+    }
+
+    /**
+     * Sets the address window and writes its pixel data from the buffer.
+     * The window command follows the queued commands drained into mWindowCommand.
+     */
+    private void writeWindow(byte[] buffer, int page0, int page1, int x0, int x1)
+            throws IOException {
+        int index = 1 + mWindowPrefix;
+        mWindowCommand[index++] = (byte) COMMAND_COLUMN_ADDRESS;
+        mWindowCommand[index++] = (byte) x0;
+        mWindowCommand[index++] = (byte) x1;
+        mWindowCommand[index++] = (byte) COMMAND_PAGE_ADDRESS;
+        mWindowCommand[index++] = (byte) page0;
+        mWindowCommand[index++] = (byte) page1;
+        writeCommands(mWindowCommand, index);
+        mWindowPrefix = 0;
+
+        int columns = x1 - x0 + 1;
+        int length = DATA_OFFSET;
+        for (int page = page0; page <= page1; page++) {
+            System.arraycopy(buffer, DATA_OFFSET + page * mWidth + x0,
+                    mWindowData, length, columns);
+            length += columns;
+        }
+        writeData(mWindowData, length);
+    }
+
+    private void writeCommands(byte[] buffer, int length) throws IOException {
+        mTransport.writeCommands(buffer, length);
+        mStats.addTransaction(length - 1);
+    }
+
+    private void writeData(byte[] buffer, int length) throws IOException {
+        mTransport.writeData(buffer, length);
+        mStats.addTransaction(length - 1);
+    }
+
+    /**
+     * @return the number of frames written to the display
+     */
+    public long getFrameCount() {
+        return mStats.getFrames();
+    }
+
+    /**
+     * @return the command and data bytes sent to the display, control bytes not included
+     */
+    public long getBytesSent() {
+        return mStats.getBytes();
+    }
+
+    /**
+     * @return the number of bus transactions sent to the display
+     */
+    public long getTransactionCount() {
+        return mStats.getTransactions();
+    }
+
+    /**
+     * @return the bytes sent for the last frame, commands sent since the frame before included
+     */
+    public long getLastFrameBytes() {
+        return mStats.getLastFrameBytes();
+    }
+
+    /**
+     * @return the frames per second written over the recent frames
+     */
+    public float getFrameRate() {
+        return mStats.getFrameRate();
+    }
+
+    /**
+     * Returns a percentile of the time taken to write a frame, over the recent frames.
+     *
+     * @param percentile The percentile (0-100), like 50 for the median.
+     * @return The flush latency in nanoseconds, 0 when no frame was written.
+     */
+    public long getFlushLatency(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        }
+        return mStats.getLatency(percentile);
+    }
+
+    /**
+     * Resets the frame, byte and latency counters.
+     */
+    public void resetStats() {
+        mStats.reset();
     }
 
     /**
@@ -373,8 +817,8 @@ public class Ssd1306 implements Closeable {
      */
     public void startScroll(int startY, int finishY, ScrollMode scrollMode)
             throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C Device not open");
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
 
         int scrollModeVal = 0;
@@ -405,19 +849,25 @@ public class Ssd1306 implements Closeable {
                 0, (byte) 0xFF,
                 0, COMMAND_ACTIVATE_SCROLL
         };
-        mI2cDevice.write(payload, payload.length);
+        synchronized (mBusLock) {
+            // Queued commands go first, a queued stopScroll() must not end this scroll.
+            flushCommands();
+            writeCommands(payload, payload.length);
+            mCommands.forget(CommandQueue.SLOT_SCROLL);
+        }
     }
 
     /**
-     * Stop scrolling the display
+     * Stop scrolling the display.
+     * The command is sent with the next {@link #show()} or {@link #flushCommands()}.
      *
      * @throws IOException
      * @throws IllegalStateException
      */
     public void stopScroll() throws IOException, IllegalStateException {
-        if (mI2cDevice == null) {
-            throw new IllegalStateException("I2C Device not open");
+        if (mTransport == null) {
+            throw new IllegalStateException("Display not open");
         }
-        mI2cDevice.writeRegByte(0, (byte) COMMAND_DEACTIVATE_SCROLL);
+        mCommands.put(CommandQueue.SLOT_SCROLL, COMMAND_DEACTIVATE_SCROLL);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import java.io.IOException;
+
+/**
+ * Canvas larger than the display, shown through a viewport that can be panned.
+ * Vertical panning moves the display start line over the 64 rows of display RAM, so only
+ * the rows the viewport newly exposes are written. On displays shorter than 64 rows the
+ * viewport is copied instead, and still only the changed bytes are written.
+ * The display buffer belongs to the virtual canvas while it is used.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VirtualCanvas {
+    // Rows of SSD1306 display RAM, the ring the start line points into.
+    private static final int RAM_ROWS = 64;
+
+    private final Ssd1306 mDisplay;
+    private final PageCanvas mDisplayCanvas;
+    private final int mDisplayWidth;
+    private final int mDisplayPages;
+    private final boolean mStartLinePanning;
+
+    private final byte[] mBuffer;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPages;
+    private final DirtyRegion mDirty;
+    private final PageCanvas mCanvas;
+
+    private int mScrollX;
+    private int mScrollY;
+    private boolean mMoved = true;
+
+    /**
+     * Creates a virtual canvas for the display.
+     * @param display The display to show the canvas on.
+     * @param width The canvas width, at least the display width.
+     * @param height The canvas height, at least the display height and a multiple of 8.
+     */
+    public VirtualCanvas(Ssd1306 display, int width, int height) {
+        mDisplay = display;
+        mDisplayCanvas = display.getCanvas();
+        mDisplayWidth = mDisplayCanvas.getWidth();
+        mDisplayPages = mDisplayCanvas.getHeight() / 8;
+        if (width < mDisplayWidth || height < mDisplayCanvas.getHeight()) {
+            throw new IllegalArgumentException("Canvas smaller than the display: "
+                    + width + "x" + height);
+        }
+        mStartLinePanning = mDisplayCanvas.getHeight() == RAM_ROWS;
+
+        mWidth = width;
+        mHeight = height;
+        mPages = height / 8;
+        mBuffer = new byte[width * mPages];
+        mDirty = new DirtyRegion(width, mPages);
+        mCanvas = new PageCanvas(mBuffer, 0, width, height, mDirty);
+    }
+
+    /**
+     * @return the canvas to draw on. Drawings are shown with the next {@link #show()}.
+     */
+    public PageCanvas getCanvas() {
+        return mCanvas;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the canvas column at the left edge of the display
+     */
+    public int getScrollX() {
+        return mScrollX;
+    }
+
+    /**
+     * @return the canvas row at the top of the display
+     */
+    public int getScrollY() {
+        return mScrollY;
+    }
+
+    /**
+     * Moves the viewport. The position is clamped to keep the display inside the canvas.
+     * @param x The canvas column to show at the left edge of the display.
+     * @param y The canvas row to show at the top of the display.
+     */
+    public void scrollTo(int x, int y) {
+        x = Math.max(0, Math.min(x, mWidth - mDisplayWidth));
+        y = Math.max(0, Math.min(y, mHeight - mDisplayPages * 8));
+        if (x != mScrollX || y != mScrollY) {
+            mScrollX = x;
+            mScrollY = y;
+            mMoved = true;
+        }
+    }
+
+    public void scrollBy(int dx, int dy) {
+        scrollTo(mScrollX + dx, mScrollY + dy);
+    }
+
+    /**
+     * Shows the viewport on the display. Only the display bytes that differ from what the
+     * display holds are written, along with the start line when it moved.
+     * @throws IOException
+     */
+    public void show() throws IOException {
+        if (mMoved || !mDirty.isEmpty()) {
+            compose();
+            if (mStartLinePanning) {
+                mDisplay.setStartLine(mScrollY % RAM_ROWS);
+            }
+            mMoved = false;
+            mDirty.clear();
+        }
+        mDisplay.show();
+    }
+
+    /**
+     * Builds the display RAM content of the viewport in the display buffer.
+     * With start line panning, canvas row y lives in RAM row y % 64, and the RAM page holding
+     * the start line is split between the top and the bottom canvas page of the viewport.
+     */
+    private void compose() {
+        byte[] dst = mDisplayCanvas.getBuffer();
+        int dstOffset = mDisplayCanvas.getOffset();
+        int shift = mScrollY & 7;
+        for (int page = 0; page < mDisplayPages; page++) {
+            int src;
+            int second;
+            if (mStartLinePanning) {
+                int distance = Math.floorMod(page * 8 + shift - mScrollY, RAM_ROWS);
+                src = (mScrollY + distance) >> 3;
+                second = (distance == 0 && shift != 0) ? src + RAM_ROWS / 8 : -1;
+            } else {
+                src = (mScrollY >> 3) + page;
+                second = (shift != 0 && src + 1 < mPages) ? src + 1 : -1;
+            }
+            int srcIndex = src * mWidth + mScrollX;
+            int secondIndex = second * mWidth + mScrollX;
+            int dstIndex = dstOffset + page * mDisplayWidth;
+
+            int first = -1;
+            int last = -1;
+            for (int x = 0; x < mDisplayWidth; x++) {
+                int value;
+                if (mStartLinePanning) {
+                    value = mBuffer[srcIndex + x];
+                    if (second >= 0) {
+                        int low = (1 << shift) - 1;
+                        value = (value & ~low) | (mBuffer[secondIndex + x] & low);
+                    }
+                } else {
+                    value = (mBuffer[srcIndex + x] & 0xFF) >> shift;
+                    if (second >= 0) {
+                        value |= mBuffer[secondIndex + x] << (8 - shift);
+                    }
+                }
+                if (dst[dstIndex + x] != (byte) value) {
+                    dst[dstIndex + x] = (byte) value;
+                    if (first < 0) {
+                        first = x;
+                    }
+                    last = x;
+                }
+            }
+            if (first >= 0) {
+                mDisplayCanvas.markDirty(first, last, page, page);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+    private static final int CONTRAST = 0x81;
+    private static final int DISPLAY_ON = 0xAF;
+    private static final int DISPLAY_OFF = 0xAE;
+
+    @Test
+    public void drainsInSlotOrder() {
+        CommandQueue queue = new CommandQueue();
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_ON);
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x40);
+        byte[] buffer = new byte[1 + CommandQueue.MAX_LENGTH];
+        assertEquals(3, queue.drain(buffer, 1));
+        assertEquals((byte) CONTRAST, buffer[1]);
+        assertEquals((byte) 0x40, buffer[2]);
+        assertEquals((byte) DISPLAY_ON, buffer[3]);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void latestCommandOfSlotWins() {
+        CommandQueue queue = new CommandQueue();
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x10);
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x20);
+        byte[] buffer = new byte[CommandQueue.MAX_LENGTH];
+        assertEquals(2, queue.drain(buffer, 0));
+        assertEquals((byte) 0x20, buffer[1]);
+    }
+
+    @Test
+    public void commandAlreadySentIsDropped() {
+        CommandQueue queue = new CommandQueue();
+        byte[] buffer = new byte[CommandQueue.MAX_LENGTH];
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x40);
+        queue.drain(buffer, 0);
+
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x40);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.drain(buffer, 0));
+
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x41);
+        assertFalse(queue.isEmpty());
+    }
+
+    @Test
+    public void queuingSentCommandAgainCancelsChange() {
+        CommandQueue queue = new CommandQueue();
+        byte[] buffer = new byte[CommandQueue.MAX_LENGTH];
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_ON);
+        queue.drain(buffer, 0);
+
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_OFF);
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_ON);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void forgottenCommandIsSentAgain() {
+        CommandQueue queue = new CommandQueue();
+        byte[] buffer = new byte[CommandQueue.MAX_LENGTH];
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x40);
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_ON);
+        queue.drain(buffer, 0);
+
+        queue.forget(CommandQueue.SLOT_CONTRAST);
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x40);
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_ON);
+        assertEquals(2, queue.drain(buffer, 0));
+
+        queue.forgetAll();
+        queue.put(CommandQueue.SLOT_CONTRAST, CONTRAST, 0x40);
+        queue.put(CommandQueue.SLOT_DISPLAY, DISPLAY_ON);
+        assertEquals(3, queue.drain(buffer, 0));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DirtyRegionTest {
+    @Test
+    public void newRegionIsEmpty() {
+        DirtyRegion region = new DirtyRegion(128, 8);
+        assertTrue(region.isEmpty());
+        for (int page = 0; page < 8; page++) {
+            assertFalse(region.isDirty(page));
+        }
+    }
+
+    @Test
+    public void addGrowsColumnRangeOfPage() {
+        DirtyRegion region = new DirtyRegion(128, 8);
+        region.add(40, 2);
+        region.add(10, 2);
+        region.add(25, 2);
+        assertFalse(region.isEmpty());
+        assertTrue(region.isDirty(2));
+        assertFalse(region.isDirty(1));
+        assertEquals(10, region.getStart(2));
+        assertEquals(40, region.getEnd(2));
+    }
+
+    @Test
+    public void addRangeIsClipped() {
+        DirtyRegion region = new DirtyRegion(128, 8);
+        region.add(-5, 200, -1, 9);
+        for (int page = 0; page < 8; page++) {
+            assertEquals(0, region.getStart(page));
+            assertEquals(127, region.getEnd(page));
+        }
+    }
+
+    @Test
+    public void addRangeOutOfBufferIsIgnored() {
+        DirtyRegion region = new DirtyRegion(128, 8);
+        region.add(130, 140, 0, 0);
+        assertTrue(region.isEmpty());
+        region.addRect(0, 0, 0, 10);
+        assertTrue(region.isEmpty());
+    }
+
+    @Test
+    public void addRectCoversTouchedPages() {
+        DirtyRegion region = new DirtyRegion(128, 8);
+        region.addRect(5, 6, 3, 4);
+        assertTrue(region.isDirty(0));
+        assertTrue(region.isDirty(1));
+        assertFalse(region.isDirty(2));
+        assertEquals(5, region.getStart(1));
+        assertEquals(7, region.getEnd(1));
+    }
+
+    @Test
+    public void mergeKeepsUnionOfWindows() {
+        DirtyRegion a = new DirtyRegion(128, 8);
+        DirtyRegion b = new DirtyRegion(128, 8);
+        a.add(10, 20, 1, 1);
+        b.add(30, 40, 1, 2);
+        a.add(b);
+        assertEquals(10, a.getStart(1));
+        assertEquals(40, a.getEnd(1));
+        assertEquals(30, a.getStart(2));
+        assertEquals(40, a.getEnd(2));
+        assertFalse(a.isDirty(0));
+
+        DirtyRegion empty = new DirtyRegion(128, 8);
+        b.add(empty);
+        assertEquals(30, b.getStart(1));
+    }
+
+    @Test
+    public void setCopiesAndClearEmpties() {
+        DirtyRegion a = new DirtyRegion(128, 8);
+        DirtyRegion b = new DirtyRegion(128, 8);
+        b.add(3, 4);
+        a.addAll();
+        a.set(b);
+        assertFalse(a.isDirty(0));
+        assertTrue(a.isDirty(4));
+        assertEquals(3, a.getStart(4));
+        a.clear();
+        assertTrue(a.isEmpty());
+        assertFalse(a.isDirty(4));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PageCanvasTest {
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 16;
+
+    private final byte[] mBuffer = new byte[1 + WIDTH * HEIGHT / 8];
+    private final DirtyRegion mDirty = new DirtyRegion(WIDTH, HEIGHT / 8);
+    private final PageCanvas mCanvas = new PageCanvas(mBuffer, 1, WIDTH, HEIGHT, mDirty);
+
+    @Test
+    public void setPixelWritesBitAndMarksByte() {
+        mCanvas.setPixel(3, 10, true);
+        assertEquals((byte) 0x04, mBuffer[1 + WIDTH + 3]);
+        assertTrue(mCanvas.getPixel(3, 10));
+        assertFalse(mDirty.isDirty(0));
+        assertEquals(3, mDirty.getStart(1));
+        assertEquals(3, mDirty.getEnd(1));
+
+        mCanvas.setPixel(3, 10, false);
+        assertEquals(0, mBuffer[1 + WIDTH + 3]);
+    }
+
+    @Test
+    public void pixelsOutOfCanvasAreIgnored() {
+        mCanvas.setPixel(-1, 0, true);
+        mCanvas.setPixel(WIDTH, 0, true);
+        mCanvas.setPixel(0, HEIGHT, true);
+        assertFalse(mCanvas.getPixel(-1, 0));
+        assertTrue(mDirty.isEmpty());
+        assertEquals(0, mBuffer[0]);
+    }
+
+    @Test
+    public void hLineIsClipped() {
+        mCanvas.drawHLine(-4, 0, 10, true);
+        for (int x = 0; x < 6; x++) {
+            assertTrue(mCanvas.getPixel(x, 0));
+        }
+        assertFalse(mCanvas.getPixel(6, 0));
+        assertEquals(0, mDirty.getStart(0));
+        assertEquals(5, mDirty.getEnd(0));
+    }
+
+    @Test
+    public void fillRectAcrossPages() {
+        mCanvas.fillRect(2, 5, 3, 6, true);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = x >= 2 && x < 5 && y >= 5 && y < 11;
+                assertEquals(x + "," + y, inside, mCanvas.getPixel(x, y));
+            }
+        }
+        assertEquals((byte) 0xE0, mBuffer[1 + 2]);
+        assertEquals((byte) 0x07, mBuffer[1 + WIDTH + 2]);
+        assertEquals(2, mDirty.getStart(0));
+        assertEquals(4, mDirty.getEnd(1));
+    }
+
+    @Test
+    public void drawRectLeavesInsideUntouched() {
+        mCanvas.drawRect(0, 0, 5, 5, true);
+        assertTrue(mCanvas.getPixel(0, 0));
+        assertTrue(mCanvas.getPixel(4, 4));
+        assertTrue(mCanvas.getPixel(4, 2));
+        assertFalse(mCanvas.getPixel(2, 2));
+    }
+
+    @Test
+    public void fillMarksEverything() {
+        mCanvas.fill(true);
+        for (int i = 1; i < mBuffer.length; i++) {
+            assertEquals((byte) 0xFF, mBuffer[i]);
+        }
+        assertEquals(0, mBuffer[0]);
+        for (int page = 0; page < HEIGHT / 8; page++) {
+            assertEquals(0, mDirty.getStart(page));
+            assertEquals(WIDTH - 1, mDirty.getEnd(page));
+        }
+    }
+
+    @Test
+    public void blitShiftsAcrossPageBoundary() {
+        byte[] src = {(byte) 0xFF, (byte) 0x81};
+        mCanvas.blit(src, 2, 8, 4, 3, PageCanvas.BlitMode.Or);
+        assertEquals((byte) 0xF8, mBuffer[1 + 4]);
+        assertEquals((byte) 0x07, mBuffer[1 + WIDTH + 4]);
+        assertEquals((byte) 0x08, mBuffer[1 + 5]);
+        assertEquals((byte) 0x04, mBuffer[1 + WIDTH + 5]);
+        assertEquals(4, mDirty.getStart(0));
+        assertEquals(5, mDirty.getEnd(1));
+    }
+
+    @Test
+    public void blitModesCombineWithCanvas() {
+        byte[] src = {(byte) 0x0F};
+        mBuffer[1] = (byte) 0x3C;
+        mCanvas.blit(src, 1, 8, 0, 0, PageCanvas.BlitMode.Xor);
+        assertEquals((byte) 0x33, mBuffer[1]);
+        mCanvas.blit(src, 1, 8, 0, 0, PageCanvas.BlitMode.Clear);
+        assertEquals((byte) 0x30, mBuffer[1]);
+        mCanvas.blit(src, 1, 8, 0, 0, PageCanvas.BlitMode.Copy);
+        assertEquals((byte) 0x0F, mBuffer[1]);
+        mBuffer[1] = (byte) 0xF0;
+        mCanvas.blit(src, 1, 4, 0, 0, PageCanvas.BlitMode.Copy);
+        assertEquals((byte) 0xFF, mBuffer[1]);
+    }
+
+    @Test
+    public void blitMaskedKeepsPixelsOutOfMask() {
+        byte[] src = {(byte) 0x00, (byte) 0xFF};
+        byte[] mask = {(byte) 0x0F, (byte) 0xF0};
+        mBuffer[1] = (byte) 0xFF;
+        mCanvas.blitMasked(src, mask, 2, 8, 0, 0);
+        assertEquals((byte) 0xF0, mBuffer[1]);
+        assertEquals((byte) 0xF0, mBuffer[2]);
+    }
+
+    @Test
+    public void blitIsClippedToCanvas() {
+        byte[] src = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        mCanvas.blit(src, 3, 8, WIDTH - 1, HEIGHT - 4, PageCanvas.BlitMode.Or);
+        assertEquals((byte) 0xF0, mBuffer[mBuffer.length - 1]);
+        assertEquals(WIDTH - 1, mDirty.getStart(1));
+        assertEquals(WIDTH - 1, mDirty.getEnd(1));
+        assertFalse(mDirty.isDirty(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blitRejectsNullMode() {
+        mCanvas.blit(new byte[1], 1, 8, 0, 0, null);
+    }
+}
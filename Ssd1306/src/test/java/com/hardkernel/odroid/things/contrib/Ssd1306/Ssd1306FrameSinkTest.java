@@ -0,0 +1,198 @@
+/*
+ * Copyright 2023 Hardkernel.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hardkernel.odroid.things.contrib.Ssd1306;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Renders through {@link Ssd1306} into a {@link FrameSink} and checks what reaches the display.
+ */
+public class Ssd1306FrameSinkTest {
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 64;
+
+    /**
+     * Keeps every command transaction besides decoding it.
+     */
+    private static class RecordingSink extends FrameSink {
+        final List<byte[]> mCommands = new ArrayList<>();
+        int mDataBytes;
+
+        RecordingSink() {
+            super(WIDTH, HEIGHT);
+        }
+
+        @Override
+        public synchronized void writeCommands(byte[] buffer, int length) {
+            mCommands.add(Arrays.copyOfRange(buffer, 1, length));
+            super.writeCommands(buffer, length);
+        }
+
+        @Override
+        public synchronized void writeData(byte[] buffer, int length) {
+            mDataBytes += length - 1;
+            super.writeData(buffer, length);
+        }
+
+        /**
+         * @return the column and page address windows written, as {x0, x1, page0, page1}.
+         */
+        List<int[]> windows() {
+            List<int[]> windows = new ArrayList<>();
+            for (byte[] command : mCommands) {
+                int n = command.length;
+                if (n >= 6 && command[n - 6] == 0x21 && command[n - 3] == 0x22) {
+                    windows.add(new int[] {command[n - 5] & 0xFF, command[n - 4] & 0xFF,
+                            command[n - 2] & 0xFF, command[n - 1] & 0xFF});
+                }
+            }
+            return windows;
+        }
+
+        void reset() {
+            mCommands.clear();
+            mDataBytes = 0;
+        }
+    }
+
+    private RecordingSink mSink;
+    private Ssd1306 mDisplay;
+
+    @Before
+    public void setUp() throws Exception {
+        mSink = new RecordingSink();
+        mDisplay = new Ssd1306(mSink, WIDTH, HEIGHT);
+        mDisplay.show();
+        mSink.reset();
+    }
+
+    @Test
+    public void firstFrameWritesWholeDisplay() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        Ssd1306 display = new Ssd1306(sink, WIDTH, HEIGHT);
+        display.getCanvas().fillRect(0, 0, 8, 8, true);
+        display.show();
+        assertEquals(1, sink.getFrameCount());
+        assertEquals(WIDTH * HEIGHT / 8, sink.mDataBytes);
+        assertTrue(sink.isDisplayOn());
+        assertTrue(sink.getPixel(7, 7));
+        assertFalse(sink.getPixel(8, 7));
+    }
+
+    @Test
+    public void frameMatchesCanvas() throws Exception {
+        PageCanvas canvas = mDisplay.getCanvas();
+        canvas.drawRect(10, 10, 30, 20, true);
+        canvas.fillCircle(90, 30, 12, true);
+        canvas.drawHLine(0, 63, WIDTH, true);
+        mDisplay.show();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(x + "," + y, canvas.getPixel(x, y), mSink.getPixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void onlyChangedWindowIsWritten() throws Exception {
+        mDisplay.getCanvas().setPixel(40, 20, true);
+        mDisplay.show();
+        List<int[]> windows = mSink.windows();
+        assertEquals(1, windows.size());
+        assertArrayEquals(new int[] {40, 40, 2, 2}, windows.get(0));
+        assertEquals(1, mSink.mDataBytes);
+        assertTrue(mSink.getPixel(40, 20));
+    }
+
+    @Test
+    public void adjacentPagesMergeIntoOneWindow() throws Exception {
+        mDisplay.getCanvas().setPixel(10, 3, true);
+        mDisplay.getCanvas().setPixel(12, 11, true);
+        mDisplay.show();
+        List<int[]> windows = mSink.windows();
+        assertEquals(1, windows.size());
+        assertArrayEquals(new int[] {10, 12, 0, 1}, windows.get(0));
+        assertTrue(mSink.getPixel(10, 3));
+        assertTrue(mSink.getPixel(12, 11));
+    }
+
+    @Test
+    public void distantWindowsAreWrittenSeparately() throws Exception {
+        mDisplay.getCanvas().setPixel(0, 0, true);
+        mDisplay.getCanvas().setPixel(WIDTH - 1, 8, true);
+        mDisplay.getCanvas().setPixel(5, 63, true);
+        mDisplay.show();
+        List<int[]> windows = mSink.windows();
+        assertEquals(3, windows.size());
+        assertArrayEquals(new int[] {0, 0, 0, 0}, windows.get(0));
+        assertArrayEquals(new int[] {WIDTH - 1, WIDTH - 1, 1, 1}, windows.get(1));
+        assertArrayEquals(new int[] {5, 5, 7, 7}, windows.get(2));
+        assertEquals(3, mSink.mDataBytes);
+        assertEquals(2, mSink.getFrameCount());
+    }
+
+    @Test
+    public void unchangedFrameWritesNothing() throws Exception {
+        int frames = mSink.getFrameCount();
+        mDisplay.show();
+        assertEquals(frames, mSink.getFrameCount());
+        assertTrue(mSink.mCommands.isEmpty());
+    }
+
+    @Test
+    public void settingAlreadySentIsNotSentAgain() throws Exception {
+        mDisplay.setContrast(0x20);
+        mDisplay.flushCommands();
+        assertEquals(1, mSink.mCommands.size());
+        assertEquals(0x20, mSink.getContrast());
+
+        mDisplay.setContrast(0x20);
+        mDisplay.flushCommands();
+        assertEquals(1, mSink.mCommands.size());
+    }
+
+    @Test
+    public void settingsGoWithFirstWindow() throws Exception {
+        mDisplay.setDisplayInverse(true);
+        mDisplay.getCanvas().setPixel(1, 1, true);
+        mDisplay.show();
+        assertEquals(1, mSink.mCommands.size());
+        assertEquals((byte) 0xA7, mSink.mCommands.get(0)[0]);
+        assertTrue(mSink.isInverse());
+    }
+
+    @Test
+    public void invalidateSendsSettingsAndFrameAgain() throws Exception {
+        mDisplay.setContrast(0x20);
+        mDisplay.flushCommands();
+        mSink.reset();
+
+        mDisplay.invalidate();
+        mDisplay.setContrast(0x20);
+        mDisplay.show();
+        assertEquals(WIDTH * HEIGHT / 8, mSink.mDataBytes);
+        assertEquals((byte) 0x81, mSink.mCommands.get(0)[0]);
+        assertEquals(0x20, mSink.getContrast());
+    }
+}